@@ -1,7 +1,10 @@
 package com.ray.aiapp.advice;
 
+import com.ray.aiapp.exception.IndexBuildInProgressException;
+import com.ray.aiapp.exception.ModelUnavailableException;
 import com.ray.aiapp.exception.ResourceAlreadyExistsException;
 import com.ray.aiapp.exception.ResourceNotFoundException;
+import com.ray.aiapp.exception.SessionBusyException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ConstraintViolationException;
 import java.time.Instant;
@@ -50,6 +53,26 @@ public class GlobalExceptionHandler {
         return buildResponse(HttpStatus.NOT_FOUND, ex.getMessage(), request.getRequestURI(), Collections.emptyList());
     }
 
+    @ExceptionHandler(ModelUnavailableException.class)
+    public ResponseEntity<ApiErrorResponse> handleModelUnavailable(ModelUnavailableException ex,
+                                                                   HttpServletRequest request) {
+        log.warn("Chat model unavailable: {}", ex.getMessage());
+        return buildResponse(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(), request.getRequestURI(),
+                Collections.emptyList());
+    }
+
+    @ExceptionHandler(SessionBusyException.class)
+    public ResponseEntity<ApiErrorResponse> handleSessionBusy(SessionBusyException ex, HttpServletRequest request) {
+        log.warn("Chat turn rejected: {}", ex.getMessage());
+        return buildResponse(HttpStatus.CONFLICT, ex.getMessage(), request.getRequestURI(), Collections.emptyList());
+    }
+
+    @ExceptionHandler(IndexBuildInProgressException.class)
+    public ResponseEntity<ApiErrorResponse> handleIndexBuildInProgress(IndexBuildInProgressException ex,
+                                                                       HttpServletRequest request) {
+        return buildResponse(HttpStatus.CONFLICT, ex.getMessage(), request.getRequestURI(), Collections.emptyList());
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<ApiErrorResponse> handleMaxUploadSize(MaxUploadSizeExceededException ex,
                                                                  HttpServletRequest request) {
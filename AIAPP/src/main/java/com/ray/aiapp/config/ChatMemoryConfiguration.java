@@ -0,0 +1,30 @@
+package com.ray.aiapp.config;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@RequiredArgsConstructor
+public class ChatMemoryConfiguration {
+
+    private final LangchainModelProperties properties;
+
+    /**
+     * Generates conversation summaries off the request threads.
+     * A rejected summary is retried with the next turn that evicts messages.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor summaryExecutor() {
+        int threads = properties.getMemory().getSummaryThreads();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("chat-summary-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
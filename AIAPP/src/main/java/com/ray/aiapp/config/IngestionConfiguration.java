@@ -0,0 +1,32 @@
+package com.ray.aiapp.config;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@EnableScheduling
+@RequiredArgsConstructor
+public class IngestionConfiguration {
+
+    private final LangchainModelProperties properties;
+
+    /**
+     * Bounded pool that runs ingestion jobs off the request threads.
+     * The worker never claims more jobs than there are threads, so the queue only absorbs hand-off races.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor ingestionExecutor() {
+        int threads = properties.getIngestion().getWorkerThreads();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads);
+        executor.setThreadNamePrefix("ingestion-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
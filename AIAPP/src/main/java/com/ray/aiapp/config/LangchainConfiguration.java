@@ -2,6 +2,7 @@ package com.ray.aiapp.config;
 
 import com.ray.aiapp.config.properties.LangchainModelProperties;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine;
 import lombok.RequiredArgsConstructor;
@@ -32,6 +33,19 @@ public class LangchainConfiguration {
                 .build();
     }
 
+    /**
+     * Same model and settings as {@link #langchainOpenAiChatModel()}, used by the /stream endpoints.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "aiapp.langchain", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public OpenAiStreamingChatModel langchainOpenAiStreamingChatModel() {
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(properties.getApiKey())
+                .modelName(properties.getModel())
+                .temperature(properties.getTemperature())
+                .build();
+    }
+
     @Bean
     @ConditionalOnProperty(prefix = "aiapp.langchain.web-search", name = "enabled", havingValue = "true")
     public WebSearchEngine webSearchEngine() {
@@ -1,9 +1,21 @@
 package com.ray.aiapp.config;
 
+import java.util.Map;
+import org.springframework.boot.autoconfigure.flyway.FlywayConfigurationCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 
 @Configuration
 @EnableJpaAuditing
 public class PersistenceConfiguration {
+
+    /**
+     * Flyway's transactional advisory lock makes CREATE INDEX CONCURRENTLY wait on Flyway's own
+     * transaction forever (see V7__create_embedding_hnsw_index.sql), so use a session-level lock instead.
+     */
+    @Bean
+    public FlywayConfigurationCustomizer nonTransactionalFlywayLock() {
+        return configuration -> configuration.configuration(Map.of("flyway.postgresql.transactional.lock", "false"));
+    }
 }
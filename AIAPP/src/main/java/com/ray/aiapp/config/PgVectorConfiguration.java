@@ -0,0 +1,26 @@
+package com.ray.aiapp.config;
+
+import javax.sql.DataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PgVectorConfiguration {
+
+    /**
+     * Wrap the pooled DataSource so pooled connections speak pgvector's binary format.
+     */
+    @Bean
+    public static BeanPostProcessor pgVectorDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof PgVectorDataSource)) {
+                    return new PgVectorDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+package com.ray.aiapp.config;
+
+import com.ray.aiapp.domain.converter.PgVector;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource decorator that registers {@link PgVector} on every physical PostgreSQL connection
+ * the first time the pool hands it out. Registering a PGBinaryObject type is what enables
+ * binary transfer of vectors in pgjdbc.
+ */
+public class PgVectorDataSource extends DelegatingDataSource {
+
+    private final Set<PGConnection> registeredConnections = Collections.newSetFromMap(new WeakHashMap<>());
+
+    public PgVectorDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return register(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return register(super.getConnection(username, password));
+    }
+
+    private Connection register(Connection connection) throws SQLException {
+        if (!connection.isWrapperFor(PGConnection.class)) {
+            return connection;
+        }
+
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        synchronized (registeredConnections) {
+            if (registeredConnections.add(pgConnection)) {
+                pgConnection.addDataType(PgVector.TYPE_NAME, PgVector.class);
+            }
+        }
+        return connection;
+    }
+}
@@ -1,17 +1,32 @@
 package com.ray.aiapp.config;
 
 import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.EmbeddingBatching;
+import com.ray.aiapp.config.properties.LangchainModelProperties.EmbeddingCache;
+import com.ray.aiapp.service.CachingEmbeddingModel;
+import com.ray.aiapp.service.ChunkService;
+import com.ray.aiapp.service.CoalescingEmbeddingModel;
+import com.ray.aiapp.service.ContextPacker;
+import com.ray.aiapp.service.DocumentAvailability;
+import com.ray.aiapp.service.DocumentContentRetriever;
+import com.ray.aiapp.service.ModelCallScheduler;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import com.ray.aiapp.service.RateLimitedEmbeddingModel;
+import com.ray.aiapp.service.SourceTaggedContentInjector;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Slf4j
 @Configuration
@@ -21,8 +36,11 @@ public class RagConfiguration {
 
     private final LangchainModelProperties properties;
 
+    /**
+     * The OpenAI client shared by {@link #embeddingModel} and {@link #ingestionEmbeddingModel}.
+     */
     @Bean
-    public EmbeddingModel embeddingModel() {
+    public OpenAiEmbeddingModel openAiEmbeddingModel() {
         log.info("Creating OpenAI embedding model: {}", properties.getRag().getEmbeddingModel());
         return OpenAiEmbeddingModel.builder()
                 .apiKey(properties.getApiKey())
@@ -30,17 +48,61 @@ public class RagConfiguration {
                 .build();
     }
 
+    /**
+     * Query embeddings: the rate-limited OpenAI model, wrapped by the query batcher and then the query
+     * cache. A cache hit never waits for a batch window, and only misses are batched.
+     */
+    @Bean
+    @Primary
+    public EmbeddingModel embeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                         ModelCallScheduler modelCallScheduler,
+                                         MeterRegistry meterRegistry) {
+        EmbeddingModel model = new RateLimitedEmbeddingModel(openAiEmbeddingModel, modelCallScheduler,
+                Priority.QUERY_EMBEDDING);
+
+        EmbeddingBatching batching = properties.getRag().getEmbeddingBatching();
+        if (batching.isEnabled()) {
+            model = new CoalescingEmbeddingModel(model, batching, meterRegistry);
+        }
+
+        EmbeddingCache cache = properties.getRag().getEmbeddingCache();
+        if (!cache.isEnabled()) {
+            return model;
+        }
+        return new CachingEmbeddingModel(model, properties.getRag().getEmbeddingModel(),
+                cache.getMaxSize(), cache.getTtl(), meterRegistry);
+    }
+
+    /**
+     * Ingestion batches, admitted behind chats and queries so a large upload only uses spare capacity.
+     */
+    @Bean
+    public EmbeddingModel ingestionEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                                  ModelCallScheduler modelCallScheduler) {
+        return new RateLimitedEmbeddingModel(openAiEmbeddingModel, modelCallScheduler, Priority.BACKGROUND);
+    }
+
     // EmbeddingStore bean is provided by PgVectorEmbeddingStore @Component
     // No longer using InMemoryEmbeddingStore
 
     @Bean
     public ContentRetriever contentRetriever(EmbeddingStore<TextSegment> embeddingStore,
-                                              EmbeddingModel embeddingModel) {
-        return EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(properties.getRag().getMaxResults())
-                .minScore(properties.getRag().getMinScore())
+                                              EmbeddingModel embeddingModel,
+                                              ChunkService chunkService,
+                                              DocumentAvailability documentAvailability,
+                                              ContextPacker contextPacker) {
+        return new DocumentContentRetriever(embeddingStore, embeddingModel, chunkService, documentAvailability,
+                contextPacker, properties.getRag());
+    }
+
+    /**
+     * Injects retrieved chunks in a fixed, source-tagged layout that chat memory can strip again.
+     */
+    @Bean
+    public RetrievalAugmentor retrievalAugmentor(ContentRetriever contentRetriever) {
+        return DefaultRetrievalAugmentor.builder()
+                .contentRetriever(contentRetriever)
+                .contentInjector(new SourceTaggedContentInjector())
                 .build();
     }
 }
@@ -0,0 +1,31 @@
+package com.ray.aiapp.config;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import java.util.concurrent.ThreadPoolExecutor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@RequiredArgsConstructor
+public class RetrievalConfiguration {
+
+    private final LangchainModelProperties properties;
+
+    /**
+     * Runs the lexical branch of a hybrid search while the request thread runs the vector branch.
+     * Callers wait for the result, so a full queue runs the task on the caller rather than rejecting it.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor retrievalExecutor() {
+        int threads = properties.getRag().getHybrid().getSearchThreads();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads * 4);
+        executor.setThreadNamePrefix("retrieval-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+}
@@ -1,5 +1,7 @@
 package com.ray.aiapp.config.properties;
 
+import java.time.Duration;
+import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -14,9 +16,18 @@ public class LangchainModelProperties {
     private String model = "gpt-4o-mini";
     private double temperature = 0.2;
     private Integer maxTokens;
+    /** Longest a /stream response may stay open. */
+    private Duration streamTimeout = Duration.ofMinutes(5);
 
     private Rag rag = new Rag();
     private WebSearch webSearch = new WebSearch();
+    private Ingestion ingestion = new Ingestion();
+    private Sessions sessions = new Sessions();
+    private Memory memory = new Memory();
+    private Execution execution = new Execution();
+    private Routing routing = new Routing();
+    private RateLimit rateLimit = new RateLimit();
+    private Resilience resilience = new Resilience();
 
     @Getter
     @Setter
@@ -27,6 +38,121 @@ public class LangchainModelProperties {
         private int chunkOverlap = 50;
         private int maxResults = 5;
         private double minScore = 0.5;
+        private boolean includeEmbeddings = false;
+        private int insertBatchSize = 500;
+        private VectorIndex index = new VectorIndex();
+        private Hybrid hybrid = new Hybrid();
+        private EmbeddingCache embeddingCache = new EmbeddingCache();
+        private EmbeddingBatching embeddingBatching = new EmbeddingBatching();
+        private ResponseCache responseCache = new ResponseCache();
+        private Packing packing = new Packing();
+        /** How unified chat gets document context. */
+        private UnifiedRetrievalMode unifiedRetrieval = UnifiedRetrievalMode.TOOL;
+        /**
+         * Keep retrieved chunks in chat memory. When off, only the user's own text is stored and document
+         * search tool results are replaced by a short note, in both unified retrieval modes.
+         */
+        private boolean persistRetrievedContext = false;
+        /** Without persisted context, note the sources (file and chunk) after the stored user text. */
+        private boolean persistSourceReferences = true;
+        /**
+         * How long "nothing is indexed" is trusted before the database is asked again, so documents
+         * indexed through another instance are found within this interval.
+         */
+        private Duration noDocumentsRecheckInterval = Duration.ofSeconds(5);
+    }
+
+    /**
+     * Cache of query embeddings in front of the embedding model; ingestion batches bypass it.
+     */
+    @Getter
+    @Setter
+    public static class EmbeddingCache {
+        private boolean enabled = true;
+        private long maxSize = 10_000;
+        private Duration ttl = Duration.ofHours(1);
+    }
+
+    /**
+     * Micro-batching of concurrent query embeddings behind the cache, see CoalescingEmbeddingModel.
+     */
+    @Getter
+    @Setter
+    public static class EmbeddingBatching {
+        private boolean enabled = true;
+        /** How long the first query of a batch waits for others to join it. */
+        private Duration window = Duration.ofMillis(3);
+        private int maxBatchSize = 32;
+        /** Threads sending batches; each blocks for one embedding call. */
+        private int senderThreads = 4;
+        /** Batches waiting for a sender; beyond that a batch fails at once instead of queueing. */
+        private int senderQueueCapacity = 64;
+    }
+
+    /**
+     * Opt-in cache of first-turn answers, matched by query embedding similarity.
+     */
+    @Getter
+    @Setter
+    public static class ResponseCache {
+        private boolean enabled = false;
+        /** Cosine similarity at or above which a cached question counts as the same question. */
+        private double similarityThreshold = 0.95;
+        private long maxEntries = 2_000;
+        private Duration ttl = Duration.ofHours(6);
+    }
+
+    /**
+     * Post-processing of retrieved chunks into passages, see ContextPacker.
+     */
+    @Getter
+    @Setter
+    public static class Packing {
+        private boolean enabled = true;
+        /** Token budget for all passages of one retrieval; the best passage is always kept. */
+        private int maxContextTokens = 1_500;
+        /** Largest run of missing chunks fetched to join two hits from the same document into one passage. */
+        private int bridgeGap = 1;
+        /** Chunks fetched on each side of every hit; 0 fetches only gap-bridging chunks. */
+        private int expandNeighbours = 0;
+    }
+
+    /**
+     * Lexical + vector retrieval merged with reciprocal rank fusion:
+     * score = vectorWeight / (rrfK + vectorRank) + lexicalWeight / (rrfK + lexicalRank).
+     */
+    @Getter
+    @Setter
+    public static class Hybrid {
+        private boolean enabled = true;
+        private double vectorWeight = 1.0;
+        private double lexicalWeight = 1.0;
+        private int rrfK = 60;
+        /** Candidates fetched from each branch before fusion; never fewer than maxResults. */
+        private int candidateCount = 20;
+        private int searchThreads = 8;
+    }
+
+    @Getter
+    @Setter
+    public static class VectorIndex {
+        private VectorIndexType type = VectorIndexType.HNSW;
+        private int m = 16;
+        private int efConstruction = 64;
+        private int lists = 100;
+        private int efSearch = 40;
+        private int probes = 10;
+    }
+
+    public enum VectorIndexType {
+        HNSW, IVFFLAT
+    }
+
+    public enum UnifiedRetrievalMode {
+        /** Document search is a tool; the model calls it only for questions about the user's documents. */
+        TOOL,
+        /** Every message retrieves document context before the model is called. */
+        ALWAYS
     }
 
     @Getter
@@ -35,5 +161,190 @@ public class LangchainModelProperties {
         private boolean enabled = false;
         private String apiKey;
         private int maxResults = 5;
+        /** How long a search result is reused for the same query. */
+        private Duration cacheTtl = Duration.ofMinutes(10);
+        private long cacheMaxSize = 1_000;
+        /** Longest a search may take before the tool reports a timeout to the model. */
+        private Duration timeout = Duration.ofSeconds(10);
+        private int searchThreads = 8;
+        /** Searches waiting for a thread; beyond that the tool tells the model search is busy. */
+        private int searchQueueCapacity = 32;
+    }
+
+    @Getter
+    @Setter
+    public static class Ingestion {
+        private int workerThreads = 2;
+        private Duration pollInterval = Duration.ofSeconds(1);
+        private int maxAttempts = 3;
+        private Duration staleJobTimeout = Duration.ofMinutes(10);
+        /** How often running jobs refresh updated_at; keep well below {@code staleJobTimeout}. */
+        private Duration heartbeatInterval = Duration.ofSeconds(30);
+        private int embeddingBatchSize = 64;
+        private int embeddingBatchMaxTokens = 50_000;
+        private int embeddingMaxRetries = 3;
+        private Duration embeddingRetryBackoff = Duration.ofSeconds(1);
+    }
+
+    /**
+     * Per-service limits for in-memory chat sessions, see {@code SessionRegistry}.
+     */
+    @Getter
+    @Setter
+    public static class Sessions {
+        private SessionSettings chat = new SessionSettings();
+        private SessionSettings rag = new SessionSettings();
+        private SessionSettings search = new SessionSettings();
+        private SessionSettings unified = new SessionSettings();
+        /**
+         * Longest a turn, or a duplicate waiting for its twin, waits for the previous turn of the same
+         * session. After that it is rejected with 409, so a hung model call cannot block a request forever
+         * and turns of one session never overlap.
+         */
+        private Duration turnWaitTimeout = Duration.ofMinutes(2);
+    }
+
+    @Getter
+    @Setter
+    public static class SessionSettings {
+        private long maxSessions = 10_000;
+        private Duration idleTimeout = Duration.ofMinutes(30);
+        private MemoryMode memoryMode = MemoryMode.WINDOW;
+        /** Message limit in WINDOW mode. */
+        private int maxMessages = 40;
+        /** Estimated prompt-token limit of the memory in TOKEN_BUDGET mode. */
+        private int maxMemoryTokens = 3_000;
+    }
+
+    public enum MemoryMode {
+        /** Keep the last maxMessages messages. */
+        WINDOW,
+        /** Keep whole recent turns within maxMemoryTokens and fold older turns into a running summary. */
+        TOKEN_BUDGET
+    }
+
+    /**
+     * Chat memory persistence, see {@code PostgresChatMemoryStore}.
+     */
+    @Getter
+    @Setter
+    public static class Memory {
+        /** How often buffered memory updates are written to the database. */
+        private Duration flushInterval = Duration.ofMillis(500);
+        /** Buffered sessions that trigger an early flush. */
+        private int flushBatchSize = 200;
+        private long hotSessions = 10_000;
+        private Duration hotSessionTtl = Duration.ofMinutes(10);
+        /** How long a hot session is trusted before its row version is checked against the database again. */
+        private Duration revalidateInterval = Duration.ofSeconds(1);
+        /** Threads generating TOKEN_BUDGET summaries. */
+        private int summaryThreads = 2;
+    }
+
+    /**
+     * Request threads run on virtual threads when {@code spring.threads.virtual.enabled=true}.
+     * The OpenAI and Tavily clients (OkHttp) block inside synchronized sections, which pins a virtual
+     * thread to its carrier; with the pin guard on, those calls run on a bounded platform-thread pool
+     * while the virtual request thread waits unmounted.
+     */
+    @Getter
+    @Setter
+    public static class Execution {
+        private boolean pinGuardEnabled = true;
+        /**
+         * Upper bound on concurrent outbound model calls made from virtual threads. Unset, it follows
+         * {@code server.tomcat.threads.max}, the concurrency the platform-thread setup allows.
+         */
+        private Integer pinGuardThreads;
+        /**
+         * Calls waiting for a pin-guard thread. Virtual request threads have no limit of their own, so beyond
+         * this a call fails at once with 503 instead of queueing behind a slow provider.
+         */
+        private int pinGuardQueueCapacity = 100;
+    }
+
+    /**
+     * Model selection for chat turns. A request's assistant profile always wins; without one, and when
+     * enabled, simple turns go to {@code fastModel} and everything else to {@code model}. Routing needs a
+     * {@code fastModel} that differs from {@code model}; there is deliberately no default.
+     */
+    @Getter
+    @Setter
+    public static class Routing {
+        private boolean enabled = false;
+        private String fastModel;
+        /** Longest message, in characters, that still counts as a simple turn. */
+        private int maxSimpleChars = 160;
+        /** A message containing any of these (case-insensitive) is never a simple turn. */
+        private List<String> complexKeywords = List.of(
+                "explain", "analyze", "analyse", "compare", "summarize", "summarise",
+                "step by step", "code", "debug", "design", "plan", "write", "```");
+        /** Distinct (model, temperature) clients kept alive at once. */
+        private int maxModelClients = 16;
+    }
+
+    /**
+     * Client-side limits of the shared OpenAI key, enforced by ModelCallScheduler for chat, embedding
+     * and summary calls alike. A limit of 0 is not enforced.
+     */
+    @Getter
+    @Setter
+    public static class RateLimit {
+        private boolean enabled = true;
+        private int requestsPerMinute = 500;
+        private int tokensPerMinute = 200_000;
+        /** Share of both limits that ingestion and summaries leave free for chats and queries. */
+        private double backgroundHeadroom = 0.2;
+        /** Completion tokens charged up front per chat call when {@code max-tokens} is not set. */
+        private int completionTokens = 500;
+        /** Retries of a call rejected with 429; streaming calls are not retried. */
+        private int maxRetries = 3;
+        /** Pause after a 429 that does not say how long to wait. */
+        private Duration retryBackoff = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Timeout and circuit breaker around blocking chat calls, see ResilientChatLanguageModel.
+     * Streaming calls are bounded by {@code stream-timeout} instead.
+     */
+    @Getter
+    @Setter
+    public static class Resilience {
+        private boolean enabled = true;
+        /** Longest a chat call may take, hedge included. */
+        private Duration timeout = Duration.ofSeconds(60);
+        /** Most recent calls the failure rate is computed over. */
+        private int circuitWindow = 50;
+        /** Calls in the window before the circuit may open. */
+        private int circuitMinimumCalls = 20;
+        /** Failure rate, timeouts, 5xx responses and I/O errors, that opens the circuit. */
+        private double circuitFailureRate = 0.5;
+        /** How long an open circuit rejects calls before letting trial calls through. */
+        private Duration circuitOpenDuration = Duration.ofSeconds(30);
+        /** Trial calls that must all succeed to close the circuit again. */
+        private int circuitHalfOpenCalls = 3;
+        /**
+         * Threads running chat calls, hedges included. A call finding none free fails at once rather than
+         * queueing, so waiting for a thread never counts against {@code timeout} or the circuit.
+         */
+        private int callThreads = 200;
+        private Hedging hedging = new Hedging();
+    }
+
+    /**
+     * A duplicate of a chat call still running at the {@code percentile} latency of recent calls;
+     * whichever answers first is used. Each hedge is an extra request, so it is off by default.
+     */
+    @Getter
+    @Setter
+    public static class Hedging {
+        private boolean enabled = false;
+        private double percentile = 0.95;
+        /** Never hedge earlier than this, whatever the percentile. */
+        private Duration minDelay = Duration.ofMillis(500);
+        /** Upper bound on hedges as a share of all calls. */
+        private double maxRatio = 0.1;
+        /** Recent successful calls the percentile is computed from; no hedging until the window is full. */
+        private int latencySamples = 200;
     }
 }
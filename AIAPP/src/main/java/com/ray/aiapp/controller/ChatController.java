@@ -5,12 +5,14 @@ import com.ray.aiapp.service.dto.ChatRequest;
 import com.ray.aiapp.service.dto.ChatResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequiredArgsConstructor
@@ -18,13 +20,21 @@ import org.springframework.web.bind.annotation.RestController;
 public class ChatController {
 
     private final ChatService chatService;
+    private final ChatEventStreams chatEventStreams;
 
     @PostMapping
     public ChatResponse chat(@Valid @RequestBody ChatRequest request) {
-        String response = chatService.chat(request.sessionId(), request.message());
+        String response = chatService.chat(request.sessionId(), request.message(), request.profile());
         return new ChatResponse(request.sessionId(), response);
     }
 
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@Valid @RequestBody ChatRequest request) {
+        return chatEventStreams.stream(request.sessionId(),
+                listener -> chatService.streamChat(
+                        request.sessionId(), request.message(), request.profile(), listener));
+    }
+
     @DeleteMapping("/{sessionId}")
     public void clearMemory(@PathVariable String sessionId) {
         chatService.clearMemory(sessionId);
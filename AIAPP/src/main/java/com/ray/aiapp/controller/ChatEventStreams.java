@@ -0,0 +1,131 @@
+package com.ray.aiapp.controller;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.service.ChatStream;
+import com.ray.aiapp.service.ChatStreamListener;
+import com.ray.aiapp.service.dto.ChatResponse;
+import com.ray.aiapp.service.dto.ChatStreamSource;
+import com.ray.aiapp.service.dto.ChatStreamToolEvent;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.rag.content.Content;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Adapts a streamed chat turn to a {@code text/event-stream} response.
+ *
+ * <p>Events: {@code token} (a piece of the answer), {@code retrieval} (the document chunks used),
+ * {@code tool_call} / {@code tool_result}, then either {@code done} with the full answer or {@code error}.
+ * When the client disconnects the turn is cancelled, which also rolls back its chat memory.</p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatEventStreams {
+
+    private final LangchainModelProperties properties;
+
+    public SseEmitter stream(String sessionId, Function<ChatStreamListener, ChatStream> start) {
+        SseEmitter emitter = new SseEmitter(properties.getStreamTimeout().toMillis());
+        AtomicReference<ChatStream> stream = new AtomicReference<>();
+        Runnable cancel = () -> {
+            ChatStream current = stream.get();
+            if (current != null) {
+                current.cancel();
+            }
+        };
+        emitter.onTimeout(cancel);
+        emitter.onError(error -> cancel.run());
+
+        try {
+            stream.set(start.apply(new EmitterListener(sessionId, emitter)));
+        } catch (RuntimeException e) {
+            log.error("Failed to start chat stream for session {}", sessionId, e);
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    private static final class EmitterListener implements ChatStreamListener {
+
+        private final String sessionId;
+        private final SseEmitter emitter;
+        private final StringBuilder answer = new StringBuilder();
+
+        private EmitterListener(String sessionId, SseEmitter emitter) {
+            this.sessionId = sessionId;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onToken(String token) {
+            answer.append(token);
+            send("token", token);
+        }
+
+        @Override
+        public void onRetrieved(List<Content> contents) {
+            List<ChatStreamSource> sources = contents.stream()
+                    .map(content -> content.textSegment().metadata())
+                    .map(EmitterListener::toSource)
+                    .toList();
+            send("retrieval", sources);
+        }
+
+        @Override
+        public void onToolRequested(ToolExecutionRequest request) {
+            send("tool_call", new ChatStreamToolEvent(request.name(), request.arguments()));
+        }
+
+        @Override
+        public void onToolResult(ToolExecutionResultMessage result) {
+            send("tool_result", new ChatStreamToolEvent(result.toolName(), result.text()));
+        }
+
+        @Override
+        public void onComplete(String response) {
+            send("done", new ChatResponse(sessionId, response != null ? response : answer.toString()));
+            emitter.complete();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            try {
+                emitter.send(SseEmitter.event()
+                        .name("error")
+                        .data(Map.of("message", "Chat failed: " + error.getMessage())));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(error);
+            }
+        }
+
+        /**
+         * A failed send means the client is gone; the exception aborts the upstream model stream.
+         */
+        private void send(String event, Object data) {
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data));
+            } catch (IOException | IllegalStateException e) {
+                throw new CancellationException("Client disconnected: " + e.getMessage());
+            }
+        }
+
+        private static ChatStreamSource toSource(Metadata metadata) {
+            return new ChatStreamSource(
+                    metadata.getString("documentId"),
+                    metadata.getString("fileName"),
+                    metadata.getInteger("chunkIndex"));
+        }
+    }
+}
@@ -2,11 +2,12 @@ package com.ray.aiapp.controller;
 
 import com.ray.aiapp.service.DocumentService;
 import com.ray.aiapp.service.dto.DocumentResponse;
+import com.ray.aiapp.service.dto.DocumentStatusResponse;
+import java.net.URI;
 import java.util.List;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -33,7 +34,9 @@ public class DocumentController {
 
         log.info("Uploading document: {}", file.getOriginalFilename());
         DocumentResponse response = documentService.uploadDocument(file, description);
-        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/documents/" + response.id() + "/status"))
+                .body(response);
     }
 
     @GetMapping
@@ -46,6 +49,11 @@ public class DocumentController {
         return ResponseEntity.ok(documentService.getDocument(documentId));
     }
 
+    @GetMapping("/{documentId}/status")
+    public ResponseEntity<DocumentStatusResponse> getDocumentStatus(@PathVariable UUID documentId) {
+        return ResponseEntity.ok(documentService.getDocumentStatus(documentId));
+    }
+
     @DeleteMapping("/{documentId}")
     public ResponseEntity<Void> deleteDocument(@PathVariable UUID documentId) {
         documentService.deleteDocument(documentId);
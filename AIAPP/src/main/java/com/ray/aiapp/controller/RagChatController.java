@@ -5,12 +5,14 @@ import com.ray.aiapp.service.dto.RagChatRequest;
 import com.ray.aiapp.service.dto.RagChatResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequiredArgsConstructor
@@ -18,10 +20,18 @@ import org.springframework.web.bind.annotation.RestController;
 public class RagChatController {
 
     private final RagChatService ragChatService;
+    private final ChatEventStreams chatEventStreams;
 
     @PostMapping
     public RagChatResponse chat(@Valid @RequestBody RagChatRequest request) {
-        return ragChatService.chat(request.sessionId(), request.message());
+        return ragChatService.chat(request.sessionId(), request.message(), request.documentIds(), request.profile());
+    }
+
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@Valid @RequestBody RagChatRequest request) {
+        return chatEventStreams.stream(request.sessionId(),
+                listener -> ragChatService.streamChat(
+                        request.sessionId(), request.message(), request.documentIds(), request.profile(), listener));
     }
 
     @DeleteMapping("/{sessionId}")
@@ -5,7 +5,9 @@ import com.ray.aiapp.service.dto.ChatRequest;
 import com.ray.aiapp.service.dto.ChatResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * Unified REST controller for AI chat with ALL capabilities:
@@ -21,6 +23,7 @@ import org.springframework.web.bind.annotation.*;
 public class UnifiedChatController {
 
     private final UnifiedChatService unifiedChatService;
+    private final ChatEventStreams chatEventStreams;
 
     /**
      * Chat with the AI using all available capabilities.
@@ -38,10 +41,22 @@ public class UnifiedChatController {
      */
     @PostMapping
     public ChatResponse chat(@Valid @RequestBody ChatRequest request) {
-        String response = unifiedChatService.chat(request.sessionId(), request.message());
+        String response = unifiedChatService.chat(request.sessionId(), request.message(), request.profile());
         return new ChatResponse(request.sessionId(), response);
     }
 
+    /**
+     * Same as {@link #chat}, streamed as server-sent events: answer tokens as they are generated,
+     * plus {@code retrieval}, {@code tool_call} and {@code tool_result} events when documents or
+     * web search are used. See {@link ChatEventStreams} for the event format.
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@Valid @RequestBody ChatRequest request) {
+        return chatEventStreams.stream(request.sessionId(),
+                listener -> unifiedChatService.streamChat(
+                        request.sessionId(), request.message(), request.profile(), listener));
+    }
+
     /**
      * Clear conversation history for a session.
      * Note: This only clears chat memory, not uploaded documents.
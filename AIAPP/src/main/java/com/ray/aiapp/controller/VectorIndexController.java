@@ -0,0 +1,38 @@
+package com.ray.aiapp.controller;
+
+import com.ray.aiapp.service.VectorIndexService;
+import com.ray.aiapp.service.dto.VectorIndexRequest;
+import com.ray.aiapp.service.dto.VectorIndexStatusResponse;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Admin endpoints for the pgvector ANN index on document chunks.
+ */
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/v1/admin/vector-index")
+public class VectorIndexController {
+
+    private final VectorIndexService vectorIndexService;
+
+    @GetMapping
+    public ResponseEntity<VectorIndexStatusResponse> getStatus() {
+        return ResponseEntity.ok(vectorIndexService.getStatus());
+    }
+
+    @PostMapping("/rebuild")
+    public ResponseEntity<VectorIndexStatusResponse> rebuild(@Valid @RequestBody VectorIndexRequest request) {
+        VectorIndexStatusResponse response = vectorIndexService.rebuild(request);
+        log.info("Vector index rebuild started: {}", response.lastDefinition());
+        return ResponseEntity.accepted().body(response);
+    }
+}
@@ -0,0 +1,104 @@
+package com.ray.aiapp.domain.converter;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * pgvector value for plain JDBC, using pgvector's binary send/recv format:
+ * int16 dimensions, int16 unused, then one big-endian float4 per dimension.
+ *
+ * <p>Once the type is registered on a connection (see {@code PgVectorDataSource}) the driver
+ * sends and, for server-prepared statements, receives vectors in binary. Otherwise it falls back
+ * to the text form, parsed with {@link VectorAttributeConverter#parseVector(String)}.</p>
+ */
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    public static final String TYPE_NAME = "vector";
+
+    private static final int HEADER_BYTES = 4;
+
+    private float[] vector;
+
+    public PgVector() {
+        setType(TYPE_NAME);
+    }
+
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+
+    /**
+     * Read a vector column value regardless of how the driver materialized it.
+     */
+    public static float[] toFloatArray(Object columnValue) {
+        if (columnValue == null) {
+            return null;
+        }
+        if (columnValue instanceof PgVector pgVector) {
+            return pgVector.toArray();
+        }
+        if (columnValue instanceof PGobject pgObject) {
+            return VectorAttributeConverter.parseVector(pgObject.getValue());
+        }
+        return VectorAttributeConverter.parseVector(columnValue.toString());
+    }
+
+    public float[] toArray() {
+        return vector;
+    }
+
+    @Override
+    public void setValue(String value) {
+        vector = value == null ? null : VectorAttributeConverter.parseVector(value);
+    }
+
+    @Override
+    public String getValue() {
+        return vector == null ? null : VectorAttributeConverter.toVectorString(vector);
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : HEADER_BYTES + vector.length * Float.BYTES;
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        ByteBuffer buffer = ByteBuffer.wrap(value, offset, value.length - offset);
+        int dimensions = buffer.getShort();
+        buffer.getShort(); // unused
+        if (buffer.remaining() < dimensions * Float.BYTES) {
+            throw new SQLException("Truncated binary vector: expected " + dimensions + " dimensions");
+        }
+
+        float[] result = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            result[i] = buffer.getFloat();
+        }
+        vector = result;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+        buffer.putShort((short) vector.length);
+        buffer.putShort((short) 0);
+        for (float component : vector) {
+            buffer.putFloat(component);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PgVector that && Arrays.equals(vector, that.vector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vector);
+    }
+}
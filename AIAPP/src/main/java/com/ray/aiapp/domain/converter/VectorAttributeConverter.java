@@ -8,10 +8,25 @@ import jakarta.persistence.Converter;
  *
  * PostgreSQL pgvector stores vectors as a special 'vector' type.
  * We need to convert between Java's float[] and PostgreSQL's vector format.
+ *
+ * This is the text fallback; JDBC code paths bind {@link PgVector} and use pgvector's binary format.
  */
 @Converter
 public class VectorAttributeConverter implements AttributeConverter<float[], String> {
 
+    /**
+     * Exact powers of ten representable as double, used by the fast float parser.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Mantissa digits kept by the fast parser; float needs at most 9 significant digits.
+     */
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
     /**
      * Convert float[] to PostgreSQL vector string format.
      * Example: [0.1, 0.2, 0.3] -> "[0.1,0.2,0.3]"
@@ -24,17 +39,7 @@ public class VectorAttributeConverter implements AttributeConverter<float[], Str
         if (attribute == null || attribute.length == 0) {
             return null;
         }
-
-        // Java has no FloatStream, so we use a simple loop with StringBuilder
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < attribute.length; i++) {
-            if (i > 0) {
-                sb.append(",");
-            }
-            sb.append(attribute[i]);
-        }
-        sb.append("]");
-        return sb.toString();
+        return toVectorString(attribute);
     }
 
     /**
@@ -51,6 +56,8 @@ public class VectorAttributeConverter implements AttributeConverter<float[], Str
      * Can be called directly without instantiating the converter.
      * Useful for Interface Projection results where @Convert doesn't apply.
      *
+     * <p>Scans the string in place: the only allocation is the result array.</p>
+     *
      * @param vectorString the vector string from database, e.g. "[0.1,0.2,0.3]"
      * @return float array representation of the vector
      */
@@ -59,17 +66,33 @@ public class VectorAttributeConverter implements AttributeConverter<float[], Str
             return new float[0];
         }
 
-        // Remove brackets and split by comma
-        String cleaned = vectorString.replace("[", "").replace("]", "");
-        if (cleaned.isEmpty()) {
+        int start = 0;
+        int end = vectorString.length();
+        while (start < end && (vectorString.charAt(start) == '[' || vectorString.charAt(start) <= ' ')) {
+            start++;
+        }
+        while (end > start && (vectorString.charAt(end - 1) == ']' || vectorString.charAt(end - 1) <= ' ')) {
+            end--;
+        }
+        if (start == end) {
             return new float[0];
         }
 
-        String[] parts = cleaned.split(",");
-        float[] result = new float[parts.length];
+        int dimensions = 1;
+        for (int i = start; i < end; i++) {
+            if (vectorString.charAt(i) == ',') {
+                dimensions++;
+            }
+        }
 
-        for (int i = 0; i < parts.length; i++) {
-            result[i] = Float.parseFloat(parts[i].trim());
+        float[] result = new float[dimensions];
+        int elementStart = start;
+        int index = 0;
+        for (int i = start; i <= end; i++) {
+            if (i == end || vectorString.charAt(i) == ',') {
+                result[index++] = parseFloat(vectorString, elementStart, i);
+                elementStart = i + 1;
+            }
         }
 
         return result;
@@ -87,14 +110,114 @@ public class VectorAttributeConverter implements AttributeConverter<float[], Str
             return "[]";
         }
 
-        StringBuilder sb = new StringBuilder("[");
+        // Most embedding components print as ~12 characters; presize to avoid regrowth
+        StringBuilder sb = new StringBuilder(vector.length * 13 + 2);
+        sb.append('[');
         for (int i = 0; i < vector.length; i++) {
             if (i > 0) {
-                sb.append(",");
+                sb.append(',');
             }
             sb.append(vector[i]);
         }
-        sb.append("]");
+        sb.append(']');
         return sb.toString();
     }
+
+    /**
+     * Parse a decimal float in {@code text[start, end)} without creating substrings.
+     * Falls back to {@link Float#parseFloat} for anything unusual (NaN, Infinity, malformed input).
+     */
+    static float parseFloat(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            sawDigit = true;
+            if (significantDigits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+            } else {
+                exponent++;
+            }
+        }
+
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                sawDigit = true;
+                if (significantDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                    exponent--;
+                }
+            }
+        }
+
+        if (sawDigit && i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                negativeExponent = text.charAt(i) == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            boolean sawExponentDigit = false;
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                sawExponentDigit = true;
+                if (explicitExponent < 1000) {
+                    explicitExponent = explicitExponent * 10 + (c - '0');
+                }
+            }
+            if (!sawExponentDigit) {
+                return Float.parseFloat(text.substring(start, end));
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (!sawDigit || i != end) {
+            return Float.parseFloat(text.substring(start, end));
+        }
+
+        double value = mantissa;
+        if (mantissa != 0 && exponent != 0) {
+            if (exponent > 0) {
+                value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10, exponent);
+            } else {
+                value = -exponent < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-exponent] : value / Math.pow(10, -exponent);
+            }
+        }
+        return (float) (negative ? -value : value);
+    }
 }
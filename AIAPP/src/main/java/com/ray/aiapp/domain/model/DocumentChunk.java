@@ -19,7 +19,7 @@ import lombok.*;
  * <ul>
  *   <li>idx_document_id: 加速按文档查询所有chunks（例如：删除文档时需要删除所有相关chunks）</li>
  *   <li>idx_embedding_id: 加速按embedding ID查询（LangChain4j 需要通过 ID 查找chunk）</li>
- *   <li>idx_embedding_hnsw/ivfflat: pgvector 向量索引（生产环境启用，见 migration 注释）</li>
+ *   <li>idx_embedding_hnsw/ivfflat: pgvector 向量索引（V7 默认创建 HNSW，可通过 /api/v1/admin/vector-index 重建）</li>
  * </ul>
  */
 @Entity
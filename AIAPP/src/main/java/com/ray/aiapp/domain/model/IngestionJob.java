@@ -0,0 +1,54 @@
+package com.ray.aiapp.domain.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Table;
+import java.util.UUID;
+import lombok.*;
+
+/**
+ * A queued unit of work that parses, splits, embeds and stores one uploaded document.
+ * Schema is managed by Flyway migrations (see V6__create_ingestion_jobs_table.sql).
+ *
+ * <p>The raw upload is kept in {@code content} until the job finishes, so a queued job
+ * survives restarts and can be picked up by any node.</p>
+ */
+@Entity
+@Table(name = "ingestion_jobs")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionJob extends AbstractAuditableEntity {
+
+    @Column(nullable = false)
+    private UUID documentId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private int totalChunks;
+
+    @Column(nullable = false)
+    private int embeddedChunks;
+
+    @Column(length = 1000)
+    private String errorMessage;
+
+    /**
+     * Raw bytes of the uploaded file, cleared once the job reaches a terminal state.
+     */
+    private byte[] content;
+
+    public enum JobStatus {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+}
@@ -0,0 +1,8 @@
+package com.ray.aiapp.exception;
+
+public class IndexBuildInProgressException extends RuntimeException {
+
+    public IndexBuildInProgressException(String message) {
+        super(message);
+    }
+}
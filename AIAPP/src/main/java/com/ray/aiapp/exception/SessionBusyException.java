@@ -0,0 +1,8 @@
+package com.ray.aiapp.exception;
+
+public class SessionBusyException extends RuntimeException {
+
+    public SessionBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,106 @@
+package com.ray.aiapp.repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JDBC access to chat_memories. Each row holds the whole serialized message list of one session.
+ *
+ * <p>Rows are versioned: a write names the version it was based on and only applies if the row is
+ * still at that version, so concurrent writers from different nodes cannot silently overwrite each
+ * other. Version 0 stands for "no row".</p>
+ */
+@Repository
+@RequiredArgsConstructor
+public class ChatMemoryJdbcRepository {
+
+    private static final String SELECT_SQL = "SELECT messages, version FROM chat_memories WHERE memory_id = ?";
+
+    private static final String SELECT_VERSION_SQL = "SELECT version FROM chat_memories WHERE memory_id = ?";
+
+    private static final String INSERT_SQL = """
+        INSERT INTO chat_memories (memory_id, messages, updated_at, version)
+        VALUES (?, ?, ?, 1)
+        ON CONFLICT (memory_id) DO NOTHING
+        """;
+
+    private static final String UPDATE_SQL = """
+        UPDATE chat_memories SET messages = ?, updated_at = ?, version = version + 1
+        WHERE memory_id = ? AND version = ?
+        """;
+
+    private static final String DELETE_SQL = "DELETE FROM chat_memories WHERE memory_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public Optional<StoredMessages> find(String memoryId) {
+        return jdbcTemplate.query(SELECT_SQL,
+                        (rs, rowNum) -> new StoredMessages(rs.getString("messages"), rs.getLong("version")), memoryId)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * @return the row's version, 0 if there is no row
+     */
+    public long findVersion(String memoryId) {
+        return jdbcTemplate.queryForList(SELECT_VERSION_SQL, Long.class, memoryId).stream()
+                .findFirst()
+                .orElse(0L);
+    }
+
+    /**
+     * Write the given memories, each only if its row is still at the version it was based on.
+     * Updates of existing rows go in one JDBC batch; new rows, one per session lifetime, one by one.
+     * A written row's version becomes {@code baseVersion + 1}.
+     *
+     * @return the ids whose row had moved on, i.e. nothing was written for them
+     */
+    public Set<String> writeAll(Map<String, StoredMessages> messagesById) {
+        Set<String> conflicts = new HashSet<>();
+        if (messagesById.isEmpty()) {
+            return conflicts;
+        }
+
+        Timestamp now = Timestamp.from(Instant.now());
+        List<String> updatedIds = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        messagesById.forEach((memoryId, stored) -> {
+            if (stored.version() == 0) {
+                if (jdbcTemplate.update(INSERT_SQL, memoryId, stored.messages(), now) == 0) {
+                    conflicts.add(memoryId);
+                }
+            } else {
+                updatedIds.add(memoryId);
+                updates.add(new Object[] {stored.messages(), now, memoryId, stored.version()});
+            }
+        });
+
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                conflicts.add(updatedIds.get(i));
+            }
+        }
+        return conflicts;
+    }
+
+    public void delete(String memoryId) {
+        jdbcTemplate.update(DELETE_SQL, memoryId);
+    }
+
+    /**
+     * Serialized messages and the row version they were read at or are based on.
+     */
+    public record StoredMessages(String messages, long version) {
+    }
+}
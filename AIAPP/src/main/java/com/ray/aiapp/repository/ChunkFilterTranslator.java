@@ -0,0 +1,142 @@
+package com.ray.aiapp.repository;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Translates LangChain4j metadata {@link Filter} expressions into SQL predicates over document_chunks
+ * (aliased {@code c}), so filtering happens in the database instead of after the top-k.
+ *
+ * <p>Well-known keys map to indexed columns:</p>
+ * <ul>
+ *   <li>{@code documentId} -> document_chunks.document_id</li>
+ *   <li>{@code fileName}, {@code documentType}, {@code status} -> the parent row in documents,
+ *       through an uncorrelated {@code document_id IN (SELECT ...)} that PostgreSQL hashes once per query</li>
+ * </ul>
+ * Any other key is read from the chunk's metadata JSON.
+ */
+final class ChunkFilterTranslator {
+
+    private static final Map<String, String> DOCUMENT_COLUMNS = Map.of(
+            "fileName", "original_file_name",
+            "documentType", "document_type",
+            "status", "status");
+
+    private ChunkFilterTranslator() {
+    }
+
+    /**
+     * @return the predicate, or {@code TRUE} with no arguments when {@code filter} is null
+     */
+    static SqlPredicate translate(Filter filter) {
+        List<Object> args = new ArrayList<>();
+        String sql = filter == null ? "TRUE" : toSql(filter, args);
+        return new SqlPredicate(sql, args);
+    }
+
+    private static String toSql(Filter filter, List<Object> args) {
+        if (filter instanceof And and) {
+            return "(" + toSql(and.left(), args) + " AND " + toSql(and.right(), args) + ")";
+        }
+        if (filter instanceof Or or) {
+            return "(" + toSql(or.left(), args) + " OR " + toSql(or.right(), args) + ")";
+        }
+        if (filter instanceof Not not) {
+            return "(NOT " + toSql(not.expression(), args) + ")";
+        }
+        if (filter instanceof IsEqualTo f) {
+            return comparison(f.key(), "=", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsNotEqualTo f) {
+            return comparison(f.key(), "<>", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsGreaterThan f) {
+            return comparison(f.key(), ">", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsGreaterThanOrEqualTo f) {
+            return comparison(f.key(), ">=", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsLessThan f) {
+            return comparison(f.key(), "<", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsLessThanOrEqualTo f) {
+            return comparison(f.key(), "<=", f.comparisonValue(), args);
+        }
+        if (filter instanceof IsIn f) {
+            return inList(f.key(), f.comparisonValues(), false, args);
+        }
+        if (filter instanceof IsNotIn f) {
+            return inList(f.key(), f.comparisonValues(), true, args);
+        }
+        throw new IllegalArgumentException("Unsupported metadata filter: " + filter.getClass().getSimpleName());
+    }
+
+    private static String comparison(String key, String operator, Object value, List<Object> args) {
+        if (DOCUMENT_COLUMNS.containsKey(key)) {
+            args.add(value.toString());
+            return "c.document_id IN (SELECT d.id::text FROM documents d WHERE d."
+                    + DOCUMENT_COLUMNS.get(key) + " " + operator + " ?)";
+        }
+        String column = column(key, value, args);
+        args.add(bindValue(value));
+        return column + " " + operator + " ?";
+    }
+
+    private static String inList(String key, Collection<?> values, boolean negate, List<Object> args) {
+        if (values.isEmpty()) {
+            return negate ? "TRUE" : "FALSE";
+        }
+
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        String predicate;
+        if (DOCUMENT_COLUMNS.containsKey(key)) {
+            values.forEach(value -> {
+                placeholders.add("?");
+                args.add(value.toString());
+            });
+            predicate = "c.document_id IN (SELECT d.id::text FROM documents d WHERE d."
+                    + DOCUMENT_COLUMNS.get(key) + " IN " + placeholders + ")";
+        } else {
+            String column = column(key, values.iterator().next(), args);
+            values.forEach(value -> {
+                placeholders.add("?");
+                args.add(bindValue(value));
+            });
+            predicate = column + " IN " + placeholders;
+        }
+        return negate ? "(NOT " + predicate + ")" : predicate;
+    }
+
+    /**
+     * Column expression for a chunk-level key; binds the JSON key name for metadata lookups.
+     */
+    private static String column(String key, Object sampleValue, List<Object> args) {
+        if ("documentId".equals(key)) {
+            return "c.document_id";
+        }
+        args.add(key);
+        return sampleValue instanceof Number ? "(c.metadata::jsonb ->> ?)::numeric" : "(c.metadata::jsonb ->> ?)";
+    }
+
+    private static Object bindValue(Object value) {
+        return value instanceof Number ? value : value.toString();
+    }
+
+    record SqlPredicate(String sql, List<Object> args) {
+    }
+}
@@ -0,0 +1,311 @@
+package com.ray.aiapp.repository;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.VectorIndex;
+import com.ray.aiapp.domain.converter.PgVector;
+import com.ray.aiapp.domain.model.DocumentChunk;
+import com.ray.aiapp.repository.ChunkFilterTranslator.SqlPredicate;
+import com.ray.aiapp.service.dto.ScoredChunk;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Plain JDBC access to document_chunks for the paths where JPA overhead dominates.
+ *
+ * <p>Bulk inserts skip the persistence context, auditing callbacks and version checks:
+ * rows are written with JDBC batches, and id/version/timestamps come from the table defaults
+ * (see V2__create_document_chunks_table.sql). For the PostgreSQL driver to collapse a batch into
+ * multi-row INSERTs, add {@code reWriteBatchedInserts=true} to the JDBC URL.</p>
+ *
+ * <p>Vectors are bound and read as {@link PgVector}, so they cross the wire in pgvector's binary
+ * format instead of as decimal strings.</p>
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class DocumentChunkJdbcRepository {
+
+    private static final String INSERT_SQL = """
+        INSERT INTO document_chunks (id, embedding_id, document_id, text, embedding, metadata, chunk_index)
+        VALUES (?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    /**
+     * Similarity search; {@code %1$s}/{@code %2$s} are replaced with the optional embedding column
+     * and {@code %3$s} with the metadata filter predicate.
+     *
+     * <p>The inner query is a plain ORDER BY distance LIMIT k so pgvector can answer it with an
+     * index-ordered HNSW/IVFFlat scan. The score threshold is applied to those k rows afterwards;
+     * filtering on the score inside the scan would force a sequential scan. A metadata filter does sit
+     * inside the scan, see {@link #applySearchTuning(int, boolean)} for how it still gets k rows.</p>
+     */
+    private static final String SIMILARITY_SQL = """
+        SELECT embedding_id, text, metadata,%1$s 1 - distance AS score
+        FROM (
+            SELECT c.embedding_id, c.text, c.metadata,%2$s c.embedding <=> ? AS distance
+            FROM document_chunks c
+            WHERE %3$s
+            ORDER BY c.embedding <=> ?
+            LIMIT ?
+        ) nearest
+        WHERE 1 - distance >= ?
+        ORDER BY distance
+        """;
+
+    /**
+     * Full-text search over the generated text_search column (see V8__add_chunk_text_search.sql);
+     * {@code %s} is replaced with the metadata filter predicate.
+     *
+     * <p>The question is turned into an OR of its terms, so a chunk containing only the identifier
+     * the user asked about still matches; ts_rank_cd ranks chunks that cover more terms higher.</p>
+     */
+    private static final String LEXICAL_SQL = """
+        SELECT c.embedding_id, c.text, c.metadata, ts_rank_cd(c.text_search, q.query) AS score
+        FROM document_chunks c,
+             (SELECT replace(plainto_tsquery('english', ?)::text, '&', '|')::tsquery AS query) q
+        WHERE c.text_search @@ q.query
+        AND %s
+        ORDER BY score DESC
+        LIMIT ?
+        """;
+
+    /**
+     * Transaction-local ANN search parameters, see {@link #applySearchTuning(int, boolean)}.
+     */
+    private static final String SEARCH_TUNING_SQL = """
+        SELECT set_config('hnsw.ef_search', ?, true), set_config('ivfflat.probes', ?, true)
+        """;
+
+    /**
+     * Makes a filtered index scan keep going until k rows pass the filter (pgvector 0.8+).
+     * Relaxed order is enough: the outer query of {@link #SIMILARITY_SQL} sorts again.
+     */
+    private static final String ITERATIVE_SCAN_SQL = """
+        SELECT set_config('hnsw.iterative_scan', 'relaxed_order', true),
+               set_config('ivfflat.iterative_scan', 'relaxed_order', true)
+        """;
+
+    /**
+     * Before pgvector 0.8: no index-ordered scans, so a filter is applied first, through a bitmap
+     * or sequential scan, and the matching rows are ranked exactly.
+     */
+    private static final String EXACT_SCAN_SQL = """
+        SELECT set_config('enable_indexscan', 'off', true)
+        """;
+
+    private static final String PGVECTOR_VERSION_SQL = """
+        SELECT extversion FROM pg_extension WHERE extname = 'vector'
+        """;
+
+    /**
+     * hnsw.ef_search upper bound enforced by pgvector.
+     */
+    private static final int MAX_EF_SEARCH = 1000;
+
+    private static final String EMBEDDINGS_BY_ID_SQL = """
+        SELECT embedding_id, embedding
+        FROM document_chunks
+        WHERE embedding_id = ANY(?)
+        """;
+
+    /**
+     * Chunks at given (document_id, chunk_index) positions, passed as two parallel arrays;
+     * served by idx_document_chunks_position (see V10__add_chunk_position_index.sql).
+     */
+    private static final String CHUNKS_AT_POSITIONS_SQL = """
+        SELECT c.embedding_id, c.text, c.metadata
+        FROM document_chunks c
+        JOIN unnest(?::varchar[], ?::int[]) AS p(document_id, chunk_index)
+          ON c.document_id = p.document_id AND c.chunk_index = p.chunk_index
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LangchainModelProperties properties;
+    /** Whether the installed pgvector supports iterative index scans; looked up on first filtered search. */
+    private volatile Boolean iterativeScan;
+
+    /**
+     * Insert new chunks in JDBC batches of {@code aiapp.langchain.rag.insert-batch-size}.
+     * The chunks are not attached to any persistence context.
+     */
+    public void batchInsert(List<DocumentChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        int batchSize = properties.getRag().getInsertBatchSize();
+        jdbcTemplate.batchUpdate(INSERT_SQL, chunks, batchSize, (ps, chunk) -> {
+            ps.setObject(1, UUID.randomUUID());
+            ps.setString(2, chunk.getEmbeddingId());
+            ps.setString(3, chunk.getDocumentId());
+            ps.setString(4, chunk.getText());
+            ps.setObject(5, new PgVector(chunk.getEmbedding()));
+            ps.setString(6, chunk.getMetadata());
+            ps.setInt(7, chunk.getChunkIndex());
+        });
+        log.debug("Inserted {} chunks in batches of {}", chunks.size(), batchSize);
+    }
+
+    /**
+     * Find similar chunks using cosine distance.
+     * Uses pgvector's <=> operator for cosine distance.
+     * Lower distance means more similar.
+     *
+     * @param queryVector the embedding vector to search for
+     * @param maxResults maximum number of results to return
+     * @param minScore minimum similarity score (1 - cosine_distance)
+     * @param filter metadata filter pushed down into the query, or null for the whole corpus
+     * @param includeEmbeddings whether to return each chunk's vector; most callers only need text and score
+     * @return list of chunks ordered by similarity (most similar first)
+     */
+    public List<ScoredChunk> findSimilarChunks(float[] queryVector, int maxResults, double minScore,
+                                               Filter filter, boolean includeEmbeddings) {
+        applySearchTuning(maxResults, filter != null);
+
+        SqlPredicate predicate = ChunkFilterTranslator.translate(filter);
+        String sql = SIMILARITY_SQL.formatted(
+                includeEmbeddings ? " embedding," : "",
+                includeEmbeddings ? " c.embedding," : "",
+                predicate.sql());
+
+        PgVector query = new PgVector(queryVector);
+        List<Object> args = new ArrayList<>();
+        args.add(query);
+        args.addAll(predicate.args());
+        args.add(query);
+        args.add(maxResults);
+        args.add(minScore);
+
+        return jdbcTemplate.query(sql,
+                (rs, rowNum) -> new ScoredChunk(
+                        rs.getString("embedding_id"),
+                        rs.getString("text"),
+                        rs.getString("metadata"),
+                        includeEmbeddings ? PgVector.toFloatArray(rs.getObject("embedding")) : null,
+                        rs.getDouble("score")),
+                args.toArray());
+    }
+
+    /**
+     * Find chunks matching the words of {@code queryText}, best full-text rank first.
+     * The returned score is the ts_rank_cd rank, which is not comparable to a cosine similarity.
+     */
+    public List<ScoredChunk> findLexicalChunks(String queryText, int maxResults, Filter filter) {
+        SqlPredicate predicate = ChunkFilterTranslator.translate(filter);
+
+        List<Object> args = new ArrayList<>();
+        args.add(queryText);
+        args.addAll(predicate.args());
+        args.add(maxResults);
+
+        return jdbcTemplate.query(LEXICAL_SQL.formatted(predicate.sql()),
+                (rs, rowNum) -> new ScoredChunk(
+                        rs.getString("embedding_id"),
+                        rs.getString("text"),
+                        rs.getString("metadata"),
+                        null,
+                        rs.getDouble("score")),
+                args.toArray());
+    }
+
+    /**
+     * Set hnsw.ef_search and ivfflat.probes from {@code aiapp.langchain.rag.index} for the current
+     * transaction only, so pooled connections are not left with modified settings.
+     * HNSW cannot return more than ef_search rows, so it is raised to at least {@code limit}.
+     * Must be called inside a transaction.
+     *
+     * <p>A filtered index scan only filters the candidates the index returned, so a document-scoped
+     * query could come back with fewer than {@code limit} rows, or none, although matching chunks exist.
+     * Filtered searches therefore use an iterative scan, or an exact scan on pgvector before 0.8.</p>
+     */
+    private void applySearchTuning(int limit, boolean filtered) {
+        VectorIndex index = properties.getRag().getIndex();
+        int efSearch = Math.min(Math.max(index.getEfSearch(), limit), MAX_EF_SEARCH);
+        jdbcTemplate.queryForList(SEARCH_TUNING_SQL,
+                String.valueOf(efSearch), String.valueOf(index.getProbes()));
+        if (filtered) {
+            jdbcTemplate.queryForList(supportsIterativeScan() ? ITERATIVE_SCAN_SQL : EXACT_SCAN_SQL);
+        }
+    }
+
+    private boolean supportsIterativeScan() {
+        Boolean supported = iterativeScan;
+        if (supported == null) {
+            List<String> versions = jdbcTemplate.queryForList(PGVECTOR_VERSION_SQL, String.class);
+            supported = !versions.isEmpty() && atLeast(versions.get(0), 0, 8);
+            iterativeScan = supported;
+            log.info("pgvector {}: filtered searches use {} scans",
+                    versions.isEmpty() ? "missing" : versions.get(0), supported ? "iterative index" : "exact");
+        }
+        return supported;
+    }
+
+    /**
+     * @return whether a dotted version like {@code 0.8.0} is at least {@code major.minor}
+     */
+    static boolean atLeast(String version, int major, int minor) {
+        String[] parts = version.split("\\.");
+        try {
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load the chunks at the given positions in one round trip, however many there are.
+     * The returned chunks carry no embedding and a score of 0.
+     */
+    public List<ScoredChunk> findChunksAt(List<String> documentIds, List<Integer> chunkIndexes) {
+        if (documentIds.isEmpty()) {
+            return List.of();
+        }
+
+        return jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement ps = connection.prepareStatement(CHUNKS_AT_POSITIONS_SQL);
+                    ps.setArray(1, connection.createArrayOf("varchar", documentIds.toArray()));
+                    ps.setArray(2, connection.createArrayOf("int4", chunkIndexes.toArray()));
+                    return ps;
+                },
+                (rs, rowNum) -> new ScoredChunk(
+                        rs.getString("embedding_id"),
+                        rs.getString("text"),
+                        rs.getString("metadata"),
+                        null,
+                        0));
+    }
+
+    /**
+     * Load the vectors of the given chunks in one round trip.
+     */
+    public Map<String, float[]> findEmbeddings(Collection<String> embeddingIds) {
+        if (embeddingIds.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<String, float[]> embeddings = new HashMap<>();
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement ps = connection.prepareStatement(EMBEDDINGS_BY_ID_SQL);
+                    ps.setArray(1, connection.createArrayOf("varchar", embeddingIds.toArray()));
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> embeddings.put(
+                        rs.getString("embedding_id"), PgVector.toFloatArray(rs.getObject("embedding"))));
+        return embeddings;
+    }
+}
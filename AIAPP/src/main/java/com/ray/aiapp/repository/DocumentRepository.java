@@ -3,9 +3,13 @@ package com.ray.aiapp.repository;
 import com.ray.aiapp.domain.model.Document;
 import com.ray.aiapp.domain.model.Document.DocumentStatus;
 import com.ray.aiapp.domain.model.Document.DocumentType;
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface DocumentRepository extends JpaRepository<Document, UUID> {
 
@@ -14,4 +18,22 @@ public interface DocumentRepository extends JpaRepository<Document, UUID> {
     List<Document> findByDocumentType(DocumentType documentType);
 
     boolean existsByOriginalFileName(String originalFileName);
+
+    boolean existsByStatus(DocumentStatus status);
+
+    /**
+     * Mark FAILED the documents whose RUNNING ingestion job stalled on its last attempt,
+     * see {@link IngestionJobRepository#failStaleJobs}.
+     */
+    @Modifying
+    @Query("""
+        UPDATE Document d
+        SET d.status = com.ray.aiapp.domain.model.Document.DocumentStatus.FAILED, d.version = d.version + 1
+        WHERE d.id IN (
+            SELECT j.documentId FROM IngestionJob j
+            WHERE j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.RUNNING
+            AND j.updatedAt < :staleBefore
+            AND j.attempts >= :maxAttempts)
+        """)
+    int failDocumentsOfStaleJobs(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts);
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.ray.aiapp.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JDBC access to the single-row document_set_generation counter.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DocumentSetGenerationRepository {
+
+    private static final String SELECT_SQL = "SELECT generation FROM document_set_generation WHERE id = 1";
+
+    private static final String INCREMENT_SQL =
+            "UPDATE document_set_generation SET generation = generation + 1 WHERE id = 1";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public long current() {
+        Long generation = jdbcTemplate.queryForObject(SELECT_SQL, Long.class);
+        return generation == null ? 0 : generation;
+    }
+
+    public void increment() {
+        jdbcTemplate.update(INCREMENT_SQL);
+    }
+}
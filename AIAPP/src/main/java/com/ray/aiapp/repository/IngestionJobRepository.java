@@ -0,0 +1,126 @@
+package com.ray.aiapp.repository;
+
+import com.ray.aiapp.domain.model.IngestionJob;
+import com.ray.aiapp.service.dto.IngestionProgress;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Repository for IngestionJob entities.
+ * Doubles as the persistent work queue for the ingestion workers.
+ */
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, UUID> {
+
+    /**
+     * Lock the oldest queued jobs for the calling transaction.
+     * SKIP LOCKED lets several workers (or nodes) poll concurrently without handing out the same job twice.
+     */
+    @Query(value = """
+        SELECT * FROM ingestion_jobs
+        WHERE status = 'QUEUED'
+        ORDER BY created_at
+        LIMIT :limit
+        FOR UPDATE SKIP LOCKED
+        """, nativeQuery = true)
+    List<IngestionJob> lockQueuedJobs(@Param("limit") int limit);
+
+    /**
+     * Lock a job for the calling transaction if the given attempt still owns it. The reaper's re-queue
+     * waits on this lock, so nothing can take the job over until the transaction ends.
+     *
+     * @return the job id, or empty if the attempt no longer owns the job
+     */
+    @Query(value = """
+        SELECT id FROM ingestion_jobs
+        WHERE id = :jobId AND attempts = :attempt AND status = 'RUNNING'
+        FOR UPDATE
+        """, nativeQuery = true)
+    Optional<UUID> lockOwnedJob(@Param("jobId") UUID jobId, @Param("attempt") int attempt);
+
+    /**
+     * Latest job progress for a document, without loading the stored file content.
+     */
+    @Query("""
+        SELECT j.status AS status, j.attempts AS attempts, j.totalChunks AS totalChunks,
+               j.embeddedChunks AS embeddedChunks, j.errorMessage AS errorMessage, j.updatedAt AS updatedAt
+        FROM IngestionJob j
+        WHERE j.documentId = :documentId
+        ORDER BY j.createdAt DESC
+        LIMIT 1
+        """)
+    Optional<IngestionProgress> findLatestProgress(@Param("documentId") UUID documentId);
+
+    /**
+     * Record chunk progress of the given attempt. Bumps updatedAt so the stale-job reaper sees the job as alive.
+     *
+     * @return 0 if the attempt no longer owns the job
+     */
+    @Modifying
+    @Query("""
+        UPDATE IngestionJob j
+        SET j.totalChunks = :totalChunks, j.embeddedChunks = :embeddedChunks,
+            j.updatedAt = :now, j.version = j.version + 1
+        WHERE j.id = :jobId AND j.attempts = :attempt
+        AND j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.RUNNING
+        """)
+    int updateProgress(@Param("jobId") UUID jobId,
+                       @Param("attempt") int attempt,
+                       @Param("totalChunks") int totalChunks,
+                       @Param("embeddedChunks") int embeddedChunks,
+                       @Param("now") Instant now);
+
+    /**
+     * Bump updatedAt of a job the given attempt still owns.
+     *
+     * @return 0 if the attempt no longer owns the job
+     */
+    @Modifying
+    @Query("""
+        UPDATE IngestionJob j
+        SET j.updatedAt = :now, j.version = j.version + 1
+        WHERE j.id = :jobId AND j.attempts = :attempt
+        AND j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.RUNNING
+        """)
+    int heartbeat(@Param("jobId") UUID jobId, @Param("attempt") int attempt, @Param("now") Instant now);
+
+    /**
+     * Put RUNNING jobs whose worker stopped reporting, and that have attempts left, back on the queue.
+     * The next claim increments attempts, which fences off the previous worker.
+     */
+    @Modifying
+    @Query("""
+        UPDATE IngestionJob j
+        SET j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.QUEUED,
+            j.updatedAt = :now, j.version = j.version + 1
+        WHERE j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.RUNNING
+        AND j.updatedAt < :staleBefore
+        AND j.attempts < :maxAttempts
+        """)
+    int requeueStaleJobs(@Param("staleBefore") Instant staleBefore,
+                         @Param("maxAttempts") int maxAttempts,
+                         @Param("now") Instant now);
+
+    /**
+     * Fail RUNNING jobs whose worker stopped reporting on their last attempt.
+     */
+    @Modifying
+    @Query("""
+        UPDATE IngestionJob j
+        SET j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.FAILED,
+            j.errorMessage = :errorMessage, j.content = NULL,
+            j.updatedAt = :now, j.version = j.version + 1
+        WHERE j.status = com.ray.aiapp.domain.model.IngestionJob.JobStatus.RUNNING
+        AND j.updatedAt < :staleBefore
+        AND j.attempts >= :maxAttempts
+        """)
+    int failStaleJobs(@Param("staleBefore") Instant staleBefore,
+                      @Param("maxAttempts") int maxAttempts,
+                      @Param("errorMessage") String errorMessage,
+                      @Param("now") Instant now);
+}
@@ -0,0 +1,53 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import java.util.function.Function;
+
+/**
+ * One {@link SharedAssistant} per {@link ModelSelection}, all resolving memory from the same registry,
+ * so a session keeps its conversation when a turn is answered by a different model.
+ */
+public class AssistantPool<T> {
+
+    private final ChatModelPool chatModelPool;
+    private final AssistantBuilder<T> builder;
+    private final Function<String, ? extends ChatMemory> memories;
+    private final long rebuildThreshold;
+    private final Cache<ModelSelection, SharedAssistant<T>> assistants;
+
+    public AssistantPool(ChatModelPool chatModelPool, AssistantBuilder<T> builder,
+                         Function<String, ? extends ChatMemory> memories, long rebuildThreshold) {
+        this.chatModelPool = chatModelPool;
+        this.builder = builder;
+        this.memories = memories;
+        this.rebuildThreshold = rebuildThreshold;
+        this.assistants = Caffeine.newBuilder()
+                .maximumSize(chatModelPool.maxClients())
+                .build();
+    }
+
+    public T get(ModelSelection selection) {
+        return assistants.get(selection, this::create).get();
+    }
+
+    private SharedAssistant<T> create(ModelSelection selection) {
+        ChatLanguageModel chatModel = chatModelPool.chatModel(selection);
+        StreamingChatLanguageModel streamingChatModel = chatModelPool.streamingChatModel(selection);
+        return new SharedAssistant<>(
+                chatMemoryProvider -> builder.build(chatModel, streamingChatModel, chatMemoryProvider),
+                memories,
+                rebuildThreshold);
+    }
+
+    @FunctionalInterface
+    public interface AssistantBuilder<T> {
+
+        T build(ChatLanguageModel chatModel, StreamingChatLanguageModel streamingChatModel,
+                ChatMemoryProvider chatMemoryProvider);
+    }
+}
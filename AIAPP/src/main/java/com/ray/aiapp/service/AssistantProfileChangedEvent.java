@@ -0,0 +1,9 @@
+package com.ray.aiapp.service;
+
+import java.util.UUID;
+
+/**
+ * Published when an assistant profile is created or deleted.
+ */
+public record AssistantProfileChangedEvent(UUID profileId) {
+}
@@ -1,17 +1,24 @@
 package com.ray.aiapp.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.ray.aiapp.domain.model.AssistantProfile;
 import com.ray.aiapp.exception.ResourceAlreadyExistsException;
 import com.ray.aiapp.exception.ResourceNotFoundException;
 import com.ray.aiapp.repository.AssistantProfileRepository;
 import com.ray.aiapp.service.dto.AssistantProfileRequest;
 import com.ray.aiapp.service.dto.AssistantProfileResponse;
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 @Slf4j
 @Service
@@ -19,6 +26,12 @@ import org.springframework.transaction.annotation.Transactional;
 public class AssistantProfileService {
 
     private final AssistantProfileRepository repository;
+    private final ApplicationEventPublisher eventPublisher;
+    // Looked up on every chat turn that names a profile; emptied whenever a profile changes
+    private final Cache<String, Optional<ModelSelection>> modelsByName = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
 
     @Transactional(readOnly = true)
     public List<AssistantProfileResponse> listProfiles() {
@@ -41,6 +54,7 @@ public class AssistantProfileService {
         profile.setTemperature(request.temperature());
 
         AssistantProfile persisted = repository.save(profile);
+        eventPublisher.publishEvent(new AssistantProfileChangedEvent(persisted.getId()));
         log.info("Created assistant profile {} using model {}", persisted.getName(), persisted.getModel());
         return toResponse(persisted);
     }
@@ -50,9 +64,23 @@ public class AssistantProfileService {
         AssistantProfile profile = repository.findById(profileId)
                 .orElseThrow(() -> new ResourceNotFoundException("Profile not found: " + profileId));
         repository.delete(profile);
+        eventPublisher.publishEvent(new AssistantProfileChangedEvent(profileId));
         log.warn("Assistant profile {} deleted", profile.getName());
     }
 
+    /**
+     * The model and temperature of the profile with this name (case-insensitive), served from memory.
+     */
+    public Optional<ModelSelection> findModel(String name) {
+        return modelsByName.get(name.toLowerCase(Locale.ROOT), key -> repository.findByNameIgnoreCase(name)
+                .map(profile -> new ModelSelection(profile.getModel(), profile.getTemperature())));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProfileChanged(AssistantProfileChangedEvent event) {
+        modelsByName.invalidateAll();
+    }
+
     private AssistantProfileResponse toResponse(AssistantProfile profile) {
         return new AssistantProfileResponse(
                 profile.getId(),
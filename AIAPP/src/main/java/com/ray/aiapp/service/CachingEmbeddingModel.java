@@ -0,0 +1,102 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+/**
+ * Caches single-text embeddings, i.e. the query embeddings computed for every retrieval.
+ *
+ * <p>The key is the embedding model name plus the query text after Unicode NFC normalization,
+ * trimming and whitespace collapsing; the normalized text is also what gets embedded, so equal keys
+ * always mean equal embeddings. {@link #embedAll} is passed straight through: ingestion batches are
+ * embedded once and would only push queries out of the cache.</p>
+ *
+ * <p>The cache holds futures: the first caller of a key embeds on its own thread, outside any cache lock,
+ * and concurrent callers of the same key wait on its future. Failed embeddings are not cached.</p>
+ *
+ * <p>Hit/miss/eviction counts are published as the {@code cache.*} meters tagged
+ * {@code cache=query-embeddings}.</p>
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final AsyncCache<String, Embedding> cache;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, long maxSize, Duration ttl,
+                                 MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.modelName = modelName;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "query-embeddings");
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        String normalized = normalize(text);
+        CompletableFuture<Embedding> created = new CompletableFuture<>();
+        CompletableFuture<Embedding> embedding = cache.get(modelName + '\u0000' + normalized,
+                (key, executor) -> created);
+        if (embedding == created) {
+            // This caller won the miss; the remote call runs here, not under the cache's bin lock
+            try {
+                created.complete(delegate.embed(normalized).content());
+            } catch (Throwable e) {
+                created.completeExceptionally(e);
+            }
+        }
+        return Response.from(await(embedding));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    private Embedding await(CompletableFuture<Embedding> embedding) {
+        try {
+            return embedding.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    static String normalize(String text) {
+        String nfc = Normalizer.normalize(text, Normalizer.Form.NFC);
+        return WHITESPACE.matcher(nfc.strip()).replaceAll(" ");
+    }
+}
@@ -0,0 +1,46 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Rag;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the chat memory of a session according to its service's {@link SessionSettings#getMemoryMode()}.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatMemoryFactory {
+
+    private final ChatMemoryStore chatMemoryStore;
+    private final ChatSummarizer chatSummarizer;
+    private final LangchainModelProperties properties;
+
+    public ChatMemory create(String memoryId, SessionSettings settings) {
+        return switch (settings.getMemoryMode()) {
+            case WINDOW -> MessageWindowChatMemory.builder()
+                    .id(memoryId)
+                    .maxMessages(settings.getMaxMessages())
+                    .chatMemoryStore(chatMemoryStore)
+                    .build();
+            case TOKEN_BUDGET -> new SummarizingChatMemory(
+                    memoryId, chatMemoryStore, settings.getMaxMemoryTokens(), chatSummarizer);
+        };
+    }
+
+    /**
+     * Memory for an assistant with a retrieval augmentor: unless {@code rag.persistRetrievedContext} is set,
+     * retrieved chunks are sent to the model for the current turn only and never stored.
+     */
+    public ChatMemory createForRetrieval(String memoryId, SessionSettings settings) {
+        Rag rag = properties.getRag();
+        ChatMemory memory = create(memoryId, settings);
+        return rag.isPersistRetrievedContext()
+                ? memory
+                : new RetrievalStrippingChatMemory(memory, rag.isPersistSourceReferences());
+    }
+}
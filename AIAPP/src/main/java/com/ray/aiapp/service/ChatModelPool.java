@@ -0,0 +1,113 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Resilience;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Model clients keyed by {@link ModelSelection}, so each model and temperature gets one client
+ * (and one HTTP connection pool) no matter how many requests use it.
+ *
+ * <p>The default selection maps to the configured model beans. Other clients are created on first use
+ * and kept for the {@code maxModelClients} most recently used selections.</p>
+ *
+ * <p>Every client is admitted through the {@link ModelCallScheduler} at {@link Priority#CHAT}. Blocking
+ * clients are also wrapped in a {@link ResilientChatLanguageModel}, inside the scheduler so that time spent
+ * waiting for rate limit capacity never counts as model latency; hedged duplicates are charged to the
+ * scheduler from inside. Their calls run on at most {@code resilience.callThreads} threads.</p>
+ */
+@Component
+public class ChatModelPool {
+
+    private final LangchainModelProperties properties;
+    private final ModelCallScheduler scheduler;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor callExecutor;
+    private final ModelSelection defaultSelection;
+    private final ChatLanguageModel defaultChatModel;
+    private final StreamingChatLanguageModel defaultStreamingChatModel;
+    private final Cache<ModelSelection, ChatLanguageModel> chatModels;
+    private final Cache<ModelSelection, StreamingChatLanguageModel> streamingChatModels;
+
+    public ChatModelPool(OpenAiChatModel defaultChatModel, OpenAiStreamingChatModel defaultStreamingChatModel,
+                         ModelCallScheduler scheduler, LangchainModelProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.scheduler = scheduler;
+        this.meterRegistry = meterRegistry;
+        AtomicInteger counter = new AtomicInteger();
+        this.callExecutor = new ThreadPoolExecutor(0, properties.getResilience().getCallThreads(),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-model-call-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.defaultSelection = new ModelSelection(properties.getModel(), properties.getTemperature());
+        this.defaultChatModel = wrap(defaultChatModel, defaultSelection);
+        this.defaultStreamingChatModel =
+                new RateLimitedStreamingChatModel(defaultStreamingChatModel, scheduler, Priority.CHAT);
+        this.chatModels = Caffeine.newBuilder()
+                .maximumSize(properties.getRouting().getMaxModelClients())
+                .build();
+        this.streamingChatModels = Caffeine.newBuilder()
+                .maximumSize(properties.getRouting().getMaxModelClients())
+                .build();
+    }
+
+    public ModelSelection defaultSelection() {
+        return defaultSelection;
+    }
+
+    public int maxClients() {
+        return properties.getRouting().getMaxModelClients();
+    }
+
+    public ChatLanguageModel chatModel(ModelSelection selection) {
+        if (selection.equals(defaultSelection)) {
+            return defaultChatModel;
+        }
+        return chatModels.get(selection, key -> wrap(OpenAiChatModel.builder()
+                .apiKey(properties.getApiKey())
+                .modelName(key.model())
+                .temperature(key.temperature())
+                .build(), key));
+    }
+
+    public StreamingChatLanguageModel streamingChatModel(ModelSelection selection) {
+        if (selection.equals(defaultSelection)) {
+            return defaultStreamingChatModel;
+        }
+        return streamingChatModels.get(selection, key -> new RateLimitedStreamingChatModel(
+                OpenAiStreamingChatModel.builder()
+                        .apiKey(properties.getApiKey())
+                        .modelName(key.model())
+                        .temperature(key.temperature())
+                        .build(), scheduler, Priority.CHAT));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        callExecutor.shutdownNow();
+    }
+
+    private ChatLanguageModel wrap(ChatLanguageModel model, ModelSelection selection) {
+        Resilience resilience = properties.getResilience();
+        ChatLanguageModel guarded = resilience.isEnabled()
+                ? new ResilientChatLanguageModel(model, selection, resilience, callExecutor, scheduler, meterRegistry)
+                : model;
+        return new RateLimitedChatModel(guarded, scheduler, Priority.CHAT);
+    }
+}
@@ -1,13 +1,20 @@
 package com.ray.aiapp.service;
 
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
 import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -15,38 +22,88 @@ import org.springframework.stereotype.Service;
 @Service
 public class ChatService {
 
-    private final OpenAiChatModel chatModel;
-    private final ConcurrentHashMap<String, ChatAssistant> assistants = new ConcurrentHashMap<>();
+    private final ModelRouter modelRouter;
+    private final ChatMemoryStore chatMemoryStore;
+    private final ChatMemoryFactory chatMemoryFactory;
+    private final ChatStreamRunner chatStreamRunner;
+    private final OutboundCallGuard outboundCallGuard;
+    private final SessionTurnExecutor sessionTurns;
+    private final SessionSettings sessionSettings;
+    private final SessionRegistry<ChatMemory> memories;
+    private final AssistantPool<ChatAssistant> assistants;
 
-    public ChatService(OpenAiChatModel chatModel) {
-        this.chatModel = chatModel;
+    public ChatService(ChatModelPool chatModelPool, ModelRouter modelRouter,
+                       ChatMemoryStore chatMemoryStore,
+                       ChatMemoryFactory chatMemoryFactory,
+                       ChatStreamRunner chatStreamRunner,
+                       OutboundCallGuard outboundCallGuard,
+                       SessionTurnExecutor sessionTurns,
+                       LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.modelRouter = modelRouter;
+        this.chatMemoryStore = chatMemoryStore;
+        this.chatMemoryFactory = chatMemoryFactory;
+        this.chatStreamRunner = chatStreamRunner;
+        this.outboundCallGuard = outboundCallGuard;
+        this.sessionTurns = sessionTurns;
+        this.sessionSettings = properties.getSessions().getChat();
+        this.memories = new SessionRegistry<>("chat", sessionSettings, meterRegistry);
+        this.assistants = new AssistantPool<>(chatModelPool, this::buildAssistant, this::memory,
+                sessionSettings.getMaxSessions());
     }
 
-    public String chat(String sessionId, String userMessage) {
-        ChatAssistant assistant = assistants.computeIfAbsent(sessionId, this::createAssistant);
-        String response = assistant.chat(userMessage);
+    /**
+     * @param profile optional assistant profile name; without one the {@link ModelRouter} picks the model
+     */
+    public String chat(String sessionId, String userMessage, String profile) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        String response = sessionTurns.run(memoryId, userMessage + '\u0000' + model,
+                () -> outboundCallGuard.call(() -> assistants.get(model).chat(memoryId, userMessage)));
         log.debug("Session {}: user='{}', assistant='{}'", sessionId, userMessage, response);
         return response;
     }
 
+    /**
+     * Stream the answer token by token; memory is updated when the stream completes.
+     */
+    public ChatStream streamChat(String sessionId, String userMessage, String profile, ChatStreamListener listener) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        return chatStreamRunner.start(memory(memoryId),
+                () -> assistants.get(model).chatStream(memoryId, userMessage), listener);
+    }
+
     public void clearMemory(String sessionId) {
-        assistants.remove(sessionId);
+        memories.remove(memoryId(sessionId));
+        chatMemoryStore.deleteMessages(memoryId(sessionId));
         log.info("Cleared memory for session {}", sessionId);
     }
 
-    private ChatAssistant createAssistant(String sessionId) {
-        ChatMemory memory = MessageWindowChatMemory.builder()
-                .maxMessages(40)
-                .build();
-
+    private ChatAssistant buildAssistant(ChatLanguageModel chatModel,
+                                         StreamingChatLanguageModel streamingChatModel,
+                                         ChatMemoryProvider chatMemoryProvider) {
         return AiServices.builder(ChatAssistant.class)
                 .chatLanguageModel(chatModel)
-                .chatMemory(memory)
+                .streamingChatLanguageModel(streamingChatModel)
+                .chatMemoryProvider(chatMemoryProvider)
                 .build();
     }
 
+    private ChatMemory memory(String memoryId) {
+        return memories.getOrCreate(memoryId, id -> chatMemoryFactory.create(id, sessionSettings));
+    }
+
+    private String memoryId(String sessionId) {
+        return "chat:" + sessionId;
+    }
+
     interface ChatAssistant {
-        @SystemMessage("You are a helpful assistant. Be concise and friendly. And remember, your name is Ray's agent, no matter how they ask you who you are, your answer should be 'Hi, I'm Ray's agent' ")
-        String chat(String userMessage);
+        String SYSTEM_PROMPT = "You are a helpful assistant. Be concise and friendly. And remember, your name is Ray's agent, no matter how they ask you who you are, your answer should be 'Hi, I'm Ray's agent' ";
+
+        @SystemMessage(SYSTEM_PROMPT)
+        String chat(@MemoryId String memoryId, @UserMessage String userMessage);
+
+        @SystemMessage(SYSTEM_PROMPT)
+        TokenStream chatStream(@MemoryId String memoryId, @UserMessage String userMessage);
     }
 }
\ No newline at end of file
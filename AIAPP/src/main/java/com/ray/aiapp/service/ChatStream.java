@@ -0,0 +1,23 @@
+package com.ray.aiapp.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle on a streamed chat turn started by {@link ChatStreamRunner}.
+ */
+public final class ChatStream {
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Stop the turn, e.g. because the client disconnected. No further listener callbacks are made; the
+     * rest of the model stream is discarded and chat memory is rolled back once it ends.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+}
@@ -0,0 +1,33 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.rag.content.Content;
+import java.util.List;
+
+/**
+ * Receives the events of one streamed chat turn. Callbacks may run on the model client's threads.
+ */
+public interface ChatStreamListener {
+
+    void onToken(String token);
+
+    default void onRetrieved(List<Content> contents) {
+    }
+
+    default void onToolRequested(ToolExecutionRequest request) {
+    }
+
+    default void onToolResult(ToolExecutionResultMessage result) {
+    }
+
+    /**
+     * The turn finished and its messages are in chat memory.
+     */
+    void onComplete(String response);
+
+    /**
+     * The turn failed; chat memory was rolled back to its state before the turn.
+     */
+    void onError(Throwable error);
+}
@@ -0,0 +1,128 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.service.TokenStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a streamed chat turn and keeps chat memory consistent with what the client received.
+ *
+ * <p>AiServices adds the user message to memory when the assistant method is called and the answer when
+ * the stream completes. If the turn fails or is cancelled, memory is restored to its state before the
+ * turn, so a half-delivered answer never becomes part of the conversation. The rollback goes through the
+ * session's {@link ChatMemory} itself, see {@link RestorableChatMemory}, so memories that keep state
+ * besides the store stay consistent with it.</p>
+ *
+ * <p>The stream holds its session's slot in {@link SessionTurnExecutor} from before the memory snapshot
+ * until the memory is final, so a concurrent turn of the same session never interleaves with it. The model
+ * client cannot be stopped mid-stream: a cancelled turn discards the remaining tokens and finishes only
+ * when the model stream ends, after AiServices' last memory write. Exactly one of completion, failure and
+ * cancellation finishes a turn.</p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatStreamRunner {
+
+    private final OutboundCallGuard outboundCallGuard;
+    private final SessionTurnExecutor sessionTurns;
+
+    /**
+     * @param memory the memory the assistant writes this turn to
+     * @param call invokes the streaming assistant method
+     */
+    public ChatStream start(ChatMemory memory, Supplier<TokenStream> call, ChatStreamListener listener) {
+        return start(memory, call, listener, () -> { });
+    }
+
+    /**
+     * @param onFinish runs once when the turn completes, fails or is cancelled
+     */
+    public ChatStream start(ChatMemory memory, Supplier<TokenStream> call, ChatStreamListener listener,
+                            Runnable onFinish) {
+        String memoryId = memory.id().toString();
+        SessionTurnExecutor.Turn turn = sessionTurns.enter(memoryId);
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable finish = () -> {
+            try {
+                onFinish.run();
+            } finally {
+                turn.release();
+            }
+        };
+
+        List<ChatMessage> before;
+        TokenStream tokenStream;
+        try {
+            before = RestorableChatMemory.snapshotOf(memory);
+        } catch (RuntimeException e) {
+            finish.run();
+            throw e;
+        }
+        ChatStream stream = new ChatStream();
+        try {
+            // Retrieval runs while the assistant method is invoked; the stream itself runs on the client's threads
+            tokenStream = outboundCallGuard.call(call);
+        } catch (RuntimeException e) {
+            rollback(memory, before);
+            finish.run();
+            throw e;
+        }
+
+        tokenStream
+                .onNext(token -> {
+                    if (stream.isCancelled() || finished.get()) {
+                        return;
+                    }
+                    try {
+                        listener.onToken(token);
+                    } catch (RuntimeException e) {
+                        // The client went away; an exception here would not stop the model stream
+                        log.debug("Chat stream for memory {} lost its client: {}", memoryId, e.getMessage());
+                        stream.cancel();
+                    }
+                })
+                .onComplete(response -> {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (stream.isCancelled()) {
+                        log.debug("Chat stream for memory {} cancelled", memoryId);
+                        rollback(memory, before);
+                        finish.run();
+                        return;
+                    }
+                    finish.run();
+                    listener.onComplete(response.content().text());
+                })
+                .onError(error -> {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    rollback(memory, before);
+                    finish.run();
+                    if (stream.isCancelled()) {
+                        log.debug("Chat stream for memory {} cancelled", memoryId);
+                        return;
+                    }
+                    log.warn("Chat stream for memory {} failed: {}", memoryId, error.getMessage());
+                    listener.onError(error);
+                })
+                .start();
+        return stream;
+    }
+
+    private void rollback(ChatMemory memory, List<ChatMessage> before) {
+        try {
+            RestorableChatMemory.restoreTo(memory, before);
+        } catch (RuntimeException e) {
+            log.error("Failed to roll back chat memory {}: {}", memory.id(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Folds evicted conversation turns into a running summary, on the summary pool.
+ * Summary calls are admitted at {@link Priority#BACKGROUND}.
+ */
+@Slf4j
+@Component
+public class ChatSummarizer {
+
+    /** Long tool outputs are cut in the transcript; the summary only needs their gist. */
+    private static final int MAX_MESSAGE_CHARS = 2_000;
+
+    private static final String INSTRUCTIONS = """
+        You maintain a running summary of a conversation between a user and an assistant.
+        Merge the existing summary with the new messages into one updated summary.
+        Keep facts, names, numbers, identifiers, decisions and open questions; drop greetings and filler.
+        Write at most %d words, in the language of the conversation. Reply with the summary only.
+        """;
+
+    private final ChatLanguageModel chatModel;
+    private final ThreadPoolTaskExecutor summaryExecutor;
+
+    public ChatSummarizer(OpenAiChatModel chatModel,
+                          ModelCallScheduler scheduler,
+                          @Qualifier("summaryExecutor") ThreadPoolTaskExecutor summaryExecutor) {
+        this.chatModel = new RateLimitedChatModel(chatModel, scheduler, Priority.BACKGROUND);
+        this.summaryExecutor = summaryExecutor;
+    }
+
+    /**
+     * @param previousSummary the current summary, or null
+     * @param maxWords length limit given to the model
+     * @throws java.util.concurrent.RejectedExecutionException if the summary pool is saturated
+     */
+    public CompletableFuture<String> summarizeAsync(String previousSummary, List<ChatMessage> messages, int maxWords) {
+        String prompt = "Existing summary:\n" + (previousSummary == null ? "(none)" : previousSummary)
+                + "\n\nNew messages:\n" + transcript(messages);
+        return CompletableFuture.supplyAsync(() -> chatModel.generate(
+                        SystemMessage.from(INSTRUCTIONS.formatted(maxWords)),
+                        UserMessage.from(prompt))
+                .content()
+                .text(), summaryExecutor);
+    }
+
+    private String transcript(List<ChatMessage> messages) {
+        return messages.stream()
+                .map(this::line)
+                .collect(Collectors.joining("\n"));
+    }
+
+    private String line(ChatMessage message) {
+        if (message instanceof UserMessage user) {
+            String text = user.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .map(content -> ((TextContent) content).text())
+                    .collect(Collectors.joining(" "));
+            return "User: " + truncate(text);
+        }
+        if (message instanceof AiMessage ai) {
+            if (ai.hasToolExecutionRequests()) {
+                return "Assistant called " + ai.toolExecutionRequests().stream()
+                        .map(request -> request.name() + "(" + truncate(request.arguments()) + ")")
+                        .collect(Collectors.joining(", "));
+            }
+            return "Assistant: " + truncate(ai.text());
+        }
+        if (message instanceof ToolExecutionResultMessage result) {
+            return "Tool " + result.toolName() + " returned: " + truncate(result.text());
+        }
+        return "";
+    }
+
+    private String truncate(String text) {
+        if (text == null || text.length() <= MAX_MESSAGE_CHARS) {
+            return text;
+        }
+        return text.substring(0, MAX_MESSAGE_CHARS) + "...";
+    }
+}
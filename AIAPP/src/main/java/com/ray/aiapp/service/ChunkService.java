@@ -3,54 +3,76 @@ package com.ray.aiapp.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.ray.aiapp.domain.converter.VectorAttributeConverter;
-import com.ray.aiapp.repository.DocumentChunkRepository;
-import com.ray.aiapp.service.dto.chatWithScore;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Hybrid;
+import com.ray.aiapp.repository.DocumentChunkJdbcRepository;
+import com.ray.aiapp.service.dto.ScoredChunk;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
-import lombok.RequiredArgsConstructor;
+import dev.langchain4j.store.embedding.filter.Filter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service layer for document chunk operations.
- * Encapsulates similarity search and converts Interface Projection results
+ * Encapsulates similarity and hybrid search and converts search rows
  * to LangChain4j EmbeddingMatch objects.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class ChunkService {
 
-    private final DocumentChunkRepository chunkRepository;
+    private final DocumentChunkJdbcRepository chunkJdbcRepository;
+    private final LangchainModelProperties properties;
+    private final ThreadPoolTaskExecutor retrievalExecutor;
+    private final TransactionTemplate readOnlyTransaction;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    public ChunkService(DocumentChunkJdbcRepository chunkJdbcRepository,
+                        LangchainModelProperties properties,
+                        @Qualifier("retrievalExecutor") ThreadPoolTaskExecutor retrievalExecutor,
+                        PlatformTransactionManager transactionManager) {
+        this.chunkJdbcRepository = chunkJdbcRepository;
+        this.properties = properties;
+        this.retrievalExecutor = retrievalExecutor;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
     /**
      * Search for similar chunks and return as EmbeddingMatch list.
-     * Handles the conversion from Interface Projection (String embedding) to float[].
      *
      * @param queryVector the query embedding vector
      * @param maxResults maximum number of results to return
      * @param minScore minimum similarity score threshold
+     * @param filter metadata filter evaluated in SQL, may be null
+     * @param includeEmbeddings whether to fetch chunk vectors; when false the matches carry no embedding
      * @return list of EmbeddingMatch objects ready for LangChain4j
      */
     @Transactional(readOnly = true)
     public List<EmbeddingMatch<TextSegment>> searchSimilarChunks(
-            float[] queryVector, int maxResults, double minScore) {
-
-        String vectorString = VectorAttributeConverter.toVectorString(queryVector);
+            float[] queryVector, int maxResults, double minScore, Filter filter, boolean includeEmbeddings) {
 
         log.debug("Searching for {} similar chunks with minScore {}", maxResults, minScore);
 
-        List<chatWithScore> results = chunkRepository.findSimilarChunks(
-                vectorString, maxResults, minScore);
+        List<ScoredChunk> results = chunkJdbcRepository.findSimilarChunks(
+                queryVector, maxResults, minScore, filter, includeEmbeddings);
 
         log.debug("Found {} matching chunks", results.size());
 
@@ -60,21 +82,111 @@ public class ChunkService {
     }
 
     /**
-     * Convert Interface Projection result to LangChain4j EmbeddingMatch.
-     * Key transformation: String embedding -> float[] via VectorAttributeConverter.parseVector()
+     * Hybrid search: full-text and vector candidates are fetched concurrently, each in its own
+     * read-only transaction, and merged with reciprocal rank fusion.
+     *
+     * <p>{@code minScore} only applies to the vector branch; a lexical hit on an exact identifier is kept
+     * even when its embedding is not close to the question. The returned scores are fused RRF scores.</p>
+     *
+     * @param queryText the user's question, for the full-text branch
+     * @param queryVector the embedding of {@code queryText}
+     */
+    public List<EmbeddingMatch<TextSegment>> searchHybridChunks(
+            String queryText, float[] queryVector, int maxResults, double minScore, Filter filter) {
+
+        Hybrid hybrid = properties.getRag().getHybrid();
+        int candidates = Math.max(hybrid.getCandidateCount(), maxResults);
+        boolean includeEmbeddings = properties.getRag().isIncludeEmbeddings();
+
+        CompletableFuture<List<ScoredChunk>> lexical = CompletableFuture.supplyAsync(
+                () -> readOnlyTransaction.execute(status ->
+                        chunkJdbcRepository.findLexicalChunks(queryText, candidates, filter)),
+                retrievalExecutor);
+        List<ScoredChunk> vector = readOnlyTransaction.execute(status ->
+                chunkJdbcRepository.findSimilarChunks(queryVector, candidates, minScore, filter, includeEmbeddings));
+        List<ScoredChunk> lexicalResults = lexical.join();
+
+        log.debug("Hybrid search: {} vector and {} lexical candidates", vector.size(), lexicalResults.size());
+
+        Map<String, FusedChunk> fused = new LinkedHashMap<>();
+        addRanks(fused, vector, hybrid.getVectorWeight(), hybrid.getRrfK());
+        addRanks(fused, lexicalResults, hybrid.getLexicalWeight(), hybrid.getRrfK());
+
+        return fused.values().stream()
+                .sorted(Comparator.comparingDouble(FusedChunk::score).reversed())
+                .limit(maxResults)
+                .map(candidate -> toEmbeddingMatch(candidate.chunk(), candidate.score()))
+                .toList();
+    }
+
+    private void addRanks(Map<String, FusedChunk> fused, List<ScoredChunk> ranked, double weight, int rrfK) {
+        for (int i = 0; i < ranked.size(); i++) {
+            ScoredChunk chunk = ranked.get(i);
+            double contribution = weight / (rrfK + i + 1);
+            // Keep the first row seen: the vector row may carry the embedding, the lexical one never does
+            fused.merge(chunk.embeddingId(), new FusedChunk(chunk, contribution),
+                    (existing, added) -> new FusedChunk(existing.chunk(), existing.score() + added.score()));
+        }
+    }
+
+    /**
+     * Fill in the embeddings of matches returned without them, in one query.
+     * For callers that need the vectors themselves, e.g. maximal marginal relevance re-ranking.
+     */
+    @Transactional(readOnly = true)
+    public List<EmbeddingMatch<TextSegment>> withEmbeddings(List<EmbeddingMatch<TextSegment>> matches) {
+        List<String> missing = matches.stream()
+                .filter(match -> match.embedding() == null)
+                .map(EmbeddingMatch::embeddingId)
+                .toList();
+        if (missing.isEmpty()) {
+            return matches;
+        }
+
+        Map<String, float[]> vectors = chunkJdbcRepository.findEmbeddings(missing);
+        return matches.stream()
+                .map(match -> match.embedding() != null || !vectors.containsKey(match.embeddingId())
+                        ? match
+                        : new EmbeddingMatch<>(match.score(), match.embeddingId(),
+                                Embedding.from(vectors.get(match.embeddingId())), match.embedded()))
+                .toList();
+    }
+
+    /**
+     * Load the chunks at the given positions in one query.
+     *
+     * @param positions chunk indexes by document id
      */
-    private EmbeddingMatch<TextSegment> toEmbeddingMatch(chatWithScore chunk) {
-        // Convert String embedding to float[] using static method
-        float[] embeddingVector = VectorAttributeConverter.parseVector(chunk.getEmbedding());
+    @Transactional(readOnly = true)
+    public List<TextSegment> findChunksAt(Map<String, ? extends Collection<Integer>> positions) {
+        List<String> documentIds = new ArrayList<>();
+        List<Integer> chunkIndexes = new ArrayList<>();
+        positions.forEach((documentId, indexes) -> indexes.forEach(index -> {
+            documentIds.add(documentId);
+            chunkIndexes.add(index);
+        }));
 
+        return chunkJdbcRepository.findChunksAt(documentIds, chunkIndexes).stream()
+                .map(chunk -> toEmbeddingMatch(chunk).embedded())
+                .toList();
+    }
+
+    /**
+     * Convert a search row to LangChain4j EmbeddingMatch.
+     */
+    private EmbeddingMatch<TextSegment> toEmbeddingMatch(ScoredChunk chunk) {
+        return toEmbeddingMatch(chunk, chunk.score());
+    }
+
+    private EmbeddingMatch<TextSegment> toEmbeddingMatch(ScoredChunk chunk, double score) {
         // Parse metadata JSON to Map
-        Map<String, Object> metadataMap = parseMetadata(chunk.getMetadata());
+        Map<String, Object> metadataMap = parseMetadata(chunk.metadata());
 
         return new EmbeddingMatch<>(
-                chunk.getScore(),
-                chunk.getEmbeddingId(),
-                Embedding.from(embeddingVector),
-                TextSegment.from(chunk.getText(), Metadata.from(metadataMap))
+                score,
+                chunk.embeddingId(),
+                chunk.embedding() == null ? null : Embedding.from(chunk.embedding()),
+                TextSegment.from(chunk.text(), Metadata.from(metadataMap))
         );
     }
 
@@ -92,4 +204,7 @@ public class ChunkService {
             return new HashMap<>();
         }
     }
+
+    private record FusedChunk(ScoredChunk chunk, double score) {
+    }
 }
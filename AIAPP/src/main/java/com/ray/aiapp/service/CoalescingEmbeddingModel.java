@@ -0,0 +1,175 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties.EmbeddingBatching;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micro-batches concurrent single-text embeddings, i.e. query embeddings, into one {@code embedAll} call.
+ *
+ * <p>The first text of a batch opens a window of {@code window}; texts arriving meanwhile join it, and
+ * the batch is sent when the window closes or it holds {@code maxBatchSize} texts, whichever comes first.
+ * Each caller then gets its own vector. A batch of one is sent as a plain {@code embed} call.
+ * {@link #embedAll} is passed straight through.</p>
+ *
+ * <p>Batches are sent from {@code senderThreads} platform threads, so virtual-thread callers only park on
+ * the result, see {@link OutboundCallGuard}. At most {@code senderQueueCapacity} batches wait for a sender;
+ * past that a batch fails right away. Any failure reaches every caller of the batch.
+ * Batch sizes are published as {@code embedding.query.batch.size}.</p>
+ */
+public class CoalescingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final DistributionSummary batchSizes;
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor sender;
+
+    private List<Pending> batch = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+
+    public CoalescingEmbeddingModel(EmbeddingModel delegate, EmbeddingBatching settings, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.windowNanos = settings.getWindow().toNanos();
+        this.maxBatchSize = settings.getMaxBatchSize();
+        this.batchSizes = DistributionSummary.builder("embedding.query.batch.size")
+                .description("Query embeddings sent per remote call")
+                .register(meterRegistry);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger counter = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(settings.getSenderThreads(), settings.getSenderThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(settings.getSenderQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "embedding-batch-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        Pending pending = new Pending(text, new CompletableFuture<>());
+        List<Pending> full = null;
+        synchronized (this) {
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else if (batch.size() == 1) {
+                flushTask = timer.schedule(this::flushWindow, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return Response.from(await(pending.result()));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    private void flushWindow() {
+        List<Pending> due;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                // Already sent because it filled up
+                return;
+            }
+            due = takeBatch();
+        }
+        send(due);
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private List<Pending> takeBatch() {
+        List<Pending> taken = batch;
+        batch = new ArrayList<>();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return taken;
+    }
+
+    private void send(List<Pending> pendings) {
+        batchSizes.record(pendings.size());
+        try {
+            sender.execute(() -> embed(pendings));
+        } catch (RejectedExecutionException e) {
+            pendings.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+
+    private void embed(List<Pending> pendings) {
+        try {
+            if (pendings.size() == 1) {
+                Pending only = pendings.get(0);
+                only.result().complete(delegate.embed(only.text()).content());
+                return;
+            }
+            List<TextSegment> segments = pendings.stream()
+                    .map(pending -> TextSegment.from(pending.text()))
+                    .toList();
+            List<Embedding> embeddings = delegate.embedAll(segments).content();
+            if (embeddings.size() != pendings.size()) {
+                throw new IllegalStateException("Embedding model returned " + embeddings.size()
+                        + " vectors for " + pendings.size() + " texts");
+            }
+            for (int i = 0; i < pendings.size(); i++) {
+                pendings.get(i).result().complete(embeddings.get(i));
+            }
+        } catch (Throwable e) {
+            pendings.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+
+    private Embedding await(CompletableFuture<Embedding> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    private record Pending(String text, CompletableFuture<Embedding> result) {
+    }
+}
@@ -0,0 +1,194 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Packing;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns retrieved chunks into fewer, denser passages for the prompt.
+ *
+ * <ol>
+ *   <li>Hits from the same document whose chunk indexes are at most {@code bridgeGap} apart get the chunks
+ *       in between (and, with {@code expandNeighbours}, the chunks around every hit) fetched in one query.</li>
+ *   <li>Runs of consecutive chunks are merged into one passage, dropping the text the splitter repeated
+ *       at each boundary ({@code chunkOverlap}).</li>
+ *   <li>Passages with identical text, e.g. from a file uploaded twice, are kept once.</li>
+ *   <li>Passages are ordered by their best hit's score and added while they fit {@code maxContextTokens}.</li>
+ * </ol>
+ *
+ * A passage keeps its first chunk's metadata; {@code chunkIndex} is its first chunk and
+ * {@code lastChunkIndex} its last.
+ */
+@Slf4j
+@Component
+public class ContextPacker {
+
+    /** Shorter common text at a chunk boundary is treated as coincidence, not splitter overlap. */
+    private static final int MIN_OVERLAP = 8;
+
+    private final ChunkService chunkService;
+    private final Packing settings;
+    private final int maxOverlap;
+
+    public ContextPacker(ChunkService chunkService, LangchainModelProperties properties) {
+        this.chunkService = chunkService;
+        this.settings = properties.getRag().getPacking();
+        // The splitter's overlap is measured in characters but may shift to the next word boundary
+        this.maxOverlap = properties.getRag().getChunkOverlap() * 2;
+    }
+
+    public List<Content> pack(List<EmbeddingMatch<TextSegment>> matches) {
+        Map<String, TreeMap<Integer, Chunk>> byDocument = new LinkedHashMap<>();
+        List<Passage> passages = new ArrayList<>();
+        for (EmbeddingMatch<TextSegment> match : matches) {
+            TextSegment segment = match.embedded();
+            String documentId = segment.metadata().getString("documentId");
+            Integer chunkIndex = segment.metadata().getInteger("chunkIndex");
+            if (documentId == null || chunkIndex == null) {
+                passages.add(new Passage(segment.text(), segment.metadata(), match.score()));
+                continue;
+            }
+            byDocument.computeIfAbsent(documentId, id -> new TreeMap<>())
+                    .merge(chunkIndex, new Chunk(segment, match.score()),
+                            (existing, added) -> existing.score() >= added.score() ? existing : added);
+        }
+
+        fetchNeighbours(byDocument);
+        byDocument.values().forEach(chunks -> passages.addAll(toPassages(chunks)));
+
+        List<Content> packed = new ArrayList<>();
+        Set<String> seenTexts = new HashSet<>();
+        int tokens = 0;
+        passages.sort(Comparator.comparingDouble(Passage::score).reversed());
+        for (Passage passage : passages) {
+            if (!seenTexts.add(passage.text().strip())) {
+                continue;
+            }
+            int passageTokens = TokenEstimator.estimate(passage.text());
+            if (!packed.isEmpty() && tokens + passageTokens > settings.getMaxContextTokens()) {
+                continue;
+            }
+            tokens += passageTokens;
+            packed.add(Content.from(TextSegment.from(passage.text(), passage.metadata())));
+        }
+        log.debug("Packed {} chunks into {} passages (~{} tokens)", matches.size(), packed.size(), tokens);
+        return packed;
+    }
+
+    /**
+     * Add the chunks that join nearby hits, and the configured neighbours, to {@code byDocument}.
+     */
+    private void fetchNeighbours(Map<String, TreeMap<Integer, Chunk>> byDocument) {
+        Map<String, Set<Integer>> missing = new HashMap<>();
+        byDocument.forEach((documentId, chunks) -> {
+            Set<Integer> wanted = new TreeSet<>();
+            Integer previous = null;
+            for (int index : chunks.keySet()) {
+                if (previous != null && index - previous > 1 && index - previous - 1 <= settings.getBridgeGap()) {
+                    for (int gap = previous + 1; gap < index; gap++) {
+                        wanted.add(gap);
+                    }
+                }
+                for (int offset = 1; offset <= settings.getExpandNeighbours(); offset++) {
+                    wanted.add(index + offset);
+                    if (index - offset >= 0) {
+                        wanted.add(index - offset);
+                    }
+                }
+                previous = index;
+            }
+            wanted.removeAll(chunks.keySet());
+            if (!wanted.isEmpty()) {
+                missing.put(documentId, wanted);
+            }
+        });
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        for (TextSegment segment : chunkService.findChunksAt(missing)) {
+            Integer chunkIndex = segment.metadata().getInteger("chunkIndex");
+            if (chunkIndex != null) {
+                // Fetched context is not a hit: it never decides a passage's rank
+                byDocument.get(segment.metadata().getString("documentId"))
+                        .putIfAbsent(chunkIndex, new Chunk(segment, Double.NEGATIVE_INFINITY));
+            }
+        }
+    }
+
+    private List<Passage> toPassages(TreeMap<Integer, Chunk> chunks) {
+        List<Passage> passages = new ArrayList<>();
+        StringBuilder text = null;
+        TextSegment first = null;
+        int firstIndex = 0;
+        int lastIndex = 0;
+        double score = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<Integer, Chunk> entry : chunks.entrySet()) {
+            int index = entry.getKey();
+            Chunk chunk = entry.getValue();
+            if (text != null && index == lastIndex + 1) {
+                append(text, chunk.segment().text());
+                lastIndex = index;
+                score = Math.max(score, chunk.score());
+                continue;
+            }
+            if (text != null) {
+                passages.add(passage(text, first, firstIndex, lastIndex, score));
+            }
+            text = new StringBuilder(chunk.segment().text());
+            first = chunk.segment();
+            firstIndex = index;
+            lastIndex = index;
+            score = chunk.score();
+        }
+        if (text != null) {
+            passages.add(passage(text, first, firstIndex, lastIndex, score));
+        }
+        // Fetched chunks always touch a hit, so this only guards against inconsistent metadata
+        passages.removeIf(passage -> passage.score() == Double.NEGATIVE_INFINITY);
+        return passages;
+    }
+
+    /**
+     * Append {@code next} to {@code text}, dropping the longest prefix of {@code next} that {@code text}
+     * already ends with.
+     */
+    private void append(StringBuilder text, String next) {
+        int max = Math.min(maxOverlap, Math.min(text.length(), next.length()));
+        for (int length = max; length >= MIN_OVERLAP; length--) {
+            if (text.substring(text.length() - length).equals(next.substring(0, length))) {
+                text.append(next, length, next.length());
+                return;
+            }
+        }
+        text.append('\n').append(next);
+    }
+
+    private Passage passage(StringBuilder text, TextSegment first, int firstIndex, int lastIndex, double score) {
+        Metadata metadata = Metadata.from(new HashMap<>(first.metadata().toMap()));
+        metadata.put("chunkIndex", firstIndex);
+        metadata.put("lastChunkIndex", lastIndex);
+        return new Passage(text.toString(), metadata, score);
+    }
+
+    private record Chunk(TextSegment segment, double score) {
+    }
+
+    private record Passage(String text, Metadata metadata, double score) {
+    }
+}
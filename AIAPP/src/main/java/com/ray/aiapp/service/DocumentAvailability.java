@@ -0,0 +1,55 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.domain.model.Document.DocumentStatus;
+import com.ray.aiapp.repository.DocumentRepository;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Whether any document is searchable, so retrieval can be skipped, embedding call included, while
+ * nothing has been indexed.
+ *
+ * <p>A positive answer is cached until the next local {@link DocumentSetChangedEvent}; a stale one only
+ * costs an empty retrieval. A negative answer is re-checked after {@code noDocumentsRecheckInterval},
+ * since documents may have been indexed through another instance. Each answer is tagged with the event
+ * count it was read at and ignored once an event arrived meanwhile, so a query that raced with a change
+ * cannot cache the old answer.</p>
+ */
+@Component
+public class DocumentAvailability {
+
+    private final DocumentRepository documentRepository;
+    private final long recheckNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Answer cached;
+
+    public DocumentAvailability(DocumentRepository documentRepository, LangchainModelProperties properties) {
+        this.documentRepository = documentRepository;
+        this.recheckNanos = properties.getRag().getNoDocumentsRecheckInterval().toNanos();
+    }
+
+    public boolean hasIndexedDocuments() {
+        long currentGeneration = generation.get();
+        long now = System.nanoTime();
+        Answer answer = cached;
+        if (answer != null && answer.generation() == currentGeneration
+                && (answer.indexed() || now - answer.checkedAt() < recheckNanos)) {
+            return answer.indexed();
+        }
+
+        boolean indexed = documentRepository.existsByStatus(DocumentStatus.INDEXED);
+        cached = new Answer(indexed, now, currentGeneration);
+        return indexed;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentSetChanged(DocumentSetChangedEvent event) {
+        generation.incrementAndGet();
+        cached = null;
+    }
+
+    private record Answer(boolean indexed, long checkedAt, long generation) {
+    }
+}
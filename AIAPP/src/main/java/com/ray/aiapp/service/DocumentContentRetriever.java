@@ -0,0 +1,89 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties.Rag;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * Content retriever that only searches chunks of INDEXED documents, narrowed further by the
+ * {@link RetrievalScope} of the current call. Both conditions are evaluated in SQL by the store.
+ *
+ * <p>With {@code aiapp.langchain.rag.hybrid.enabled} the question is also matched with full-text
+ * search, see {@link ChunkService#searchHybridChunks}. With {@code aiapp.langchain.rag.packing.enabled}
+ * the hits are merged into passages by {@link ContextPacker}.</p>
+ *
+ * <p>While no document is indexed nothing is searched and the query is not embedded.</p>
+ */
+@Slf4j
+public class DocumentContentRetriever implements ContentRetriever {
+
+    private static final Filter INDEXED_ONLY = metadataKey("status").isEqualTo("INDEXED");
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final ChunkService chunkService;
+    private final DocumentAvailability documentAvailability;
+    private final ContextPacker contextPacker;
+    private final Rag settings;
+
+    public DocumentContentRetriever(EmbeddingStore<TextSegment> embeddingStore,
+                                    EmbeddingModel embeddingModel,
+                                    ChunkService chunkService,
+                                    DocumentAvailability documentAvailability,
+                                    ContextPacker contextPacker,
+                                    Rag settings) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.chunkService = chunkService;
+        this.documentAvailability = documentAvailability;
+        this.contextPacker = contextPacker;
+        this.settings = settings;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        if (!documentAvailability.hasIndexedDocuments()) {
+            log.debug("No indexed documents, skipping retrieval");
+            return List.of();
+        }
+
+        Embedding queryEmbedding = embeddingModel.embed(query.text()).content();
+
+        Filter scope = RetrievalScope.currentFilter();
+        Filter filter = scope == null ? INDEXED_ONLY : INDEXED_ONLY.and(scope);
+
+        List<EmbeddingMatch<TextSegment>> matches;
+        if (settings.getHybrid().isEnabled()) {
+            matches = chunkService.searchHybridChunks(query.text(), queryEmbedding.vector(),
+                    settings.getMaxResults(), settings.getMinScore(), filter);
+        } else {
+            matches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(queryEmbedding)
+                    .maxResults(settings.getMaxResults())
+                    .minScore(settings.getMinScore())
+                    .filter(filter)
+                    .build()).matches();
+        }
+
+        List<Content> contents = settings.getPacking().isEnabled()
+                ? contextPacker.pack(matches)
+                : matches.stream()
+                        .map(match -> Content.from(match.embedded()))
+                        .toList();
+        log.debug("Retrieved {} chunks as {} passages (scoped: {})", matches.size(), contents.size(), scope != null);
+        RetrievalScope.notifyRetrieved(contents);
+        return contents;
+    }
+}
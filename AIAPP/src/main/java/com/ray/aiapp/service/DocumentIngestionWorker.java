@@ -0,0 +1,263 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.domain.model.Document;
+import com.ray.aiapp.domain.model.Document.DocumentType;
+import com.ray.aiapp.domain.model.IngestionJob;
+import com.ray.aiapp.repository.DocumentRepository;
+import com.ray.aiapp.service.IngestionJobService.JobLostException;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls the ingestion_jobs queue and runs each job on the bounded ingestion pool.
+ *
+ * <p>A job parses the stored upload, splits it, embeds the segments in batches and writes the chunks.
+ * Nothing here runs inside a transaction, so no DB connection is held while waiting on the
+ * embedding API. Batches are embedded at background priority, see {@link ModelCallScheduler}.</p>
+ *
+ * <p>While a job runs, a timer heartbeat keeps its {@code updated_at} fresh, however long parsing,
+ * retry backoff or rate limit waits take. Every write is fenced by the claimed attempt, see
+ * {@link IngestionJobService}; each batch is stored in the same transaction that locks the job row for
+ * the claimed attempt, and a worker that lost its job stops without touching the chunks.</p>
+ */
+@Slf4j
+@Component
+public class DocumentIngestionWorker implements SchedulingConfigurer {
+
+    private final IngestionJobService jobService;
+    private final DocumentRepository documentRepository;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final LangchainModelProperties properties;
+    private final ThreadPoolTaskExecutor ingestionExecutor;
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    /** Attempt claimed for each job running on this node. */
+    private final Map<UUID, Integer> ownedJobs = new ConcurrentHashMap<>();
+    /** Jobs whose heartbeat found them claimed by another attempt. */
+    private final Set<UUID> lostJobs = ConcurrentHashMap.newKeySet();
+
+    public DocumentIngestionWorker(IngestionJobService jobService,
+                                   DocumentRepository documentRepository,
+                                   EmbeddingStore<TextSegment> embeddingStore,
+                                   @Qualifier("ingestionEmbeddingModel") EmbeddingModel embeddingModel,
+                                   LangchainModelProperties properties,
+                                   @Qualifier("ingestionExecutor") ThreadPoolTaskExecutor ingestionExecutor) {
+        this.jobService = jobService;
+        this.documentRepository = documentRepository;
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.properties = properties;
+        this.ingestionExecutor = ingestionExecutor;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.addFixedDelayTask(this::poll, properties.getIngestion().getPollInterval());
+        registrar.addFixedDelayTask(this::requeueStaleJobs, properties.getIngestion().getStaleJobTimeout());
+        registrar.addFixedDelayTask(this::heartbeat, properties.getIngestion().getHeartbeatInterval());
+    }
+
+    public void poll() {
+        int freeSlots = properties.getIngestion().getWorkerThreads() - runningJobs.get();
+        if (freeSlots <= 0) {
+            return;
+        }
+
+        List<IngestionJob> jobs = jobService.claimJobs(freeSlots);
+        for (IngestionJob job : jobs) {
+            runningJobs.incrementAndGet();
+            try {
+                ingestionExecutor.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                runningJobs.decrementAndGet();
+                jobService.fail(job.getId(), job.getAttempts(), "Ingestion pool rejected job");
+            }
+        }
+    }
+
+    public void requeueStaleJobs() {
+        int requeued = jobService.requeueStaleJobs();
+        if (requeued > 0) {
+            log.warn("Re-queued {} stale ingestion jobs", requeued);
+        }
+    }
+
+    public void heartbeat() {
+        ownedJobs.forEach((jobId, attempt) -> {
+            try {
+                if (!jobService.heartbeat(jobId, attempt)) {
+                    lostJobs.add(jobId);
+                    log.warn("Ingestion job {} attempt {} was taken over by another worker", jobId, attempt);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Heartbeat of ingestion job {} failed: {}", jobId, e.getMessage());
+            }
+        });
+    }
+
+    private void run(IngestionJob job) {
+        ownedJobs.put(job.getId(), job.getAttempts());
+        try {
+            Document document = documentRepository.findById(job.getDocumentId()).orElse(null);
+            if (document == null) {
+                log.info("Document {} was deleted before ingestion job {} ran", job.getDocumentId(), job.getId());
+                return;
+            }
+
+            // A previous attempt may have stored part of the chunks
+            deleteChunks(document.getId().toString());
+
+            int chunkCount = ingest(job, document);
+            if (jobService.complete(job.getId(), job.getAttempts(), chunkCount)) {
+                log.info("Document {} indexed successfully with {} chunks", document.getOriginalFileName(), chunkCount);
+            } else {
+                deleteChunks(document.getId().toString());
+                log.info("Document {} was deleted during ingestion, dropped its chunks", document.getId());
+            }
+        } catch (JobLostException e) {
+            // The new owner deletes and rewrites the chunks; leave them alone
+            log.warn("Abandoning document {}: {}", job.getDocumentId(), e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to process document {}: {}", job.getDocumentId(), e.getMessage());
+            jobService.fail(job.getId(), job.getAttempts(), e.getMessage());
+        } finally {
+            ownedJobs.remove(job.getId());
+            lostJobs.remove(job.getId());
+            runningJobs.decrementAndGet();
+        }
+    }
+
+    private int ingest(IngestionJob job, Document document) throws IOException {
+        DocumentParser parser = getParser(document.getDocumentType());
+
+        try (InputStream inputStream = new ByteArrayInputStream(job.getContent())) {
+            dev.langchain4j.data.document.Document langchainDoc = parser.parse(inputStream);
+
+            langchainDoc.metadata().put("documentId", document.getId().toString());
+            langchainDoc.metadata().put("fileName", document.getOriginalFileName());
+
+            // Split the document first to get actual chunk count
+            DocumentSplitter splitter = DocumentSplitters.recursive(
+                    properties.getRag().getChunkSize(),
+                    properties.getRag().getChunkOverlap());
+
+            List<TextSegment> segments = splitter.split(langchainDoc);
+            for (int i = 0; i < segments.size(); i++) {
+                // Add chunkIndex to metadata for proper ordering
+                segments.get(i).metadata().put("chunkIndex", i);
+            }
+            jobService.updateProgress(job.getId(), job.getAttempts(), segments.size(), 0);
+
+            // Embed and store batch by batch; a failing batch is retried on its own
+            int embedded = 0;
+            for (List<TextSegment> batch : toBatches(segments)) {
+                List<Embedding> embeddings = embedWithRetry(batch);
+                if (lostJobs.contains(job.getId())) {
+                    throw new JobLostException(job.getId(), job.getAttempts());
+                }
+                jobService.writeFenced(job.getId(), job.getAttempts(), () -> embeddingStore.addAll(embeddings, batch));
+                embedded += batch.size();
+                jobService.updateProgress(job.getId(), job.getAttempts(), segments.size(), embedded);
+            }
+
+            // Return the ACTUAL chunk count
+            return segments.size();
+        }
+    }
+
+    /**
+     * Group segments so each embedAll request stays under both the count and the token budget.
+     */
+    private List<List<TextSegment>> toBatches(List<TextSegment> segments) {
+        int maxSize = properties.getIngestion().getEmbeddingBatchSize();
+        int maxTokens = properties.getIngestion().getEmbeddingBatchMaxTokens();
+
+        List<List<TextSegment>> batches = new ArrayList<>();
+        List<TextSegment> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (TextSegment segment : segments) {
+            int tokens = TokenEstimator.estimate(segment.text());
+            if (!current.isEmpty() && (current.size() >= maxSize || currentTokens + tokens > maxTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(segment);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private List<Embedding> embedWithRetry(List<TextSegment> batch) {
+        int maxRetries = properties.getIngestion().getEmbeddingMaxRetries();
+        long backoffMillis = properties.getIngestion().getEmbeddingRetryBackoff().toMillis();
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                List<Embedding> embeddings = embeddingModel.embedAll(batch).content();
+                if (embeddings.size() != batch.size()) {
+                    throw new IllegalStateException("Expected " + batch.size() + " embeddings but got " + embeddings.size());
+                }
+                return embeddings;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                long delay = backoffMillis << attempt;
+                log.warn("Embedding batch of {} segments failed (attempt {}), retrying in {} ms: {}",
+                        batch.size(), attempt + 1, delay, e.getMessage());
+                sleep(delay);
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry embedding batch", e);
+        }
+    }
+
+    private void deleteChunks(String documentId) {
+        if (embeddingStore instanceof PgVectorEmbeddingStore pgVectorStore) {
+            pgVectorStore.deleteByDocumentId(documentId);
+        }
+    }
+
+    private DocumentParser getParser(DocumentType type) {
+        return switch (type) {
+            case PDF -> new ApachePdfBoxDocumentParser();
+            case TEXT, MARKDOWN -> new TextDocumentParser();
+        };
+    }
+}
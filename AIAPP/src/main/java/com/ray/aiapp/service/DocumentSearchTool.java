@@ -0,0 +1,70 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.agent.tool.P;
+import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Document retrieval as a tool, so unified chat only searches the uploaded documents for questions
+ * that are about them instead of on every message.
+ *
+ * <p>Results list each chunk under a {@code N. [file]} header, a layout {@link #sources} relies on to
+ * tell which files a result came from, see {@link RetrievalStrippingChatMemory}.</p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DocumentSearchTool {
+
+    /** Name the model calls the tool by, i.e. the method name. */
+    static final String TOOL_NAME = "searchDocuments";
+    private static final Pattern SOURCE_HEADER = Pattern.compile("^\\d+\\. \\[(.+)]$", Pattern.MULTILINE);
+
+    private final ContentRetriever contentRetriever;
+
+    @Tool("Searches the documents the user has uploaded. " +
+          "Use this when the user asks about their files, reports, PDFs or anything they uploaded.")
+    public String searchDocuments(@P("What to look for in the documents") String query) {
+        log.info("Document search requested: {}", query);
+
+        List<Content> contents = contentRetriever.retrieve(Query.from(query));
+        if (contents.isEmpty()) {
+            return "No matching content found in the uploaded documents.";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < contents.size(); i++) {
+            TextSegment segment = contents.get(i).textSegment();
+            sb.append(i + 1).append(". [")
+                    .append(segment.metadata().getString("fileName"))
+                    .append("]\n")
+                    .append(segment.text())
+                    .append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the distinct files a {@link #searchDocuments} result quotes, in order; empty if none
+     */
+    static List<String> sources(String result) {
+        List<String> sources = new ArrayList<>();
+        Matcher matcher = SOURCE_HEADER.matcher(result);
+        while (matcher.find()) {
+            if (!sources.contains(matcher.group(1))) {
+                sources.add(matcher.group(1));
+            }
+        }
+        return sources;
+    }
+}
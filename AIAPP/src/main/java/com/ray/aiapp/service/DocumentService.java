@@ -1,27 +1,22 @@
 package com.ray.aiapp.service;
 
-import com.ray.aiapp.config.properties.LangchainModelProperties;
 import com.ray.aiapp.domain.model.Document;
 import com.ray.aiapp.domain.model.Document.DocumentStatus;
 import com.ray.aiapp.domain.model.Document.DocumentType;
 import com.ray.aiapp.exception.ResourceNotFoundException;
 import com.ray.aiapp.repository.DocumentRepository;
 import com.ray.aiapp.service.dto.DocumentResponse;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.parser.TextDocumentParser;
-import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import com.ray.aiapp.service.dto.DocumentStatusResponse;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -33,14 +28,26 @@ public class DocumentService {
 
     private final DocumentRepository documentRepository;
     private final EmbeddingStore<TextSegment> embeddingStore;
-    private final EmbeddingModel embeddingModel;
-    private final LangchainModelProperties properties;
-
+    private final IngestionJobService ingestionJobService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Store the document metadata and queue it for ingestion.
+     * Parsing, splitting and embedding happen asynchronously in {@link DocumentIngestionWorker};
+     * the returned document stays in PROCESSING until the job finishes.
+     */
     @Transactional
     public DocumentResponse uploadDocument(MultipartFile file, String description) {
         String originalFileName = file.getOriginalFilename();
         DocumentType documentType = determineDocumentType(originalFileName);
 
+        byte[] content;
+        try {
+            content = file.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read uploaded file " + originalFileName, e);
+        }
+
         Document document = Document.builder()
                 .fileName(UUID.randomUUID().toString())
                 .originalFileName(originalFileName)
@@ -52,54 +59,11 @@ public class DocumentService {
                 .build();
 
         document = documentRepository.save(document);
+        ingestionJobService.enqueue(document.getId(), content);
+        eventPublisher.publishEvent(new DocumentSetChangedEvent(document.getId()));
+        log.info("Document {} queued for ingestion", originalFileName);
 
-        try {
-            int chunkCount = processAndIngestDocument(file, document.getId().toString(), documentType);
-            document.setChunkCount(chunkCount);
-            document.setStatus(DocumentStatus.INDEXED);
-            log.info("Document {} indexed successfully with {} chunks", originalFileName, chunkCount);
-        } catch (Exception e) {
-            log.error("Failed to process document {}: {}", originalFileName, e.getMessage());
-            document.setStatus(DocumentStatus.FAILED);
-        }
-
-        return DocumentResponse.from(documentRepository.save(document));
-    }
-
-    private int processAndIngestDocument(MultipartFile file, String documentId, DocumentType type) throws IOException {
-        DocumentParser parser = getParser(type);
-
-        try (InputStream inputStream = file.getInputStream()) {
-            dev.langchain4j.data.document.Document langchainDoc = parser.parse(inputStream);
-
-            langchainDoc.metadata().put("documentId", documentId);
-            langchainDoc.metadata().put("fileName", file.getOriginalFilename());
-
-            // Split the document first to get actual chunk count
-            DocumentSplitter splitter = DocumentSplitters.recursive(
-                    properties.getRag().getChunkSize(),
-                    properties.getRag().getChunkOverlap());
-
-            List<TextSegment> segments = splitter.split(langchainDoc);
-
-            // Manually embed and store each segment with chunkIndex
-            for (int i = 0; i < segments.size(); i++) {
-                TextSegment segment = segments.get(i);
-                // Add chunkIndex to metadata for proper ordering
-                segment.metadata().put("chunkIndex", i);
-                embeddingStore.add(embeddingModel.embed(segment).content(), segment);
-            }
-
-            // Return the ACTUAL chunk count
-            return segments.size();
-        }
-    }
-
-    private DocumentParser getParser(DocumentType type) {
-        return switch (type) {
-            case PDF -> new ApachePdfBoxDocumentParser();
-            case TEXT, MARKDOWN -> new TextDocumentParser();
-        };
+        return DocumentResponse.from(document);
     }
 
     private DocumentType determineDocumentType(String fileName) {
@@ -129,6 +93,13 @@ public class DocumentService {
                 .orElseThrow(() -> new ResourceNotFoundException("Document not found: " + documentId));
     }
 
+    @Transactional(readOnly = true)
+    public DocumentStatusResponse getDocumentStatus(UUID documentId) {
+        Document document = documentRepository.findById(documentId)
+                .orElseThrow(() -> new ResourceNotFoundException("Document not found: " + documentId));
+        return DocumentStatusResponse.from(document, ingestionJobService.findProgress(documentId).orElse(null));
+    }
+
     @Transactional
     public void deleteDocument(UUID documentId) {
         if (!documentRepository.existsById(documentId)) {
@@ -142,6 +113,7 @@ public class DocumentService {
         }
 
         documentRepository.deleteById(documentId);
+        eventPublisher.publishEvent(new DocumentSetChangedEvent(documentId));
         log.info("Document {} deleted from database", documentId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.ray.aiapp.service;
+
+import java.util.UUID;
+
+/**
+ * Published when the set of searchable documents changes: a document was uploaded, finished indexing
+ * or was deleted.
+ */
+public record DocumentSetChangedEvent(UUID documentId) {
+}
@@ -0,0 +1,30 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.repository.DocumentSetGenerationRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cluster-wide version of the document set, kept in the database.
+ *
+ * <p>The counter is bumped synchronously on {@link DocumentSetChangedEvent}, i.e. inside the transaction
+ * that changed the documents, so other instances see the new generation exactly when they can see the
+ * change. Caches tag what they derive from documents with the generation it was computed at, and ignore
+ * it once the generation moved on, instead of relying on the local event alone.</p>
+ */
+@Component
+@RequiredArgsConstructor
+public class DocumentSetGeneration {
+
+    private final DocumentSetGenerationRepository repository;
+
+    public long current() {
+        return repository.current();
+    }
+
+    @EventListener
+    public void onDocumentSetChanged(DocumentSetChangedEvent event) {
+        repository.increment();
+    }
+}
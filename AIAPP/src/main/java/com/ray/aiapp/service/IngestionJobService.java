@@ -0,0 +1,206 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.domain.model.Document;
+import com.ray.aiapp.domain.model.Document.DocumentStatus;
+import com.ray.aiapp.domain.model.IngestionJob;
+import com.ray.aiapp.domain.model.IngestionJob.JobStatus;
+import com.ray.aiapp.repository.DocumentRepository;
+import com.ray.aiapp.repository.IngestionJobRepository;
+import com.ray.aiapp.service.dto.IngestionProgress;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Owns the state transitions of ingestion jobs and their documents.
+ * Every method is a short transaction; the slow parse/embed work happens outside of them
+ * in {@link DocumentIngestionWorker}.
+ *
+ * <p>A claim increments the job's {@code attempts}, and the worker passes that number back as a fencing
+ * token: progress, completion and failure only apply while the job is still RUNNING with the same
+ * attempt. Once the reaper re-queues a stalled job and another worker claims it, the first worker's
+ * updates match no row and it gets a {@link JobLostException}. Chunk writes go through
+ * {@link #writeFenced}, which holds the job row lock while they run.</p>
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestionJobService {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final String STALLED_MESSAGE = "Worker stopped reporting progress";
+
+    private final IngestionJobRepository jobRepository;
+    private final DocumentRepository documentRepository;
+    private final LangchainModelProperties properties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Transactional
+    public IngestionJob enqueue(UUID documentId, byte[] content) {
+        IngestionJob job = IngestionJob.builder()
+                .documentId(documentId)
+                .status(JobStatus.QUEUED)
+                .content(content)
+                .build();
+        return jobRepository.save(job);
+    }
+
+    /**
+     * Claim up to {@code limit} queued jobs and mark them RUNNING.
+     */
+    @Transactional
+    public List<IngestionJob> claimJobs(int limit) {
+        List<IngestionJob> jobs = jobRepository.lockQueuedJobs(limit);
+        for (IngestionJob job : jobs) {
+            job.setStatus(JobStatus.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setEmbeddedChunks(0);
+            job.setErrorMessage(null);
+        }
+        return jobRepository.saveAll(jobs);
+    }
+
+    /**
+     * @throws JobLostException if {@code attempt} no longer owns the job
+     */
+    @Transactional
+    public void updateProgress(UUID jobId, int attempt, int totalChunks, int embeddedChunks) {
+        if (jobRepository.updateProgress(jobId, attempt, totalChunks, embeddedChunks, Instant.now()) == 0) {
+            throw new JobLostException(jobId, attempt);
+        }
+    }
+
+    /**
+     * Run {@code write} in this transaction with the job row locked, and only if {@code attempt} still owns
+     * the job. A re-queue cannot commit until the write has, so a superseded attempt never writes after the
+     * next attempt cleared the document's chunks.
+     *
+     * @throws JobLostException if {@code attempt} no longer owns the job; nothing is written
+     */
+    @Transactional
+    public void writeFenced(UUID jobId, int attempt, Runnable write) {
+        if (jobRepository.lockOwnedJob(jobId, attempt).isEmpty()) {
+            throw new JobLostException(jobId, attempt);
+        }
+        write.run();
+    }
+
+    /**
+     * Keep a running job from being reaped.
+     *
+     * @return false if {@code attempt} no longer owns the job
+     */
+    @Transactional
+    public boolean heartbeat(UUID jobId, int attempt) {
+        return jobRepository.heartbeat(jobId, attempt, Instant.now()) > 0;
+    }
+
+    /**
+     * Mark the job and its document as done.
+     *
+     * @return false if the document was deleted while the job was running
+     * @throws JobLostException if {@code attempt} no longer owns the job
+     */
+    @Transactional
+    public boolean complete(UUID jobId, int attempt, int chunkCount) {
+        IngestionJob job = jobRepository.findById(jobId).orElse(null);
+        if (job != null && !owns(job, attempt)) {
+            throw new JobLostException(jobId, attempt);
+        }
+        Optional<Document> document = job == null ? Optional.empty() : documentRepository.findById(job.getDocumentId());
+        if (document.isEmpty()) {
+            return false;
+        }
+
+        job.setStatus(JobStatus.COMPLETED);
+        job.setTotalChunks(chunkCount);
+        job.setEmbeddedChunks(chunkCount);
+        job.setContent(null);
+
+        document.get().setChunkCount(chunkCount);
+        document.get().setStatus(DocumentStatus.INDEXED);
+        eventPublisher.publishEvent(new DocumentSetChangedEvent(document.get().getId()));
+        return true;
+    }
+
+    /**
+     * Record a failed attempt. The job goes back on the queue until maxAttempts is reached,
+     * after which both job and document are marked FAILED. Ignored if {@code attempt} no longer owns the job.
+     */
+    @Transactional
+    public void fail(UUID jobId, int attempt, String errorMessage) {
+        IngestionJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null) {
+            return;
+        }
+        if (!owns(job, attempt)) {
+            log.warn("Ignoring failure of ingestion job {} attempt {}, it was taken over: {}", jobId, attempt, errorMessage);
+            return;
+        }
+
+        job.setErrorMessage(truncate(errorMessage));
+        if (job.getAttempts() < properties.getIngestion().getMaxAttempts()) {
+            job.setStatus(JobStatus.QUEUED);
+            log.warn("Ingestion job {} failed on attempt {}, re-queued: {}", jobId, job.getAttempts(), errorMessage);
+            return;
+        }
+
+        job.setStatus(JobStatus.FAILED);
+        job.setContent(null);
+        documentRepository.findById(job.getDocumentId())
+                .ifPresent(document -> document.setStatus(DocumentStatus.FAILED));
+        log.error("Ingestion job {} failed after {} attempts: {}", jobId, job.getAttempts(), errorMessage);
+    }
+
+    /**
+     * Re-queue stalled RUNNING jobs that have attempts left, and fail those on their last attempt.
+     *
+     * @return the number of re-queued jobs
+     */
+    @Transactional
+    public int requeueStaleJobs() {
+        Instant now = Instant.now();
+        Instant staleBefore = now.minus(properties.getIngestion().getStaleJobTimeout());
+        int maxAttempts = properties.getIngestion().getMaxAttempts();
+        // Documents first: the job update below changes the rows the subquery matches
+        documentRepository.failDocumentsOfStaleJobs(staleBefore, maxAttempts);
+        int failed = jobRepository.failStaleJobs(staleBefore, maxAttempts, STALLED_MESSAGE, now);
+        if (failed > 0) {
+            log.error("Failed {} stalled ingestion jobs that had no attempts left", failed);
+        }
+        return jobRepository.requeueStaleJobs(staleBefore, maxAttempts, now);
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<IngestionProgress> findProgress(UUID documentId) {
+        return jobRepository.findLatestProgress(documentId);
+    }
+
+    private boolean owns(IngestionJob job, int attempt) {
+        return job.getStatus() == JobStatus.RUNNING && job.getAttempts() == attempt;
+    }
+
+    private String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    /**
+     * Thrown to a worker whose attempt was re-queued and claimed again elsewhere.
+     */
+    public static class JobLostException extends RuntimeException {
+
+        public JobLostException(UUID jobId, int attempt) {
+            super("Ingestion job " + jobId + " attempt " + attempt + " no longer owns the job");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.RateLimit;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admits every OpenAI call against the key's requests-per-minute and tokens-per-minute limits.
+ *
+ * <p>Both limits are token buckets that refill continuously and hold at most one minute of capacity.
+ * A call is charged one request plus its estimated tokens up front; the estimate is corrected from the
+ * reported usage once the call returns. Waiting calls are admitted strictly by {@link Priority}, then in
+ * arrival order, and {@link Priority#BACKGROUND} calls only while {@code backgroundHeadroom} of both
+ * buckets stays free for interactive traffic.</p>
+ *
+ * <p>A 429 pauses all admissions for the delay OpenAI asks for ("try again in 1.2s"), or
+ * {@code retryBackoff} when it gives none, and {@link #call} retries the call. Waiters block on a
+ * {@link ReentrantLock} condition, which unmounts virtual threads.</p>
+ *
+ * <p>Queue depth is published as {@code model.calls.queued} tagged by priority, and 429s as
+ * {@code model.calls.rate.limited}.</p>
+ */
+@Slf4j
+@Component
+public class ModelCallScheduler {
+
+    public enum Priority {
+        /** Chat completions a user is waiting for. */
+        CHAT,
+        /** Embeddings of retrieval queries. */
+        QUERY_EMBEDDING,
+        /** Ingestion embeddings and conversation summaries. */
+        BACKGROUND
+    }
+
+    private static final double NANOS_PER_MINUTE = 60e9;
+    /** Longest a queued call sleeps before re-checking whether it reached the head of the queue. */
+    private static final long IDLE_WAIT_NANOS = 100_000_000L;
+    private static final Pattern RETRY_AFTER =
+            Pattern.compile("(?:try again in|retry after)\\s*([0-9]+(?:\\.[0-9]+)?)\\s*(ms|s)?");
+
+    private final RateLimit settings;
+    private final int completionReserve;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private final Map<Priority, AtomicInteger> queued = new EnumMap<>(Priority.class);
+    private final Counter rateLimited;
+
+    private long sequence;
+    private double requests;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private long pausedUntil = refilledAt;
+
+    public ModelCallScheduler(LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.settings = properties.getRateLimit();
+        this.completionReserve = properties.getMaxTokens() != null
+                ? properties.getMaxTokens()
+                : settings.getCompletionTokens();
+        this.requests = settings.getRequestsPerMinute();
+        this.tokens = settings.getTokensPerMinute();
+        for (Priority priority : Priority.values()) {
+            AtomicInteger depth = new AtomicInteger();
+            queued.put(priority, depth);
+            Gauge.builder("model.calls.queued", depth, AtomicInteger::get)
+                    .description("Model calls waiting for rate limit capacity")
+                    .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        this.rateLimited = Counter.builder("model.calls.rate.limited")
+                .description("Model calls rejected by the provider with 429")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Run {@code call} once capacity for one request and {@code estimatedTokens} is available, retrying
+     * after a 429 up to {@code maxRetries} times.
+     */
+    public <T> T call(Priority priority, int estimatedTokens, Supplier<T> call) {
+        if (!settings.isEnabled()) {
+            return call.get();
+        }
+        for (int attempt = 0; ; attempt++) {
+            acquire(priority, estimatedTokens);
+            try {
+                return call.get();
+            } catch (RuntimeException e) {
+                Duration delay = onFailure(e);
+                if (delay == null || attempt >= settings.getMaxRetries()) {
+                    throw e;
+                }
+                log.warn("{} model call rate limited (attempt {}), retrying in {} ms",
+                        priority, attempt + 1, delay.toMillis());
+            }
+        }
+    }
+
+    /**
+     * Block until one request and {@code estimatedTokens} may be sent.
+     */
+    public void acquire(Priority priority, int estimatedTokens) {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        AtomicInteger depth = queued.get(priority);
+        lock.lock();
+        Waiter waiter = new Waiter(priority, sequence++);
+        queue.add(waiter);
+        depth.incrementAndGet();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+                long waitNanos = IDLE_WAIT_NANOS;
+                if (queue.peek() == waiter) {
+                    waitNanos = delay(priority, estimatedTokens, now);
+                    if (waitNanos <= 0) {
+                        requests -= 1;
+                        tokens -= estimatedTokens;
+                        return;
+                    }
+                }
+                changed.awaitNanos(waitNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for model call capacity", e);
+        } finally {
+            queue.remove(waiter);
+            depth.decrementAndGet();
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take one request and {@code estimatedTokens} only if they are free right now and no call is waiting,
+     * for optional calls, such as hedges, that must neither wait nor get ahead of queued calls.
+     *
+     * @return whether the capacity was taken
+     */
+    public boolean tryAcquire(Priority priority, int estimatedTokens) {
+        if (!settings.isEnabled()) {
+            return true;
+        }
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            refill(now);
+            if (!queue.isEmpty() || delay(priority, estimatedTokens, now) > 0) {
+                return false;
+            }
+            requests -= 1;
+            tokens -= estimatedTokens;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return or charge the difference between the admitted estimate and the tokens actually used.
+     */
+    public void settle(int estimatedTokens, TokenUsage usage) {
+        if (!settings.isEnabled() || usage == null || usage.totalTokenCount() == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            tokens = Math.min(settings.getTokensPerMinute(), tokens + estimatedTokens - usage.totalTokenCount());
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pause admissions if {@code error} is a 429.
+     *
+     * @return how long admissions are paused, or null if {@code error} is not a rate limit
+     */
+    public Duration onFailure(Throwable error) {
+        Duration delay = rateLimitDelay(error);
+        if (delay == null) {
+            return null;
+        }
+        rateLimited.increment();
+        if (!settings.isEnabled()) {
+            return delay;
+        }
+        lock.lock();
+        try {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + delay.toNanos());
+        } finally {
+            lock.unlock();
+        }
+        return delay;
+    }
+
+    /**
+     * Estimated tokens of a chat call: the prompt plus the completion it may produce.
+     */
+    public int estimateChat(List<ChatMessage> messages) {
+        return messages.stream().mapToInt(TokenEstimator::estimate).sum() + completionReserve;
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void refill(long now) {
+        double minutes = (now - refilledAt) / NANOS_PER_MINUTE;
+        refilledAt = now;
+        requests = Math.min(settings.getRequestsPerMinute(), requests + minutes * settings.getRequestsPerMinute());
+        tokens = Math.min(settings.getTokensPerMinute(), tokens + minutes * settings.getTokensPerMinute());
+    }
+
+    /**
+     * Must hold the lock.
+     *
+     * @return nanoseconds until a call of {@code priority} and {@code cost} may be admitted, 0 if now
+     */
+    private long delay(Priority priority, int cost, long now) {
+        double headroom = priority == Priority.BACKGROUND ? settings.getBackgroundHeadroom() : 0;
+        long delay = Math.max(0, pausedUntil - now);
+        int requestsPerMinute = settings.getRequestsPerMinute();
+        if (requestsPerMinute > 0) {
+            double needed = Math.min(1 + headroom * requestsPerMinute, requestsPerMinute);
+            delay = Math.max(delay, untilAvailable(requests, needed, requestsPerMinute));
+        }
+        int tokensPerMinute = settings.getTokensPerMinute();
+        if (tokensPerMinute > 0) {
+            // A call larger than the whole bucket waits for a full bucket instead of forever
+            double needed = Math.min(cost + headroom * tokensPerMinute, tokensPerMinute);
+            delay = Math.max(delay, untilAvailable(tokens, needed, tokensPerMinute));
+        }
+        return delay;
+    }
+
+    private long untilAvailable(double available, double needed, int perMinute) {
+        return available >= needed ? 0 : (long) Math.ceil((needed - available) * NANOS_PER_MINUTE / perMinute);
+    }
+
+    /**
+     * Only an HTTP 429 from OpenAI counts, found anywhere in the cause chain; its message is the response
+     * body, which may say how long to wait. An exhausted quota is also a 429 but waiting does not help.
+     */
+    private Duration rateLimitDelay(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (!(cause instanceof OpenAiHttpException httpError) || httpError.code() != 429) {
+                continue;
+            }
+            String lower = cause.getMessage() == null ? "" : cause.getMessage().toLowerCase(Locale.ROOT);
+            if (lower.contains("insufficient_quota")) {
+                return null;
+            }
+            Matcher matcher = RETRY_AFTER.matcher(lower);
+            if (!matcher.find()) {
+                return settings.getRetryBackoff();
+            }
+            double amount = Double.parseDouble(matcher.group(1));
+            long millis = (long) Math.ceil("ms".equals(matcher.group(2)) ? amount : amount * 1_000);
+            return Duration.ofMillis(Math.max(millis, 1));
+        }
+        return null;
+    }
+
+    private record Waiter(Priority priority, long sequence) {
+    }
+}
@@ -0,0 +1,99 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Routing;
+import com.ray.aiapp.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks the model for a chat turn.
+ *
+ * <ol>
+ *   <li>A named assistant profile uses that profile's model and temperature.</li>
+ *   <li>Otherwise, with routing enabled and a {@code routing.fastModel} other than the default model,
+ *       a simple turn goes to the fast model. A turn is simple
+ *       when it is a single line of at most {@code maxSimpleChars} characters without any of the
+ *       {@code complexKeywords}.</li>
+ *   <li>Everything else uses the configured default model.</li>
+ * </ol>
+ *
+ * <p>Decisions are counted in {@code chat.model.routes} tagged with the chosen {@code model} and the
+ * {@code reason} (profile, fast or default).</p>
+ */
+@Slf4j
+@Component
+public class ModelRouter {
+
+    private final AssistantProfileService assistantProfileService;
+    private final ChatModelPool chatModelPool;
+    private final Routing routing;
+    private final boolean routingActive;
+    private final List<String> complexKeywords;
+    private final MeterRegistry meterRegistry;
+    /** Counters by reason and model, registered once each. */
+    private final Map<String, Counter> routeCounters = new ConcurrentHashMap<>();
+
+    public ModelRouter(AssistantProfileService assistantProfileService, ChatModelPool chatModelPool,
+                       LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.assistantProfileService = assistantProfileService;
+        this.chatModelPool = chatModelPool;
+        this.routing = properties.getRouting();
+        String fastModel = routing.getFastModel();
+        this.routingActive = routing.isEnabled() && fastModel != null && !fastModel.isBlank()
+                && !fastModel.equals(chatModelPool.defaultSelection().model());
+        if (routing.isEnabled() && !routingActive) {
+            log.warn("Model routing is enabled but routing.fast-model ({}) is unset or the default model; "
+                    + "every turn uses the default model", fastModel);
+        }
+        this.complexKeywords = routing.getComplexKeywords().stream()
+                .map(keyword -> keyword.toLowerCase(Locale.ROOT))
+                .toList();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param profile optional assistant profile name
+     * @throws ResourceNotFoundException if {@code profile} names no profile
+     */
+    public ModelSelection select(String profile, String userMessage) {
+        if (profile != null && !profile.isBlank()) {
+            ModelSelection selection = assistantProfileService.findModel(profile)
+                    .orElseThrow(() -> new ResourceNotFoundException("Profile not found: " + profile));
+            return count(selection, "profile");
+        }
+
+        ModelSelection defaultSelection = chatModelPool.defaultSelection();
+        if (routingActive && isSimple(userMessage)) {
+            return count(new ModelSelection(routing.getFastModel(), defaultSelection.temperature()), "fast");
+        }
+        return count(defaultSelection, "default");
+    }
+
+    private boolean isSimple(String userMessage) {
+        String message = userMessage.strip();
+        if (message.length() > routing.getMaxSimpleChars() || message.indexOf('\n') >= 0) {
+            return false;
+        }
+        String lower = message.toLowerCase(Locale.ROOT);
+        return complexKeywords.stream().noneMatch(lower::contains);
+    }
+
+    private ModelSelection count(ModelSelection selection, String reason) {
+        routeCounters.computeIfAbsent(reason + '\u0000' + selection.model(),
+                        key -> Counter.builder("chat.model.routes")
+                                .tag("model", selection.model())
+                                .tag("reason", reason)
+                                .description("Chat turns by the model chosen to answer them")
+                                .register(meterRegistry))
+                .increment();
+        log.debug("Routed turn to {} ({})", selection, reason);
+        return selection;
+    }
+}
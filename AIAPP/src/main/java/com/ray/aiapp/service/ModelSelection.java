@@ -0,0 +1,7 @@
+package com.ray.aiapp.service;
+
+/**
+ * The model, and its settings, that answers a chat turn.
+ */
+public record ModelSelection(String model, double temperature) {
+}
@@ -0,0 +1,74 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.memory.ChatMemory;
+import java.util.List;
+
+/**
+ * Chat memory decorator that reports tool calls to a {@link ChatStreamListener}.
+ *
+ * <p>During a streamed turn AiServices executes tools on the model client's thread and records each
+ * tool request and result in memory, so memory writes are the one place all of them pass through.</p>
+ */
+public class ObservableChatMemory implements RestorableChatMemory {
+
+    private final ChatMemory delegate;
+    private volatile ChatStreamListener listener;
+
+    public ObservableChatMemory(ChatMemory delegate) {
+        this.delegate = delegate;
+    }
+
+    public void observe(ChatStreamListener listener) {
+        this.listener = listener;
+    }
+
+    public void stopObserving() {
+        this.listener = null;
+    }
+
+    @Override
+    public Object id() {
+        return delegate.id();
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        delegate.add(message);
+
+        ChatStreamListener current = listener;
+        if (current == null) {
+            return;
+        }
+        if (message instanceof AiMessage aiMessage && aiMessage.hasToolExecutionRequests()) {
+            for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                current.onToolRequested(request);
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            current.onToolResult(result);
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        return delegate.messages();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public List<ChatMessage> snapshot() {
+        return RestorableChatMemory.snapshotOf(delegate);
+    }
+
+    @Override
+    public void restore(List<ChatMessage> snapshot) {
+        RestorableChatMemory.restoreTo(delegate, snapshot);
+    }
+}
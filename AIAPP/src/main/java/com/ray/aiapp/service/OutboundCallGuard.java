@@ -0,0 +1,95 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Execution;
+import com.ray.aiapp.exception.ModelUnavailableException;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps blocking outbound model calls from pinning virtual threads.
+ *
+ * <p>OkHttp, used by the LangChain4j OpenAI and Tavily clients, waits on HTTP/2 streams and its
+ * connection pool inside synchronized blocks. On JDK 21 a virtual thread blocked there holds its
+ * carrier thread, so a few hundred concurrent chats would exhaust the carrier pool. When called from a
+ * virtual thread, {@link #call} runs the work on a bounded platform-thread pool instead; the virtual
+ * thread parks on the result without holding a carrier. On platform threads it runs inline, and without
+ * {@code spring.threads.virtual.enabled} there is no pool at all.</p>
+ *
+ * <p>The pool is as large as {@code pin-guard-threads}, by default {@code server.tomcat.threads.max}, so
+ * switching to virtual threads never allows fewer concurrent model calls than the platform-thread setup.
+ * Idle threads time out. At most {@code pin-guard-queue-capacity} calls wait for a thread; past that a call
+ * fails with {@link ModelUnavailableException}, since virtual request threads put no limit upstream.</p>
+ *
+ * <p>Thread-locals such as {@link RetrievalScope} must be set inside the supplied call.</p>
+ */
+@Component
+public class OutboundCallGuard {
+
+    private final ExecutorService platformPool;
+
+    private static final long IDLE_SECONDS = 60;
+
+    public OutboundCallGuard(LangchainModelProperties properties, ServerProperties serverProperties,
+                             Environment environment) {
+        Execution execution = properties.getExecution();
+        if (!execution.isPinGuardEnabled() || !Threading.VIRTUAL.isActive(environment)) {
+            this.platformPool = null;
+            return;
+        }
+        int threads = execution.getPinGuardThreads() != null
+                ? execution.getPinGuardThreads()
+                : serverProperties.getTomcat().getThreads().getMax();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(execution.getPinGuardQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "outbound-call-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.platformPool = pool;
+    }
+
+    public <T> T call(Supplier<T> call) {
+        if (platformPool == null || !Thread.currentThread().isVirtual()) {
+            return call.get();
+        }
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture.supplyAsync(call, platformPool);
+        } catch (RejectedExecutionException e) {
+            throw new ModelUnavailableException("Too many model calls in progress; try again shortly");
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (platformPool != null) {
+            platformPool.shutdownNow();
+        }
+    }
+}
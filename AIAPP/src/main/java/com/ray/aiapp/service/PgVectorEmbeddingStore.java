@@ -2,7 +2,9 @@ package com.ray.aiapp.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
 import com.ray.aiapp.domain.model.DocumentChunk;
+import com.ray.aiapp.repository.DocumentChunkJdbcRepository;
 import com.ray.aiapp.repository.DocumentChunkRepository;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
@@ -22,6 +24,10 @@ import java.util.UUID;
 /**
  * Custom EmbeddingStore implementation using PostgreSQL with pgvector extension.
  * This replaces the in-memory store with persistent vector storage.
+ *
+ * <p>Every chunk is stored at its position in a document, which is unique (see
+ * V11__unique_chunk_position.sql). Segments must therefore carry {@code documentId} and
+ * {@code chunkIndex} metadata, and embeddings without a segment are rejected.</p>
  */
 @Slf4j
 @Component
@@ -29,50 +35,66 @@ import java.util.UUID;
 public class PgVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
 
     private final DocumentChunkRepository chunkRepository;
+    private final DocumentChunkJdbcRepository chunkJdbcRepository;
     private final ChunkService chunkService;
+    private final LangchainModelProperties properties;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
-    @Transactional
     public String add(Embedding embedding) {
-        String embeddingId = UUID.randomUUID().toString();
-        add(embeddingId, embedding);
-        return embeddingId;
+        throw withoutPosition();
     }
 
     @Override
-    @Transactional
     public void add(String embeddingId, Embedding embedding) {
-        // Create a chunk without text segment (edge case, normally shouldn't happen)
-        DocumentChunk chunk = DocumentChunk.builder()
-                .embeddingId(embeddingId)
-                .documentId("unknown")
-                .text("")
-                .embedding(embedding.vector())
-                .metadata("{}")
-                .chunkIndex(0)  // Default to 0 for edge case
-                .build();
-
-        chunkRepository.save(chunk);
-        log.debug("Added embedding {} to vector store", embeddingId);
+        throw withoutPosition();
     }
 
     @Override
     @Transactional
     public String add(Embedding embedding, TextSegment textSegment) {
-        String embeddingId = UUID.randomUUID().toString();
+        return addAll(List.of(embedding), List.of(textSegment)).get(0);
+    }
 
-        // Extract metadata
-        String documentId = textSegment.metadata().getString("documentId");
-        if (documentId == null) {
-            documentId = "unknown";
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        throw withoutPosition();
+    }
+
+    /**
+     * Bulk write path: all chunks go through JDBC batches instead of one JPA save per chunk.
+     */
+    @Override
+    @Transactional
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        if (embeddings.size() != textSegments.size()) {
+            throw new IllegalArgumentException("Number of embeddings and text segments must be equal");
+        }
+
+        List<String> embeddingIds = new ArrayList<>(embeddings.size());
+        List<DocumentChunk> chunks = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            String embeddingId = UUID.randomUUID().toString();
+            embeddingIds.add(embeddingId);
+            chunks.add(toChunk(embeddingId, embeddings.get(i), textSegments.get(i)));
         }
 
-        // chunkIndex must be provided by caller via metadata
+        chunkJdbcRepository.batchInsert(chunks);
+        log.debug("Added {} text segments to vector store", chunks.size());
+        return embeddingIds;
+    }
+
+    private IllegalArgumentException withoutPosition() {
+        return new IllegalArgumentException(
+                "Chunks need a text segment with documentId and chunkIndex metadata; use addAll(embeddings, segments)");
+    }
+
+    private DocumentChunk toChunk(String embeddingId, Embedding embedding, TextSegment textSegment) {
+        // Position metadata must be provided by the caller; a made-up one would collide with other chunks
+        String documentId = textSegment.metadata().getString("documentId");
         Integer chunkIndex = textSegment.metadata().getInteger("chunkIndex");
-        if (chunkIndex == null) {
-            chunkIndex = 0;
-            log.warn("chunkIndex not provided in metadata, defaulting to 0");
+        if (documentId == null || chunkIndex == null) {
+            throw new IllegalArgumentException("Text segment has no documentId or chunkIndex metadata");
         }
 
         String metadataJson;
@@ -83,7 +105,7 @@ public class PgVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
             metadataJson = "{}";
         }
 
-        DocumentChunk chunk = DocumentChunk.builder()
+        return DocumentChunk.builder()
                 .embeddingId(embeddingId)
                 .documentId(documentId)
                 .text(textSegment.text())
@@ -91,37 +113,8 @@ public class PgVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
                 .metadata(metadataJson)
                 .chunkIndex(chunkIndex)
                 .build();
-
-        chunkRepository.save(chunk);
-        log.debug("Added text segment {} to vector store for document {}", embeddingId, documentId);
-
-        return embeddingId;
-    }
-
-    @Override
-    @Transactional
-    public List<String> addAll(List<Embedding> embeddings) {
-        return embeddings.stream()
-                .map(this::add)
-                .toList();
-    }
-
-    @Override
-    @Transactional
-    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
-        if (embeddings.size() != textSegments.size()) {
-            throw new IllegalArgumentException("Number of embeddings and text segments must be equal");
-        }
-
-        List<String> embeddingIds = new ArrayList<>();
-        for (int i = 0; i < embeddings.size(); i++) {
-            String id = add(embeddings.get(i), textSegments.get(i));
-            embeddingIds.add(id);
-        }
-        return embeddingIds;
     }
 
-
     @Override
     @Transactional(readOnly = true)
     public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
@@ -133,12 +126,12 @@ public class PgVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
         log.info("Searching for {} similar chunks with minScore {}", maxResults, minScore);
 
         // Delegate to ChunkService which handles:
-        // 1. Vector string conversion
-        // 2. Repository query (Interface Projection)
-        // 3. String embedding -> float[] conversion
-        // 4. EmbeddingMatch construction
+        // 1. Repository query (binary vector parameter, filter translated to SQL)
+        // 2. EmbeddingMatch construction
+        // Embeddings are only fetched when configured; callers that need them use ChunkService.withEmbeddings
         List<EmbeddingMatch<TextSegment>> matches = chunkService.searchSimilarChunks(
-                queryEmbedding.vector(), maxResults, minScore);
+                queryEmbedding.vector(), maxResults, minScore, request.filter(),
+                properties.getRag().isIncludeEmbeddings());
 
         return new EmbeddingSearchResult<>(matches);
     }
@@ -0,0 +1,280 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Memory;
+import com.ray.aiapp.repository.ChatMemoryJdbcRepository;
+import com.ray.aiapp.repository.ChatMemoryJdbcRepository.StoredMessages;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Chat memory store backed by the chat_memories table.
+ *
+ * <p>Reads go through a bounded hot-session cache; MessageWindowChatMemory reads the store several
+ * times per turn and only the first read of a session on this instance hits the database.
+ * Writes within a turn are buffered per memory id (later updates replace earlier ones), and
+ * {@link SessionTurnExecutor} brackets every turn with {@link #beginTurn} and {@link #endTurn}: the
+ * session's version is checked against the database before the turn, and its memory is written
+ * synchronously when the turn ends. Updates made outside a turn, such as background summaries, are
+ * written in JDBC batches every {@code flush-interval}, or sooner once {@code flush-batch-size}
+ * sessions are pending.</p>
+ *
+ * <p>Every row carries a version. A hot session remembers the version it was loaded at, is re-checked
+ * against the database at the start of each turn and once it is older than {@code revalidate-interval},
+ * and a write only applies if the row is still at that version. A follow-up turn therefore sees the
+ * previous turn whichever instance served it, so any instance can serve any session behind a plain load
+ * balancer. Only turns of one session running on two instances at the same time conflict: the later
+ * write is dropped rather than overwriting the other turn, and the session is reloaded.</p>
+ */
+@Slf4j
+@Component
+public class PostgresChatMemoryStore implements ChatMemoryStore {
+
+    private final ChatMemoryJdbcRepository repository;
+    private final Memory settings;
+    private final Cache<String, Versioned> hotSessions;
+    /**
+     * Updates not yet written. Every change of a session's pending write, and of its hot entry's
+     * version, happens inside {@code compute} on this map, which serializes them per session.
+     */
+    private final Map<String, Versioned> pendingWrites = new ConcurrentHashMap<>();
+    /** Serializes flushes with deletes so a flush cannot resurrect a deleted memory. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-memory-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PostgresChatMemoryStore(ChatMemoryJdbcRepository repository, LangchainModelProperties properties) {
+        this.repository = repository;
+        this.settings = properties.getMemory();
+        this.hotSessions = Caffeine.newBuilder()
+                .maximumSize(settings.getHotSessions())
+                .expireAfterAccess(settings.getHotSessionTtl())
+                .build();
+
+        long intervalMillis = settings.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        String id = memoryId.toString();
+        Versioned cached = hotSessions.getIfPresent(id);
+        if (cached != null && (pendingWrites.containsKey(id) || revalidate(id, cached, false))) {
+            return cached.messages();
+        }
+        // Loaded outside the cache's compute lock: a database read there would pin a virtual thread,
+        // and putIfAbsent keeps any update that raced with the read
+        Versioned loaded = load(id);
+        Versioned existing = hotSessions.asMap().putIfAbsent(id, loaded);
+        return existing != null ? existing.messages() : loaded.messages();
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        String id = memoryId.toString();
+        List<ChatMessage> snapshot = List.copyOf(messages);
+        long knownVersion = -1;
+        while (true) {
+            long fallbackVersion = knownVersion;
+            Versioned update = pendingWrites.compute(id, (key, pending) -> {
+                Versioned base = pending != null ? pending : hotSessions.getIfPresent(id);
+                if (base == null && fallbackVersion < 0) {
+                    return null;
+                }
+                Versioned updated = new Versioned(snapshot, base != null ? base.version() : fallbackVersion,
+                        System.nanoTime());
+                hotSessions.put(id, updated);
+                return updated;
+            });
+            if (update != null) {
+                break;
+            }
+            // The session was evicted between read and write. Look its version up outside compute: a
+            // database read there would hold the map bin lock and pin a virtual thread
+            knownVersion = repository.findVersion(id);
+        }
+
+        if (pendingWrites.size() >= settings.getFlushBatchSize() && earlyFlushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                earlyFlushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        String id = memoryId.toString();
+        writeLock.lock();
+        try {
+            pendingWrites.remove(id);
+            hotSessions.invalidate(id);
+            repository.delete(id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Check a session against the database before a turn runs, so the turn builds on the latest
+     * messages even if its previous turn ran on another instance.
+     */
+    public void beginTurn(String memoryId) {
+        Versioned cached = hotSessions.getIfPresent(memoryId);
+        if (cached != null && !pendingWrites.containsKey(memoryId)) {
+            revalidate(memoryId, cached, true);
+        }
+    }
+
+    /**
+     * Write a session's pending update now, so the next turn sees it on any instance. A failed write
+     * stays pending for the periodic flush.
+     */
+    public void endTurn(String memoryId) {
+        if (pendingWrites.containsKey(memoryId)) {
+            flush(Set.of(memoryId));
+        }
+    }
+
+    /**
+     * Write all pending updates. An update that arrives while its batch is being written stays
+     * pending for the next flush, rebased on the version just written; a failed batch is retried on
+     * the next flush. An update whose row moved on is dropped together with the hot session.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * @param memoryIds the sessions to write, or null for all pending ones
+     */
+    private void flush(Set<String> memoryIds) {
+        writeLock.lock();
+        try {
+            while (true) {
+                Map<String, Versioned> batch = new LinkedHashMap<>();
+                if (memoryIds != null) {
+                    memoryIds.forEach(id -> {
+                        Versioned pending = pendingWrites.get(id);
+                        if (pending != null) {
+                            batch.put(id, pending);
+                        }
+                    });
+                } else {
+                    for (Map.Entry<String, Versioned> entry : pendingWrites.entrySet()) {
+                        batch.put(entry.getKey(), entry.getValue());
+                        if (batch.size() >= settings.getFlushBatchSize()) {
+                            break;
+                        }
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                Map<String, StoredMessages> rows = new LinkedHashMap<>();
+                batch.forEach((id, update) -> rows.put(id,
+                        new StoredMessages(ChatMessageSerializer.messagesToJson(update.messages()), update.version())));
+                Set<String> conflicts = repository.writeAll(rows);
+
+                batch.forEach((id, written) -> {
+                    if (conflicts.contains(id)) {
+                        discard(id);
+                    } else {
+                        written(id, written);
+                    }
+                });
+                log.debug("Flushed {} chat memories, {} conflicts", batch.size(), conflicts.size());
+            }
+        } catch (Exception e) {
+            log.error("Failed to flush {} chat memories, will retry: {}", pendingWrites.size(), e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @param force check even if {@code cached} was verified within {@code revalidate-interval}
+     * @return whether {@code cached} is still current; a stale entry is dropped
+     */
+    private boolean revalidate(String id, Versioned cached, boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - cached.verifiedAt() < settings.getRevalidateInterval().toNanos()) {
+            return true;
+        }
+        if (repository.findVersion(id) != cached.version()) {
+            log.debug("Chat memory {} changed on another instance, reloading", id);
+            hotSessions.asMap().remove(id, cached);
+            return false;
+        }
+        hotSessions.asMap().replace(id, cached, new Versioned(cached.messages(), cached.version(), now));
+        return true;
+    }
+
+    private void written(String id, Versioned written) {
+        long version = written.version() + 1;
+        pendingWrites.compute(id, (key, pending) -> {
+            hotSessions.asMap().computeIfPresent(id, (k, hot) -> hot.version() == written.version()
+                    ? new Versioned(hot.messages(), version, System.nanoTime())
+                    : hot);
+            if (pending == null || pending == written) {
+                return null;
+            }
+            // Updated while the batch was written: keep it, now based on the row we just wrote
+            return new Versioned(pending.messages(), version, pending.verifiedAt());
+        });
+    }
+
+    private void discard(String id) {
+        pendingWrites.compute(id, (key, pending) -> {
+            hotSessions.invalidate(id);
+            return null;
+        });
+        log.warn("Chat memory {} was updated on another instance; dropped this instance's update", id);
+    }
+
+    private Versioned load(String memoryId) {
+        // An evicted hot session may still have an update waiting to be written
+        Versioned pending = pendingWrites.get(memoryId);
+        if (pending != null) {
+            return pending;
+        }
+        return repository.find(memoryId)
+                .map(stored -> new Versioned(List.copyOf(ChatMessageDeserializer.messagesFromJson(stored.messages())),
+                        stored.version(), System.nanoTime()))
+                .orElseGet(() -> new Versioned(List.of(), 0, System.nanoTime()));
+    }
+
+    /**
+     * Messages of a session, the row version they are based on and when that was last confirmed.
+     */
+    private record Versioned(List<ChatMessage> messages, long version, long verifiedAt) {
+    }
+}
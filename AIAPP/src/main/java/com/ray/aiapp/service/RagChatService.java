@@ -1,13 +1,22 @@
 package com.ray.aiapp.service;
 
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
 import com.ray.aiapp.service.dto.RagChatResponse;
 import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.openai.OpenAiChatModel;
-import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
-import java.util.concurrent.ConcurrentHashMap;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -15,47 +24,113 @@ import org.springframework.stereotype.Service;
 @Service
 public class RagChatService {
 
-    private final OpenAiChatModel chatModel;
-    private final ContentRetriever contentRetriever;
-    private final ConcurrentHashMap<String, RagAssistant> assistants = new ConcurrentHashMap<>();
+    private final ModelRouter modelRouter;
+    private final RetrievalAugmentor retrievalAugmentor;
+    private final ChatMemoryStore chatMemoryStore;
+    private final ChatMemoryFactory chatMemoryFactory;
+    private final ChatStreamRunner chatStreamRunner;
+    private final OutboundCallGuard outboundCallGuard;
+    private final SessionTurnExecutor sessionTurns;
+    private final SemanticResponseCache responseCache;
+    private final SessionSettings sessionSettings;
+    private final SessionRegistry<ChatMemory> memories;
+    private final AssistantPool<RagAssistant> assistants;
 
-    public RagChatService(OpenAiChatModel chatModel, ContentRetriever contentRetriever) {
-        this.chatModel = chatModel;
-        this.contentRetriever = contentRetriever;
+    public RagChatService(ChatModelPool chatModelPool, ModelRouter modelRouter,
+                          RetrievalAugmentor retrievalAugmentor,
+                          ChatMemoryStore chatMemoryStore,
+                          ChatMemoryFactory chatMemoryFactory,
+                          ChatStreamRunner chatStreamRunner,
+                          OutboundCallGuard outboundCallGuard,
+                          SessionTurnExecutor sessionTurns,
+                          SemanticResponseCache responseCache,
+                          LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.modelRouter = modelRouter;
+        this.retrievalAugmentor = retrievalAugmentor;
+        this.chatMemoryStore = chatMemoryStore;
+        this.chatMemoryFactory = chatMemoryFactory;
+        this.chatStreamRunner = chatStreamRunner;
+        this.outboundCallGuard = outboundCallGuard;
+        this.sessionTurns = sessionTurns;
+        this.responseCache = responseCache;
+        this.sessionSettings = properties.getSessions().getRag();
+        this.memories = new SessionRegistry<>("rag", sessionSettings, meterRegistry);
+        this.assistants = new AssistantPool<>(chatModelPool, this::buildAssistant, this::memory,
+                sessionSettings.getMaxSessions());
     }
 
-    public RagChatResponse chat(String sessionId, String userMessage) {
-        RagAssistant assistant = assistants.computeIfAbsent(sessionId, this::createRagAssistant);
-        String response = assistant.chat(userMessage);
+    /**
+     * @param profile optional assistant profile name; without one the {@link ModelRouter} picks the model
+     */
+    public RagChatResponse chat(String sessionId, String userMessage, List<UUID> documentIds, String profile) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        // The same question scoped to other documents, or sent to another model, is a different request
+        String scope = model + ":" + (documentIds == null ? "*" : documentIds.stream().sorted().toList());
+        String requestKey = userMessage + '\u0000' + scope;
+        String cacheScope = "rag:" + scope;
+        String response = sessionTurns.run(memoryId, requestKey,
+                () -> outboundCallGuard.call(() -> responseCache.answer(cacheScope, memory(memoryId), userMessage,
+                        () -> RetrievalScope.with(
+                                RetrievalScope.documentIds(documentIds),
+                                () -> assistants.get(model).chat(memoryId, userMessage)))));
         log.debug("RAG Session {}: user='{}', assistant='{}'", sessionId, userMessage, response);
         return new RagChatResponse(sessionId, response);
     }
 
+    /**
+     * Stream the answer token by token, reporting the retrieved chunks before the first token.
+     */
+    public ChatStream streamChat(String sessionId, String userMessage, List<UUID> documentIds, String profile,
+                                 ChatStreamListener listener) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        return chatStreamRunner.start(memory(memoryId),
+                () -> RetrievalScope.with(
+                        RetrievalScope.documentIds(documentIds),
+                        listener::onRetrieved,
+                        () -> assistants.get(model).chatStream(memoryId, userMessage)),
+                listener);
+    }
+
     public void clearMemory(String sessionId) {
-        assistants.remove(sessionId);
+        memories.remove(memoryId(sessionId));
+        chatMemoryStore.deleteMessages(memoryId(sessionId));
         log.info("Cleared RAG memory for session {}", sessionId);
     }
 
-    private RagAssistant createRagAssistant(String sessionId) {
-        ChatMemory memory = MessageWindowChatMemory.builder()
-                .maxMessages(40)
-                .build();
-
+    private RagAssistant buildAssistant(ChatLanguageModel chatModel,
+                                        StreamingChatLanguageModel streamingChatModel,
+                                        ChatMemoryProvider chatMemoryProvider) {
         return AiServices.builder(RagAssistant.class)
                 .chatLanguageModel(chatModel)
-                .chatMemory(memory)
-                .contentRetriever(contentRetriever)
+                .streamingChatLanguageModel(streamingChatModel)
+                .chatMemoryProvider(chatMemoryProvider)
+                .retrievalAugmentor(retrievalAugmentor)
                 .build();
     }
 
+    private ChatMemory memory(String memoryId) {
+        return memories.getOrCreate(memoryId, id -> chatMemoryFactory.createForRetrieval(id, sessionSettings));
+    }
+
+    private String memoryId(String sessionId) {
+        return "rag:" + sessionId;
+    }
+
     interface RagAssistant {
-        @SystemMessage("""
+        String SYSTEM_PROMPT = """
             You are a helpful assistant named Ray's agent.
             When answering questions, use the provided context from documents when available.
             If you use information from the context, mention that you're referencing the uploaded documents.
             If the context doesn't contain relevant information, answer based on your general knowledge.
             Be concise and friendly.
-            """)
-        String chat(String userMessage);
+            """;
+
+        @SystemMessage(SYSTEM_PROMPT)
+        String chat(@MemoryId String memoryId, @UserMessage String userMessage);
+
+        @SystemMessage(SYSTEM_PROMPT)
+        TokenStream chatStream(@MemoryId String memoryId, @UserMessage String userMessage);
     }
 }
\ No newline at end of file
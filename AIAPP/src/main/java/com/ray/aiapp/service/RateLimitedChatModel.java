@@ -0,0 +1,48 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Sends every call of a chat model through the {@link ModelCallScheduler} at one priority.
+ */
+public class RateLimitedChatModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final ModelCallScheduler scheduler;
+    private final Priority priority;
+
+    public RateLimitedChatModel(ChatLanguageModel delegate, ModelCallScheduler scheduler, Priority priority) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.priority = priority;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return call(messages, () -> delegate.generate(messages));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(messages, () -> delegate.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(messages, () -> delegate.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> call(List<ChatMessage> messages, Supplier<Response<AiMessage>> call) {
+        int estimatedTokens = scheduler.estimateChat(messages);
+        Response<AiMessage> response = scheduler.call(priority, estimatedTokens, call);
+        scheduler.settle(estimatedTokens, response.tokenUsage());
+        return response;
+    }
+}
@@ -0,0 +1,40 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import java.util.List;
+
+/**
+ * Sends every call of an embedding model through the {@link ModelCallScheduler} at one priority.
+ */
+public class RateLimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final ModelCallScheduler scheduler;
+    private final Priority priority;
+
+    public RateLimitedEmbeddingModel(EmbeddingModel delegate, ModelCallScheduler scheduler, Priority priority) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.priority = priority;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        int estimatedTokens = textSegments.stream()
+                .mapToInt(segment -> TokenEstimator.estimate(segment.text()))
+                .sum();
+        Response<List<Embedding>> response = scheduler.call(priority, estimatedTokens,
+                () -> delegate.embedAll(textSegments));
+        scheduler.settle(estimatedTokens, response.tokenUsage());
+        return response;
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+}
@@ -0,0 +1,72 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Admits every call of a streaming chat model through the {@link ModelCallScheduler} at one priority.
+ *
+ * <p>A 429 pauses the scheduler but is passed on to the handler rather than retried: the handler may
+ * already have been given part of the answer.</p>
+ */
+public class RateLimitedStreamingChatModel implements StreamingChatLanguageModel {
+
+    private final StreamingChatLanguageModel delegate;
+    private final ModelCallScheduler scheduler;
+    private final Priority priority;
+
+    public RateLimitedStreamingChatModel(StreamingChatLanguageModel delegate, ModelCallScheduler scheduler,
+                                         Priority priority) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.priority = priority;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        start(messages, handler, wrapped -> delegate.generate(messages, wrapped));
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications,
+                         StreamingResponseHandler<AiMessage> handler) {
+        start(messages, handler, wrapped -> delegate.generate(messages, toolSpecifications, wrapped));
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, ToolSpecification toolSpecification,
+                         StreamingResponseHandler<AiMessage> handler) {
+        start(messages, handler, wrapped -> delegate.generate(messages, toolSpecification, wrapped));
+    }
+
+    private void start(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler,
+                       Consumer<StreamingResponseHandler<AiMessage>> call) {
+        int estimatedTokens = scheduler.estimateChat(messages);
+        scheduler.acquire(priority, estimatedTokens);
+        call.accept(new StreamingResponseHandler<>() {
+            @Override
+            public void onNext(String token) {
+                handler.onNext(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                scheduler.settle(estimatedTokens, response.tokenUsage());
+                handler.onComplete(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                scheduler.onFailure(error);
+                handler.onError(error);
+            }
+        });
+    }
+}
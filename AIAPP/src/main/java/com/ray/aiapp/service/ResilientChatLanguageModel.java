@@ -0,0 +1,398 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties.Hedging;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Resilience;
+import com.ray.aiapp.exception.ModelUnavailableException;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Timeout, circuit breaker and optional hedging around a blocking chat model.
+ *
+ * <ul>
+ *   <li>A call that takes longer than {@code timeout} fails with {@link ModelUnavailableException}; the
+ *       caller stops waiting, the abandoned request finishes in the background.</li>
+ *   <li>Timeouts, 5xx responses and I/O errors are counted over the last {@code circuitWindow} calls.
+ *       Above {@code circuitFailureRate} the circuit opens and calls fail fast for
+ *       {@code circuitOpenDuration}; then {@code circuitHalfOpenCalls} trial calls decide whether it closes
+ *       again. Other errors, such as a 400 for an oversized prompt, a content filter or a 429, say nothing
+ *       about the model's health and leave the circuit alone; a trial call ending that way, or interrupted,
+ *       gives its trial slot back.</li>
+ *   <li>With hedging on, a call still running at the {@code percentile} latency of recent calls gets a
+ *       duplicate request and the first answer wins, within a budget of {@code maxRatio} of all calls.
+ *       The original call is admitted by the {@link ModelCallScheduler} around this model; a hedge is
+ *       charged to it separately and skipped when the rate limits have no capacity free right now.</li>
+ * </ul>
+ *
+ * <p>Requests run on {@code executor} so the caller can stop waiting. If it rejects a request the call
+ * fails with {@link ModelUnavailableException}, and a hedge is skipped; neither counts for the circuit.
+ * Meters are tagged with the model
+ * and temperature: {@code chat.model.circuit.state} (0 closed, 1 open, 2 half open) and
+ * {@code chat.model.hedges{outcome=issued|won}}.</p>
+ */
+@Slf4j
+public class ResilientChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final String modelName;
+    private final Resilience settings;
+    private final Hedging hedging;
+    private final Executor executor;
+    private final ModelCallScheduler scheduler;
+    private final CircuitBreaker circuitBreaker;
+    private final LatencyWindow latencies;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final Counter hedgesIssued;
+    private final Counter hedgesWon;
+
+    public ResilientChatLanguageModel(ChatLanguageModel delegate, ModelSelection selection, Resilience settings,
+                                      Executor executor, ModelCallScheduler scheduler, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.modelName = selection.model();
+        this.settings = settings;
+        this.hedging = settings.getHedging();
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.circuitBreaker = new CircuitBreaker();
+        this.latencies = new LatencyWindow(hedging.getLatencySamples());
+        String temperature = String.valueOf(selection.temperature());
+        Gauge.builder("chat.model.circuit.state", circuitBreaker, breaker -> breaker.state().ordinal())
+                .description("Chat model circuit breaker: 0 closed, 1 open, 2 half open")
+                .tag("model", modelName)
+                .tag("temperature", temperature)
+                .register(meterRegistry);
+        this.hedgesIssued = Counter.builder("chat.model.hedges")
+                .tag("model", modelName)
+                .tag("temperature", temperature)
+                .tag("outcome", "issued")
+                .register(meterRegistry);
+        this.hedgesWon = Counter.builder("chat.model.hedges")
+                .tag("model", modelName)
+                .tag("temperature", temperature)
+                .tag("outcome", "won")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return call(messages, () -> delegate.generate(messages));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(messages, () -> delegate.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(messages, () -> delegate.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> call(List<ChatMessage> messages, Supplier<Response<AiMessage>> call) {
+        long permit = circuitBreaker.tryAcquire();
+        if (permit < 0) {
+            throw new ModelUnavailableException("Chat model " + modelName + " is failing; try again shortly");
+        }
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        long timeoutNanos = settings.getTimeout().toNanos();
+        CompletableFuture<Response<AiMessage>> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        // Every exit reports exactly one outcome, so a trial slot is never left taken
+        Outcome outcome = Outcome.IGNORED;
+        try {
+            try {
+                send(call, winner, running, false);
+            } catch (RejectedExecutionException e) {
+                throw new ModelUnavailableException("Chat model " + modelName + " is busy; try again shortly");
+            }
+            long hedgeDelay = hedgeDelayNanos();
+            if (hedgeDelay > 0 && hedgeDelay < timeoutNanos) {
+                try {
+                    Response<AiMessage> response = winner.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                    outcome = Outcome.SUCCESS;
+                    return succeeded(response, start);
+                } catch (TimeoutException e) {
+                    hedge(messages, call, winner, running);
+                }
+            }
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            Response<AiMessage> response = winner.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            outcome = Outcome.SUCCESS;
+            return succeeded(response, start);
+        } catch (TimeoutException e) {
+            outcome = Outcome.FAILURE;
+            throw new ModelUnavailableException("Chat model " + modelName + " did not answer within "
+                    + settings.getTimeout().toSeconds() + " s");
+        } catch (ExecutionException e) {
+            if (isOutage(e.getCause())) {
+                outcome = Outcome.FAILURE;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the chat model", e);
+        } finally {
+            circuitBreaker.onOutcome(permit, outcome);
+        }
+    }
+
+    /**
+     * @return whether {@code error} means the model is unhealthy: a 5xx response or an I/O error
+     */
+    static boolean isOutage(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OpenAiHttpException httpError) {
+                return httpError.code() >= 500;
+            }
+            if (cause instanceof IOException || cause instanceof UncheckedIOException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run one request; the first success completes {@code winner}, and the last failure fails it.
+     *
+     * @throws RejectedExecutionException if no call thread is free
+     */
+    private void send(Supplier<Response<AiMessage>> call, CompletableFuture<Response<AiMessage>> winner,
+                      AtomicInteger running, boolean hedge) {
+        CompletableFuture.supplyAsync(call, executor).whenComplete((response, error) -> {
+            if (error == null) {
+                if (winner.complete(response) && hedge) {
+                    hedgesWon.increment();
+                }
+            } else if (running.decrementAndGet() == 0) {
+                winner.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error);
+            }
+        });
+    }
+
+    private void hedge(List<ChatMessage> messages, Supplier<Response<AiMessage>> call,
+                       CompletableFuture<Response<AiMessage>> winner, AtomicInteger running) {
+        if (winner.isDone() || hedges.get() >= calls.get() * hedging.getMaxRatio()) {
+            return;
+        }
+        // A hedge is one more request against the key's limits; skip it rather than wait or queue for them
+        if (!scheduler.tryAcquire(Priority.CHAT, scheduler.estimateChat(messages))) {
+            return;
+        }
+        running.incrementAndGet();
+        try {
+            send(call, winner, running, true);
+        } catch (RejectedExecutionException e) {
+            // No thread to spare; the first request is still running, so just skip the hedge
+            running.decrementAndGet();
+            return;
+        }
+        hedges.incrementAndGet();
+        hedgesIssued.increment();
+    }
+
+    private Response<AiMessage> succeeded(Response<AiMessage> response, long start) {
+        latencies.record(System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * @return when to send a hedge, or 0 for none
+     */
+    private long hedgeDelayNanos() {
+        if (!hedging.isEnabled()) {
+            return 0;
+        }
+        long percentile = latencies.percentile(hedging.getPercentile());
+        return percentile == 0 ? 0 : Math.max(percentile, hedging.getMinDelay().toNanos());
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private enum Outcome {
+        SUCCESS, FAILURE, IGNORED
+    }
+
+    /**
+     * Permits are the breaker's epoch at admission; the epoch advances on every state change, so a call
+     * admitted before the circuit opened cannot count as, or give back, a trial of the next half-open phase.
+     */
+    private final class CircuitBreaker {
+
+        private final boolean[] failed = new boolean[Math.max(settings.getCircuitWindow(), 1)];
+        private int recorded;
+        private int next;
+        private int failures;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int trialCalls;
+        private int trialSuccesses;
+        private long epoch;
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * @return a permit to pass to {@link #onOutcome}, or -1 if the call must fail fast
+         */
+        synchronized long tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < settings.getCircuitOpenDuration().toNanos()) {
+                    return -1;
+                }
+                state = State.HALF_OPEN;
+                epoch++;
+                trialCalls = 0;
+                trialSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialCalls >= settings.getCircuitHalfOpenCalls()) {
+                    return -1;
+                }
+                trialCalls++;
+            }
+            return epoch;
+        }
+
+        synchronized void onOutcome(long permit, Outcome outcome) {
+            if (state == State.HALF_OPEN) {
+                if (permit != epoch) {
+                    return;
+                }
+                switch (outcome) {
+                    case SUCCESS -> {
+                        if (++trialSuccesses >= settings.getCircuitHalfOpenCalls()) {
+                            log.info("Chat model {} recovered, closing circuit", modelName);
+                            state = State.CLOSED;
+                            epoch++;
+                            reset();
+                        }
+                    }
+                    case FAILURE -> open();
+                    case IGNORED -> trialCalls--;
+                }
+                return;
+            }
+            if (state == State.OPEN || outcome == Outcome.IGNORED) {
+                return;
+            }
+            record(outcome == Outcome.FAILURE);
+            if (recorded >= settings.getCircuitMinimumCalls()
+                    && failures >= settings.getCircuitFailureRate() * recorded) {
+                open();
+            }
+        }
+
+        private void open() {
+            log.warn("Chat model {} is failing, opening circuit for {} s", modelName,
+                    settings.getCircuitOpenDuration().toSeconds());
+            state = State.OPEN;
+            epoch++;
+            openedAt = System.nanoTime();
+            reset();
+        }
+
+        private void record(boolean failure) {
+            if (recorded == failed.length) {
+                if (failed[next]) {
+                    failures--;
+                }
+            } else {
+                recorded++;
+            }
+            failed[next] = failure;
+            if (failure) {
+                failures++;
+            }
+            next = (next + 1) % failed.length;
+        }
+
+        private void reset() {
+            Arrays.fill(failed, false);
+            recorded = 0;
+            next = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Latencies of the most recent successful calls; the percentile is recomputed every
+     * {@code RECOMPUTE_EVERY} samples rather than sorted on every call.
+     */
+    private static final class LatencyWindow {
+
+        private static final int RECOMPUTE_EVERY = 16;
+
+        private final long[] samples;
+        private int recorded;
+        private int next;
+        private int sinceRecompute;
+        private double cachedPercentile = -1;
+        private long cachedValue;
+
+        LatencyWindow(int size) {
+            this.samples = new long[Math.max(size, 1)];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            recorded = Math.min(recorded + 1, samples.length);
+            sinceRecompute++;
+        }
+
+        /**
+         * @return the latency at {@code percentile} in nanoseconds, or 0 until the window is full
+         */
+        synchronized long percentile(double percentile) {
+            if (recorded < samples.length) {
+                return 0;
+            }
+            if (percentile != cachedPercentile || sinceRecompute >= RECOMPUTE_EVERY) {
+                long[] sorted = samples.clone();
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(percentile * sorted.length) - 1;
+                cachedValue = sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+                cachedPercentile = percentile;
+                sinceRecompute = 0;
+            }
+            return cachedValue;
+        }
+    }
+}
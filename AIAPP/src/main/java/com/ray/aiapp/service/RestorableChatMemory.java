@@ -0,0 +1,41 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.memory.ChatMemory;
+import java.util.List;
+
+/**
+ * Chat memory that can be put back to an earlier state, including whatever it keeps besides the
+ * {@link dev.langchain4j.store.memory.chat.ChatMemoryStore}, e.g. a turn's pending retrieved context.
+ */
+public interface RestorableChatMemory extends ChatMemory {
+
+    /**
+     * @return the stored messages, as they would be restored
+     */
+    List<ChatMessage> snapshot();
+
+    /**
+     * Replace the memory's messages with an earlier {@link #snapshot()}.
+     */
+    void restore(List<ChatMessage> snapshot);
+
+    static List<ChatMessage> snapshotOf(ChatMemory memory) {
+        return memory instanceof RestorableChatMemory restorable
+                ? restorable.snapshot()
+                : List.copyOf(memory.messages());
+    }
+
+    /**
+     * Restore {@code memory} through its own API: a memory that is not restorable is cleared and
+     * refilled message by message.
+     */
+    static void restoreTo(ChatMemory memory, List<ChatMessage> snapshot) {
+        if (memory instanceof RestorableChatMemory restorable) {
+            restorable.restore(snapshot);
+            return;
+        }
+        memory.clear();
+        snapshot.forEach(memory::add);
+    }
+}
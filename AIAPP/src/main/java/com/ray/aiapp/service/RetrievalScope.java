@@ -0,0 +1,77 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * Carries a per-call retrieval filter, and optionally a listener for the retrieved content,
+ * from the chat service to {@link DocumentContentRetriever}.
+ *
+ * <p>AiServices invokes the content retriever on the caller's thread, also for streaming methods,
+ * so a thread-local is enough to scope one chat turn without building a separate assistant per filter.</p>
+ */
+public final class RetrievalScope {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private RetrievalScope() {
+    }
+
+    /**
+     * Run {@code action} with {@code filter} applied to every retrieval it triggers.
+     * A null filter leaves retrieval unscoped.
+     */
+    public static <T> T with(Filter filter, Supplier<T> action) {
+        return with(filter, contents -> { }, action);
+    }
+
+    /**
+     * As {@link #with(Filter, Supplier)}, also passing every retrieval result to {@code listener}.
+     */
+    public static <T> T with(Filter filter, Consumer<List<Content>> listener, Supplier<T> action) {
+        Scope previous = CURRENT.get();
+        CURRENT.set(new Scope(filter, listener));
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static Filter currentFilter() {
+        Scope scope = CURRENT.get();
+        return scope == null ? null : scope.filter();
+    }
+
+    static void notifyRetrieved(List<Content> contents) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.listener().accept(contents);
+        }
+    }
+
+    /**
+     * Filter restricting retrieval to the given documents, or null when no documents are given.
+     */
+    public static Filter documentIds(Collection<UUID> documentIds) {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return null;
+        }
+        List<String> ids = documentIds.stream().map(UUID::toString).toList();
+        return metadataKey("documentId").isIn(ids);
+    }
+
+    private record Scope(Filter filter, Consumer<List<Content>> listener) {
+    }
+}
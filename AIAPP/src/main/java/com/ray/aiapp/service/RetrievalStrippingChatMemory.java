@@ -0,0 +1,131 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.service.SourceTaggedContentInjector.Stripped;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat memory decorator that keeps retrieved context out of the stored conversation.
+ *
+ * <p>AiServices adds the augmented user message to memory and builds the request from memory, so the
+ * augmented message is kept here, in this object only, for the current turn: {@link #messages()} returns
+ * it in place of the stored one until the turn's final answer arrives. What gets stored is the user's own
+ * text, optionally followed by compact source references, so later turns do not resend old chunks.
+ * Results of {@link DocumentSearchTool} are treated the same way: the model sees the chunks while it
+ * answers, memory keeps a note of the files they came from. Turns of one session never overlap (see
+ * {@link SessionTurnExecutor}), so only the current turn's replacements are kept.</p>
+ */
+public class RetrievalStrippingChatMemory implements RestorableChatMemory {
+
+    private static final String OMITTED_SEARCH_RESULTS = "Document search results are not kept in the conversation.";
+
+    private final ChatMemory delegate;
+    private final boolean keepSourceReferences;
+    private volatile List<Replacement> pending = List.of();
+
+    public RetrievalStrippingChatMemory(ChatMemory delegate, boolean keepSourceReferences) {
+        this.delegate = delegate;
+        this.keepSourceReferences = keepSourceReferences;
+    }
+
+    @Override
+    public Object id() {
+        return delegate.id();
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        if (message instanceof UserMessage userMessage) {
+            Stripped stripped = SourceTaggedContentInjector.strip(userMessage);
+            if (stripped == null) {
+                pending = List.of();
+                delegate.add(message);
+                return;
+            }
+            UserMessage stored = toStored(userMessage, stripped);
+            pending = List.of(new Replacement(stored, userMessage));
+            delegate.add(stored);
+            return;
+        }
+
+        if (message instanceof ToolExecutionResultMessage result
+                && DocumentSearchTool.TOOL_NAME.equals(result.toolName())) {
+            List<String> sources = DocumentSearchTool.sources(result.text());
+            if (!sources.isEmpty()) {
+                ToolExecutionResultMessage stored = toStored(result, sources);
+                List<Replacement> replacements = new ArrayList<>(pending);
+                replacements.add(new Replacement(stored, result));
+                pending = List.copyOf(replacements);
+                delegate.add(stored);
+                return;
+            }
+        }
+
+        delegate.add(message);
+        if (message instanceof AiMessage aiMessage && !aiMessage.hasToolExecutionRequests()) {
+            // Final answer: the next request must not carry this turn's context
+            pending = List.of();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> messages = delegate.messages();
+        List<Replacement> current = pending;
+        if (current.isEmpty()) {
+            return messages;
+        }
+
+        List<ChatMessage> withContext = new ArrayList<>(messages);
+        for (Replacement replacement : current) {
+            int index = withContext.lastIndexOf(replacement.stored());
+            if (index >= 0) {
+                withContext.set(index, replacement.original());
+            }
+        }
+        return withContext;
+    }
+
+    @Override
+    public void clear() {
+        pending = List.of();
+        delegate.clear();
+    }
+
+    @Override
+    public List<ChatMessage> snapshot() {
+        return RestorableChatMemory.snapshotOf(delegate);
+    }
+
+    @Override
+    public void restore(List<ChatMessage> snapshot) {
+        pending = List.of();
+        RestorableChatMemory.restoreTo(delegate, snapshot);
+    }
+
+    private UserMessage toStored(UserMessage original, Stripped stripped) {
+        String text = stripped.userText();
+        if (keepSourceReferences && !stripped.sources().isEmpty()) {
+            text += "\n\n(Sources: " + String.join(", ", stripped.sources()) + ")";
+        }
+        return original.name() == null ? UserMessage.from(text) : UserMessage.from(original.name(), text);
+    }
+
+    private ToolExecutionResultMessage toStored(ToolExecutionResultMessage original, List<String> sources) {
+        String text = keepSourceReferences
+                ? OMITTED_SEARCH_RESULTS + " (Sources: " + String.join(", ", sources) + ")"
+                : OMITTED_SEARCH_RESULTS;
+        return ToolExecutionResultMessage.from(original.id(), original.toolName(), text);
+    }
+
+    /**
+     * A message as stored, and the message with retrieved context the model sees during the turn.
+     */
+    private record Replacement(ChatMessage stored, ChatMessage original) {
+    }
+}
@@ -1,19 +1,25 @@
 package com.ray.aiapp.service;
 
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
 import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Chat service with web search capability.
@@ -24,61 +30,116 @@ import java.util.concurrent.ConcurrentHashMap;
 @ConditionalOnProperty(prefix = "aiapp.langchain.web-search", name = "enabled", havingValue = "true")
 public class SearchChatService {
 
-    private final OpenAiChatModel chatModel;
+    private final ModelRouter modelRouter;
     private final WebSearchTool webSearchTool;
-    private final ConcurrentHashMap<String, SearchChatAssistant> assistants = new ConcurrentHashMap<>();
+    private final ChatMemoryStore chatMemoryStore;
+    private final ChatMemoryFactory chatMemoryFactory;
+    private final ChatStreamRunner chatStreamRunner;
+    private final OutboundCallGuard outboundCallGuard;
+    private final SessionTurnExecutor sessionTurns;
+    private final SessionSettings sessionSettings;
+    private final SessionRegistry<ChatMemory> memories;
+    private final AssistantPool<SearchChatAssistant> assistants;
 
-    public SearchChatService(OpenAiChatModel chatModel, WebSearchTool webSearchTool) {
-        this.chatModel = chatModel;
+    public SearchChatService(ChatModelPool chatModelPool, ModelRouter modelRouter,
+                             WebSearchTool webSearchTool,
+                             ChatMemoryStore chatMemoryStore,
+                             ChatMemoryFactory chatMemoryFactory,
+                             ChatStreamRunner chatStreamRunner,
+                             OutboundCallGuard outboundCallGuard,
+                             SessionTurnExecutor sessionTurns,
+                             LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.modelRouter = modelRouter;
         this.webSearchTool = webSearchTool;
+        this.chatMemoryStore = chatMemoryStore;
+        this.chatMemoryFactory = chatMemoryFactory;
+        this.chatStreamRunner = chatStreamRunner;
+        this.outboundCallGuard = outboundCallGuard;
+        this.sessionTurns = sessionTurns;
+        this.sessionSettings = properties.getSessions().getSearch();
+        this.memories = new SessionRegistry<>("search", sessionSettings, meterRegistry);
+        this.assistants = new AssistantPool<>(chatModelPool, this::buildAssistant, this::memory,
+                sessionSettings.getMaxSessions());
         log.info("SearchChatService initialized with web search capability");
     }
 
-    public String chat(String sessionId, String userMessage) {
-        SearchChatAssistant assistant = assistants.computeIfAbsent(sessionId, this::createAssistant);
+    /**
+     * @param profile optional assistant profile name; without one the {@link ModelRouter} picks the model
+     */
+    public String chat(String sessionId, String userMessage, String profile) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
 
         // Get current date and pass it as a parameter to the assistant
         String currentDate = LocalDate.now().format(DateTimeFormatter.ofPattern("EEEE, MMMM d, yyyy"));
 
-        // Call assistant with TWO parameters: currentDate and userMessage
+        // The @MemoryId selects the session's memory in the shared assistant
         // The @V("current_date") binds to {{current_date}} in @SystemMessage
         // The @UserMessage binds to the actual user's message
-        String response = assistant.chat(currentDate, userMessage);
+        String response = sessionTurns.run(memoryId, userMessage + '\u0000' + model,
+                () -> outboundCallGuard.call(() -> assistants.get(model).chat(memoryId, currentDate, userMessage)));
 
         log.debug("Session {}: user='{}', assistant='{}'", sessionId, userMessage, response);
         return response;
     }
 
+    /**
+     * Stream the answer token by token; web searches run between model calls as in {@link #chat}.
+     */
+    public ChatStream streamChat(String sessionId, String userMessage, String profile, ChatStreamListener listener) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        String currentDate = LocalDate.now().format(DateTimeFormatter.ofPattern("EEEE, MMMM d, yyyy"));
+        return chatStreamRunner.start(memory(memoryId),
+                () -> assistants.get(model).chatStream(memoryId, currentDate, userMessage), listener);
+    }
+
     public void clearMemory(String sessionId) {
-        assistants.remove(sessionId);
+        memories.remove(memoryId(sessionId));
+        chatMemoryStore.deleteMessages(memoryId(sessionId));
         log.info("Cleared memory for search chat session {}", sessionId);
     }
 
-    private SearchChatAssistant createAssistant(String sessionId) {
-        ChatMemory memory = MessageWindowChatMemory.builder()
-                .maxMessages(40)
-                .build();
-
+    private SearchChatAssistant buildAssistant(ChatLanguageModel chatModel,
+                                               StreamingChatLanguageModel streamingChatModel,
+                                               ChatMemoryProvider chatMemoryProvider) {
         return AiServices.builder(SearchChatAssistant.class)
                 .chatLanguageModel(chatModel)
-                .chatMemory(memory)
+                .streamingChatLanguageModel(streamingChatModel)
+                .chatMemoryProvider(chatMemoryProvider)
                 .tools(webSearchTool)
                 .build();
     }
 
+    private ChatMemory memory(String memoryId) {
+        return memories.getOrCreate(memoryId, id -> chatMemoryFactory.create(id, sessionSettings));
+    }
+
+    private String memoryId(String sessionId) {
+        return "search:" + sessionId;
+    }
+
     interface SearchChatAssistant {
-        @SystemMessage({
-                "Current date: {{current_date}}",
-                "",
-                "You are a helpful AI assistant with access to real-time web search. ",
-                "When users ask about 'today', 'now', or current events, use the current date provided above. ",
-                "When users ask about current events, recent information, weather, ",
-                "stock prices, or anything that requires up-to-date data, ",
-                "use the web search tool to find accurate information. ",
-                "Always cite your sources when using web search results. ",
-                "Your name is Ray's Search Agent."
-        })
-        String chat(@V("current_date") String currentDate,
+        String SYSTEM_PROMPT = """
+                Current date: {{current_date}}
+
+                You are a helpful AI assistant with access to real-time web search.
+                When users ask about 'today', 'now', or current events, use the current date provided above.
+                When users ask about current events, recent information, weather,
+                stock prices, or anything that requires up-to-date data,
+                use the web search tool to find accurate information.
+                Always cite your sources when using web search results.
+                Your name is Ray's Search Agent.
+                """;
+
+        @SystemMessage(SYSTEM_PROMPT)
+        String chat(@MemoryId String memoryId,
+                    @V("current_date") String currentDate,
                     @UserMessage String userMessage);
+
+        @SystemMessage(SYSTEM_PROMPT)
+        TokenStream chatStream(@MemoryId String memoryId,
+                               @V("current_date") String currentDate,
+                               @UserMessage String userMessage);
     }
 }
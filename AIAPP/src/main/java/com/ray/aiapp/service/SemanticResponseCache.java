@@ -0,0 +1,156 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.ResponseCache;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Answers first-turn questions from earlier answers to a semantically equal question.
+ *
+ * <p>Only a session's first question is looked up or stored: later answers depend on the conversation.
+ * Answers that used a tool are not stored, since tool results (e.g. web searches) go stale. A question
+ * matches when its embedding's cosine similarity to a cached question in the same scope reaches
+ * {@code similarityThreshold}; the scope carries whatever else the answer depends on, such as the
+ * document selection.</p>
+ *
+ * <p>Every answer is tagged with the {@link DocumentSetGeneration} it was computed at, read from the
+ * database, and only served while that is still the current generation, so a document change on any
+ * instance retires it; answers computed while documents changed are not stored. A local
+ * {@link DocumentSetChangedEvent} additionally empties the cache right away.</p>
+ *
+ * <p>A hit records the cached exchange in memory as the model call would have, including the system
+ * message the original answer was generated with.</p>
+ *
+ * <p>Lookups are counted in {@code chat.response.cache} tagged {@code result=hit|miss}.</p>
+ */
+@Slf4j
+@Component
+public class SemanticResponseCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final ResponseCache settings;
+    private final DocumentSetGeneration documentSets;
+    private final Cache<String, CachedAnswer> answers;
+    private final Counter hits;
+    private final Counter misses;
+
+    public SemanticResponseCache(EmbeddingModel embeddingModel, DocumentSetGeneration documentSets,
+                                 LangchainModelProperties properties, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.documentSets = documentSets;
+        this.settings = properties.getRag().getResponseCache();
+        this.answers = Caffeine.newBuilder()
+                .maximumSize(settings.getMaxEntries())
+                .expireAfterWrite(settings.getTtl())
+                .build();
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+    }
+
+    /**
+     * Answer {@code question} from the cache if possible, otherwise with {@code model}.
+     * On a hit the question and cached answer are added to {@code memory}, as the model call would have.
+     *
+     * @param scope everything besides the question that the answer depends on
+     * @param memory the session's memory, used to tell first turns and to record hits
+     */
+    public String answer(String scope, ChatMemory memory, String question, Supplier<String> model) {
+        if (!settings.isEnabled() || !isFirstTurn(memory.messages())) {
+            return model.get();
+        }
+
+        long generationBefore = documentSets.current();
+        Embedding embedding = embeddingModel.embed(question).content();
+        CachedAnswer cached = findSimilar(scope, embedding, generationBefore);
+        if (cached != null) {
+            hits.increment();
+            log.debug("Response cache hit in scope {}", scope);
+            if (cached.systemMessage() != null) {
+                memory.add(cached.systemMessage());
+            }
+            memory.add(UserMessage.from(question));
+            memory.add(AiMessage.from(cached.answer()));
+            return cached.answer();
+        }
+
+        misses.increment();
+        String answer = model.get();
+        if (answer == null) {
+            return null;
+        }
+        List<ChatMessage> messages = memory.messages();
+        if (!usedTools(messages) && documentSets.current() == generationBefore) {
+            answers.put(scope + '\u0000' + CachingEmbeddingModel.normalize(question),
+                    new CachedAnswer(scope, embedding, systemMessage(messages), answer, generationBefore));
+        }
+        return answer;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentSetChanged(DocumentSetChangedEvent event) {
+        answers.invalidateAll();
+        log.debug("Response cache cleared after change to document {}", event.documentId());
+    }
+
+    private CachedAnswer findSimilar(String scope, Embedding embedding, long currentGeneration) {
+        CachedAnswer best = null;
+        double bestScore = settings.getSimilarityThreshold();
+        // A linear scan: the cache is small, so this costs far less than the model call it saves
+        for (CachedAnswer candidate : answers.asMap().values()) {
+            if (candidate.generation() != currentGeneration || !candidate.scope().equals(scope)) {
+                continue;
+            }
+            double score = CosineSimilarity.between(embedding, candidate.embedding());
+            if (score >= bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private boolean isFirstTurn(List<ChatMessage> messages) {
+        return messages.stream().noneMatch(UserMessage.class::isInstance);
+    }
+
+    private SystemMessage systemMessage(List<ChatMessage> messages) {
+        return messages.stream()
+                .filter(SystemMessage.class::isInstance)
+                .map(SystemMessage.class::cast)
+                .filter(message -> !message.text().startsWith(SummarizingChatMemory.SUMMARY_PREFIX))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private boolean usedTools(List<ChatMessage> messages) {
+        return messages.stream().anyMatch(ToolExecutionResultMessage.class::isInstance);
+    }
+
+    private Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.response.cache")
+                .tag("result", result)
+                .description("First-turn chat questions looked up in the semantic response cache")
+                .register(meterRegistry);
+    }
+
+    private record CachedAnswer(String scope, Embedding embedding, SystemMessage systemMessage, String answer,
+                                long generation) {
+    }
+}
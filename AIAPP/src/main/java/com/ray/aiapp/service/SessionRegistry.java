@@ -0,0 +1,76 @@
+package com.ray.aiapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded store of per-session chat state.
+ *
+ * <p>Sessions are evicted when idle for longer than {@code idleTimeout} or, past {@code maxSessions},
+ * by Caffeine's W-TinyLFU policy, so a long-running instance holds a bounded number of chat
+ * memories. Idle sessions are expired by a background scheduler even when there is no traffic.</p>
+ *
+ * <p>Meters, tagged {@code service=<name>}: gauge {@code chat.sessions.active} and counter
+ * {@code chat.sessions.evictions} (tagged with the removal cause).</p>
+ */
+@Slf4j
+public class SessionRegistry<T> {
+
+    private final String name;
+    private final Cache<String, T> sessions;
+
+    public SessionRegistry(String name, SessionSettings settings, MeterRegistry meterRegistry) {
+        this.name = name;
+
+        Counter expired = evictionCounter(meterRegistry, RemovalCause.EXPIRED);
+        Counter size = evictionCounter(meterRegistry, RemovalCause.SIZE);
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(settings.getMaxSessions())
+                .expireAfterAccess(settings.getIdleTimeout())
+                .scheduler(Scheduler.systemScheduler())
+                .removalListener((String sessionId, T session, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expired.increment();
+                    } else if (cause == RemovalCause.SIZE) {
+                        size.increment();
+                    }
+                    if (cause.wasEvicted()) {
+                        log.debug("Evicted {} session {} ({})", name, sessionId, cause);
+                    }
+                })
+                .build();
+
+        Gauge.builder("chat.sessions.active", sessions, Cache::estimatedSize)
+                .tag("service", name)
+                .description("Chat sessions currently held in memory")
+                .register(meterRegistry);
+    }
+
+    public T getOrCreate(String sessionId, Function<String, T> factory) {
+        return sessions.get(sessionId, factory);
+    }
+
+    public void remove(String sessionId) {
+        sessions.invalidate(sessionId);
+    }
+
+    public long size() {
+        return sessions.estimatedSize();
+    }
+
+    private Counter evictionCounter(MeterRegistry meterRegistry, RemovalCause cause) {
+        return Counter.builder("chat.sessions.evictions")
+                .tag("service", name)
+                .tag("cause", cause.name().toLowerCase())
+                .description("Chat sessions evicted from memory")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,178 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.exception.SessionBusyException;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-session mailbox: turns of one session run one after another, in arrival order, while turns of
+ * different sessions run in parallel. Nothing is queued per session beyond one future per waiting turn.
+ *
+ * <p>A message that is identical (after whitespace normalization) to a turn of the same session that is
+ * still queued or running is not run again: the caller receives that turn's result. This absorbs
+ * double-clicks and client retries without a second model call or a duplicated exchange in memory.</p>
+ *
+ * <p>Waiting is bounded by {@code turnWaitTimeout}, both for a turn behind a running one and for a duplicate
+ * waiting for its twin's result. A turn that times out is rejected with {@link SessionBusyException} rather
+ * than run alongside the previous one; its place in the session's queue is released only when the turn it
+ * waited for finishes, so later turns keep their order.</p>
+ *
+ * <p>With a {@link PostgresChatMemoryStore}, a turn's memory is checked against the database when the turn
+ * takes its slot and written before the slot is released, so the next turn sees it on any instance.</p>
+ */
+@Slf4j
+@Component
+public class SessionTurnExecutor {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Duration turnWaitTimeout;
+    private final Counter coalesced;
+    private final PostgresChatMemoryStore memoryStore;
+
+    public SessionTurnExecutor(LangchainModelProperties properties, MeterRegistry meterRegistry,
+                               ChatMemoryStore chatMemoryStore) {
+        this.memoryStore = chatMemoryStore instanceof PostgresChatMemoryStore postgresStore ? postgresStore : null;
+        this.turnWaitTimeout = properties.getSessions().getTurnWaitTimeout();
+        this.coalesced = Counter.builder("chat.turns.coalesced")
+                .description("Chat requests answered with the result of an identical in-flight request")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Run {@code turn} after the session's earlier turns, or join an identical in-flight turn.
+     *
+     * @param sessionKey the session's memory id
+     * @param requestKey what makes two requests identical, normally the user message
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T run(String sessionKey, String requestKey, Supplier<T> turn) {
+        String dedupKey = sessionKey + '\u0000' + CachingEmbeddingModel.normalize(requestKey);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(dedupKey, result);
+        if (existing != null) {
+            coalesced.increment();
+            log.debug("Coalesced duplicate request for session {}", sessionKey);
+            return (T) awaitDuplicate(sessionKey, existing);
+        }
+
+        Turn slot = null;
+        try {
+            slot = enter(sessionKey);
+            T value = turn.get();
+            result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(dedupKey, result);
+            if (slot != null) {
+                slot.release();
+            }
+        }
+    }
+
+    /**
+     * Wait until the session's earlier turns are done and take the session's slot.
+     * The caller must {@link Turn#release()} it exactly once, e.g. when a streamed answer ends.
+     *
+     * @throws SessionBusyException if the previous turn is still running after {@code turnWaitTimeout}
+     */
+    public Turn enter(String sessionKey) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = tails.put(sessionKey, done);
+        Turn turn = new Turn(sessionKey, done);
+        if (previous == null) {
+            return begin(turn);
+        }
+
+        boolean entered = false;
+        try {
+            previous.get(turnWaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            entered = true;
+            return begin(turn);
+        } catch (TimeoutException e) {
+            log.warn("Previous turn of session {} still running after {}, rejecting", sessionKey, turnWaitTimeout);
+            throw new SessionBusyException("The previous message of this session is still being answered");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the previous turn", e);
+        } catch (ExecutionException e) {
+            // Slots are only ever completed normally
+            entered = true;
+            return begin(turn);
+        } finally {
+            if (!entered) {
+                // Give up the place in line only once the turn ahead is done, so the next turn waits for it too
+                previous.whenComplete((ignored, error) -> turn.release());
+            }
+        }
+    }
+
+    private Turn begin(Turn turn) {
+        if (memoryStore != null) {
+            try {
+                memoryStore.beginTurn(turn.sessionKey);
+            } catch (RuntimeException e) {
+                turn.release();
+                throw e;
+            }
+        }
+        return turn;
+    }
+
+    private Object awaitDuplicate(String sessionKey, CompletableFuture<Object> original) {
+        try {
+            return original.get(turnWaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Identical turn of session {} still running after {}, rejecting", sessionKey, turnWaitTimeout);
+            throw new SessionBusyException("The same message of this session is still being answered");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical turn", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * A session's slot, held while one turn runs.
+     */
+    public final class Turn {
+
+        private final String sessionKey;
+        private final CompletableFuture<Void> done;
+
+        private Turn(String sessionKey, CompletableFuture<Void> done) {
+            this.sessionKey = sessionKey;
+            this.done = done;
+        }
+
+        public void release() {
+            if (memoryStore != null) {
+                memoryStore.endTurn(sessionKey);
+            }
+            done.complete(null);
+            // Drop the entry unless a later turn has already queued behind this one
+            tails.remove(sessionKey, done);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One AiServices proxy shared by every session of a chat service.
+ *
+ * <p>Building a proxy parses the interface, its annotations and prompt templates, so it is done once
+ * instead of per session. The proxy finds a session's memory through its {@code @MemoryId} argument and a
+ * provider that hands out {@link SessionMemory} handles: a handle holds only the memory id and looks the
+ * memory up in the service's {@link SessionRegistry} on every access, so the bounded registry stays the
+ * single owner of per-session state.</p>
+ *
+ * <p>AiServices caches provided memories in a map it never prunes. Handles keep each entry small, and
+ * once {@code rebuildThreshold} ids have been handed out the proxy is rebuilt with an empty map. Calls
+ * already running on the old proxy are unaffected, since handles carry no state.</p>
+ */
+@Slf4j
+public class SharedAssistant<T> {
+
+    private final Function<ChatMemoryProvider, T> builder;
+    private final Function<String, ? extends ChatMemory> memories;
+    private final long rebuildThreshold;
+    private final AtomicLong handedOut = new AtomicLong();
+    private volatile T assistant;
+
+    /**
+     * @param builder builds the proxy around the given memory provider
+     * @param memories returns the live memory of a memory id, creating it if needed
+     */
+    public SharedAssistant(Function<ChatMemoryProvider, T> builder, Function<String, ? extends ChatMemory> memories,
+                           long rebuildThreshold) {
+        this.builder = builder;
+        this.memories = memories;
+        this.rebuildThreshold = rebuildThreshold;
+        this.assistant = builder.apply(this::provide);
+    }
+
+    public T get() {
+        if (handedOut.get() >= rebuildThreshold) {
+            rebuild();
+        }
+        return assistant;
+    }
+
+    private synchronized void rebuild() {
+        if (handedOut.get() < rebuildThreshold) {
+            return;
+        }
+        handedOut.set(0);
+        assistant = builder.apply(this::provide);
+        log.debug("Rebuilt shared assistant after {} sessions", rebuildThreshold);
+    }
+
+    private ChatMemory provide(Object memoryId) {
+        // Called once per id by the proxy's memory map
+        handedOut.incrementAndGet();
+        return new SessionMemory(memoryId.toString());
+    }
+
+    private final class SessionMemory implements ChatMemory {
+
+        private final String memoryId;
+
+        private SessionMemory(String memoryId) {
+            this.memoryId = memoryId;
+        }
+
+        @Override
+        public Object id() {
+            return memoryId;
+        }
+
+        @Override
+        public void add(ChatMessage message) {
+            memories.apply(memoryId).add(message);
+        }
+
+        @Override
+        public List<ChatMessage> messages() {
+            return memories.apply(memoryId).messages();
+        }
+
+        @Override
+        public void clear() {
+            memories.apply(memoryId).clear();
+        }
+    }
+}
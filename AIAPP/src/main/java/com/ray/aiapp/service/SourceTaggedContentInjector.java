@@ -0,0 +1,86 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Appends retrieved chunks to the user message, each under a {@code [source: file #chunk]} header
+ * ({@code #first-last} for a passage merged from several chunks).
+ *
+ * <p>The layout is fixed so that {@link #strip} can recover the user's own text and the list of
+ * sources from an augmented message, see {@link RetrievalStrippingChatMemory}: the context starts at the
+ * last {@link #CONTEXT_MARKER}, the one appended here, so the user may type the marker text themselves.</p>
+ */
+public class SourceTaggedContentInjector implements ContentInjector {
+
+    static final String CONTEXT_MARKER = "\n\nAnswer using the following information:\n";
+    private static final Pattern SOURCE_HEADER = Pattern.compile("^\\[source: (.+)]$", Pattern.MULTILINE);
+
+    @Override
+    public ChatMessage inject(List<Content> contents, ChatMessage chatMessage) {
+        if (contents.isEmpty() || !(chatMessage instanceof UserMessage userMessage)) {
+            return chatMessage;
+        }
+
+        StringBuilder sb = new StringBuilder(userMessage.singleText()).append(CONTEXT_MARKER);
+        for (Content content : contents) {
+            TextSegment segment = content.textSegment();
+            sb.append("[source: ")
+                    .append(segment.metadata().getString("fileName"))
+                    .append(" #")
+                    .append(chunkRange(segment))
+                    .append("]\n")
+                    .append(segment.text())
+                    .append("\n\n");
+        }
+        return userMessage.name() == null
+                ? UserMessage.from(sb.toString())
+                : UserMessage.from(userMessage.name(), sb.toString());
+    }
+
+    /**
+     * Still abstract in ContentInjector; the retrieval augmentor calls the {@link ChatMessage} variant.
+     */
+    @Override
+    @Deprecated
+    public UserMessage inject(List<Content> contents, UserMessage userMessage) {
+        return (UserMessage) inject(contents, (ChatMessage) userMessage);
+    }
+
+    private String chunkRange(TextSegment segment) {
+        Object first = segment.metadata().toMap().get("chunkIndex");
+        Object last = segment.metadata().toMap().get("lastChunkIndex");
+        return last == null || last.equals(first) ? String.valueOf(first) : first + "-" + last;
+    }
+
+    /**
+     * @return null if {@code message} carries no injected context
+     */
+    static Stripped strip(UserMessage message) {
+        if (!message.hasSingleText()) {
+            return null;
+        }
+        String text = message.singleText();
+        int marker = text.lastIndexOf(CONTEXT_MARKER);
+        if (marker < 0) {
+            return null;
+        }
+
+        List<String> sources = new ArrayList<>();
+        Matcher matcher = SOURCE_HEADER.matcher(text.substring(marker + CONTEXT_MARKER.length()));
+        while (matcher.find()) {
+            sources.add(matcher.group(1));
+        }
+        return new Stripped(text.substring(0, marker), sources);
+    }
+
+    record Stripped(String userText, List<String> sources) {
+    }
+}
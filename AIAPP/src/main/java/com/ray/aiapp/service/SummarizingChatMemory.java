@@ -0,0 +1,246 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chat memory bounded by an estimated token budget instead of a message count.
+ *
+ * <p>When the memory exceeds {@code maxTokens}, the oldest whole turns (a user message plus everything
+ * up to the next user message, including tool calls and results) are evicted, so no tool result is left
+ * without its request. Evicted turns are folded into a running summary by {@link ChatSummarizer} on the
+ * summary pool; the request that caused the eviction does not wait for it. The summary is kept as a
+ * second system message, after the assistant's own system message.</p>
+ *
+ * <p>Stored layout: [system message] [summary] turns... — everything lives in the
+ * {@link ChatMemoryStore}, so any instance can continue the conversation.</p>
+ */
+@Slf4j
+public class SummarizingChatMemory implements RestorableChatMemory {
+
+    static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    /** Share of the budget the summary may take. */
+    private static final int SUMMARY_BUDGET_DIVISOR = 4;
+
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final int maxTokens;
+    private final ChatSummarizer summarizer;
+
+    /** A lock rather than synchronized, so a store read under it does not pin a virtual thread. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Evicted messages not yet folded into the summary. */
+    private final List<ChatMessage> unsummarized = new ArrayList<>();
+    private boolean summarizing;
+    /** Bumped by {@link #restore}; a summary started before it may cover turns that are back in memory. */
+    private long generation;
+
+    public SummarizingChatMemory(Object id, ChatMemoryStore store, int maxTokens, ChatSummarizer summarizer) {
+        this.id = id;
+        this.store = store;
+        this.maxTokens = maxTokens;
+        this.summarizer = summarizer;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        lock.lock();
+        try {
+            State state = State.of(store.getMessages(id));
+            if (message instanceof SystemMessage systemMessage) {
+                if (systemMessage.equals(state.system)) {
+                    return;
+                }
+                state.system = systemMessage;
+            } else {
+                state.turns.add(message);
+                List<ChatMessage> evicted = evict(state);
+                if (!evicted.isEmpty()) {
+                    unsummarized.addAll(evicted);
+                    summarize(state.summaryText());
+                }
+            }
+            store.updateMessages(id, state.toMessages());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        lock.lock();
+        try {
+            return State.of(store.getMessages(id)).toMessages();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            unsummarized.clear();
+            store.deleteMessages(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> snapshot() {
+        return List.copyOf(store.getMessages(id));
+    }
+
+    @Override
+    public void restore(List<ChatMessage> snapshot) {
+        lock.lock();
+        try {
+            generation++;
+            // Turns evicted since the snapshot are part of it again
+            unsummarized.removeAll(snapshot);
+            if (snapshot.isEmpty()) {
+                store.deleteMessages(id);
+            } else {
+                store.updateMessages(id, snapshot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<ChatMessage> evict(State state) {
+        int total = TokenEstimator.estimate(state.system) + TokenEstimator.estimate(state.summary);
+        for (ChatMessage message : state.turns) {
+            total += TokenEstimator.estimate(message);
+        }
+
+        List<ChatMessage> evicted = new ArrayList<>();
+        while (total > maxTokens) {
+            int nextTurn = nextUserMessage(state.turns);
+            if (nextTurn < 0) {
+                // Only the current turn is left; it is kept even when it is over budget
+                break;
+            }
+            List<ChatMessage> oldestTurn = state.turns.subList(0, nextTurn);
+            for (ChatMessage message : oldestTurn) {
+                total -= TokenEstimator.estimate(message);
+            }
+            evicted.addAll(oldestTurn);
+            oldestTurn.clear();
+        }
+        return evicted;
+    }
+
+    private int nextUserMessage(List<ChatMessage> turns) {
+        for (int i = 1; i < turns.size(); i++) {
+            if (turns.get(i) instanceof UserMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Start a summary of the unsummarized messages unless one is already running;
+     * a running summary picks up newly evicted messages when it completes.
+     */
+    private void summarize(String previousSummary) {
+        if (summarizing || unsummarized.isEmpty()) {
+            return;
+        }
+
+        List<ChatMessage> batch = List.copyOf(unsummarized);
+        unsummarized.clear();
+        int maxWords = Math.max(50, maxTokens / SUMMARY_BUDGET_DIVISOR * 3 / 4);
+        long startedAt = generation;
+        try {
+            summarizing = true;
+            summarizer.summarizeAsync(previousSummary, batch, maxWords)
+                    .whenComplete((summary, error) -> onSummary(batch, startedAt, summary, error));
+        } catch (RejectedExecutionException e) {
+            summarizing = false;
+            unsummarized.addAll(0, batch);
+            log.warn("Summary pool is full, memory {} will be summarized on a later turn", id);
+        }
+    }
+
+    private void onSummary(List<ChatMessage> batch, long startedAt, String summary, Throwable error) {
+        lock.lock();
+        try {
+            summarizing = false;
+            State state = State.of(store.getMessages(id));
+            if (startedAt != generation) {
+                // Memory was restored meanwhile: summarize again whatever is still evicted,
+                // unless it was evicted again since and is already waiting
+                List<ChatMessage> stillEvicted = new ArrayList<>(batch);
+                stillEvicted.removeAll(state.turns);
+                stillEvicted.removeAll(unsummarized);
+                unsummarized.addAll(0, stillEvicted);
+            } else if (error != null) {
+                log.warn("Failed to summarize memory {}, {} messages dropped from context: {}",
+                        id, batch.size(), error.getMessage());
+            } else {
+                state.summary = SystemMessage.from(SUMMARY_PREFIX + summary);
+                store.updateMessages(id, state.toMessages());
+            }
+            summarize(state.summaryText());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The stored message list split into system message, summary and turns.
+     */
+    private static final class State {
+        private SystemMessage system;
+        private SystemMessage summary;
+        private final List<ChatMessage> turns = new ArrayList<>();
+
+        static State of(List<ChatMessage> messages) {
+            State state = new State();
+            for (ChatMessage message : messages) {
+                if (message instanceof SystemMessage systemMessage) {
+                    if (systemMessage.text().startsWith(SUMMARY_PREFIX)) {
+                        state.summary = systemMessage;
+                    } else {
+                        state.system = systemMessage;
+                    }
+                } else {
+                    state.turns.add(message);
+                }
+            }
+            return state;
+        }
+
+        String summaryText() {
+            return summary == null ? null : summary.text().substring(SUMMARY_PREFIX.length());
+        }
+
+        List<ChatMessage> toMessages() {
+            List<ChatMessage> messages = new ArrayList<>(turns.size() + 2);
+            if (system != null) {
+                messages.add(system);
+            }
+            if (summary != null) {
+                messages.add(summary);
+            }
+            messages.addAll(turns);
+            return messages;
+        }
+    }
+}
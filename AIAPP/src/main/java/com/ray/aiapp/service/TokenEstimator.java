@@ -0,0 +1,58 @@
+package com.ray.aiapp.service;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+/**
+ * Cheap, local token count estimate for OpenAI models.
+ * Uses the usual ~4 characters per token rule so callers can budget requests
+ * without a tokenizer round trip; it errs on the high side for non-English text.
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_TOKEN = 4;
+    /** Role and separator tokens OpenAI adds around every message. */
+    private static final int MESSAGE_OVERHEAD = 4;
+    /** A low-detail image input. */
+    private static final int IMAGE_TOKENS = 85;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public static int estimate(ChatMessage message) {
+        if (message == null) {
+            return 0;
+        }
+        int tokens = MESSAGE_OVERHEAD;
+        if (message instanceof UserMessage user) {
+            for (Content content : user.contents()) {
+                tokens += content instanceof TextContent text ? estimate(text.text()) : IMAGE_TOKENS;
+            }
+        } else if (message instanceof AiMessage ai) {
+            tokens += estimate(ai.text());
+            if (ai.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : ai.toolExecutionRequests()) {
+                    tokens += estimate(request.name()) + estimate(request.arguments());
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            tokens += estimate(result.text());
+        } else if (message instanceof SystemMessage system) {
+            tokens += estimate(system.text());
+        }
+        return tokens;
+    }
+}
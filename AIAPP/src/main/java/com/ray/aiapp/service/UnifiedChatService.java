@@ -1,20 +1,26 @@
 package com.ray.aiapp.service;
 
-import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.openai.OpenAiChatModel;
-import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.SessionSettings;
+import com.ray.aiapp.config.properties.LangchainModelProperties.UnifiedRetrievalMode;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Unified chat service that combines all AI capabilities:
@@ -28,93 +34,176 @@ import java.util.concurrent.ConcurrentHashMap;
 @Service
 public class UnifiedChatService {
 
-    private final OpenAiChatModel chatModel;
-    private final ContentRetriever contentRetriever;
+    private final ModelRouter modelRouter;
+    private final RetrievalAugmentor retrievalAugmentor;
+    private final DocumentSearchTool documentSearchTool;
     private final WebSearchTool webSearchTool;
-    private final ConcurrentHashMap<String, UnifiedAssistant> assistants = new ConcurrentHashMap<>();
+    private final UnifiedRetrievalMode retrievalMode;
+    private final ChatMemoryStore chatMemoryStore;
+    private final ChatMemoryFactory chatMemoryFactory;
+    private final ChatStreamRunner chatStreamRunner;
+    private final OutboundCallGuard outboundCallGuard;
+    private final SessionTurnExecutor sessionTurns;
+    private final SemanticResponseCache responseCache;
+    private final SessionSettings sessionSettings;
+    private final SessionRegistry<ObservableChatMemory> memories;
+    private final AssistantPool<UnifiedAssistant> assistants;
 
     public UnifiedChatService(
-            OpenAiChatModel chatModel,
-             ContentRetriever contentRetriever,
-             WebSearchTool webSearchTool) {
-        this.chatModel = chatModel;
-        this.contentRetriever = contentRetriever;
+            ChatModelPool chatModelPool,
+            ModelRouter modelRouter,
+            RetrievalAugmentor retrievalAugmentor,
+            DocumentSearchTool documentSearchTool,
+            WebSearchTool webSearchTool,
+            ChatMemoryStore chatMemoryStore,
+            ChatMemoryFactory chatMemoryFactory,
+            ChatStreamRunner chatStreamRunner,
+            OutboundCallGuard outboundCallGuard,
+            SessionTurnExecutor sessionTurns,
+            SemanticResponseCache responseCache,
+            LangchainModelProperties properties,
+            MeterRegistry meterRegistry) {
+        this.modelRouter = modelRouter;
+        this.retrievalAugmentor = retrievalAugmentor;
+        this.documentSearchTool = documentSearchTool;
         this.webSearchTool = webSearchTool;
+        this.retrievalMode = properties.getRag().getUnifiedRetrieval();
+        this.chatMemoryStore = chatMemoryStore;
+        this.chatMemoryFactory = chatMemoryFactory;
+        this.chatStreamRunner = chatStreamRunner;
+        this.outboundCallGuard = outboundCallGuard;
+        this.sessionTurns = sessionTurns;
+        this.responseCache = responseCache;
+        this.sessionSettings = properties.getSessions().getUnified();
+        this.memories = new SessionRegistry<>("unified", sessionSettings, meterRegistry);
+        this.assistants = new AssistantPool<>(chatModelPool, this::buildAssistant, this::memory,
+                sessionSettings.getMaxSessions());
 
-        log.info("UnifiedChatService initialized with capabilities: RAG={}, WebSearch={}",
-                contentRetriever != null, webSearchTool != null);
+        log.info("UnifiedChatService initialized with capabilities: RAG={} ({}), WebSearch={}",
+                retrievalAugmentor != null, retrievalMode, webSearchTool != null);
     }
 
-    public String chat(String sessionId, String userMessage) {
-        UnifiedAssistant assistant = assistants.computeIfAbsent(sessionId, this::createAssistant);
+    /**
+     * @param profile optional assistant profile name; without one the {@link ModelRouter} picks the model
+     */
+    public String chat(String sessionId, String userMessage, String profile) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
 
         // Inject current date so AI knows what "today" means
         String currentDate = LocalDate.now().format(DateTimeFormatter.ofPattern("EEEE, MMMM d, yyyy"));
 
-        String response = assistant.chat(currentDate, userMessage);
+        // Answers mention the date, so they are cached per day
+        String cacheScope = "unified:" + model + ":" + currentDate;
+        String response = sessionTurns.run(memoryId, userMessage + '\u0000' + model,
+                () -> outboundCallGuard.call(() -> responseCache.answer(cacheScope, memory(memoryId),
+                        userMessage, () -> assistants.get(model).chat(memoryId, currentDate, userMessage))));
         log.debug("Session {}: user='{}', assistant='{}'", sessionId, userMessage, response);
         return response;
     }
 
+    /**
+     * Stream the answer token by token. Besides tokens, the listener receives the retrieved document
+     * chunks and every tool call and result as they happen.
+     */
+    public ChatStream streamChat(String sessionId, String userMessage, String profile, ChatStreamListener listener) {
+        String memoryId = memoryId(sessionId);
+        ModelSelection model = modelRouter.select(profile, userMessage);
+        ObservableChatMemory memory = memory(memoryId);
+        String currentDate = LocalDate.now().format(DateTimeFormatter.ofPattern("EEEE, MMMM d, yyyy"));
+
+        return chatStreamRunner.start(memory,
+                () -> {
+                    // Observe only once the runner holds the session's slot, so turns never share a listener
+                    memory.observe(listener);
+                    return RetrievalScope.with(null, listener::onRetrieved,
+                            () -> assistants.get(model).chatStream(memoryId, currentDate, userMessage));
+                },
+                listener,
+                memory::stopObserving);
+    }
+
     public void clearMemory(String sessionId) {
-        assistants.remove(sessionId);
+        memories.remove(memoryId(sessionId));
+        chatMemoryStore.deleteMessages(memoryId(sessionId));
         log.info("Cleared memory for unified chat session {}", sessionId);
     }
 
-    private UnifiedAssistant createAssistant(String sessionId) {
-        ChatMemory memory = MessageWindowChatMemory.builder()
-                .maxMessages(40)
-                .build();
-
-        return AiServices.builder(UnifiedAssistant.class)
+    private UnifiedAssistant buildAssistant(ChatLanguageModel chatModel,
+                                            StreamingChatLanguageModel streamingChatModel,
+                                            ChatMemoryProvider chatMemoryProvider) {
+        AiServices<UnifiedAssistant> builder = AiServices.builder(UnifiedAssistant.class)
                 .chatLanguageModel(chatModel)
-                .chatMemory(memory)
-                .contentRetriever(contentRetriever)
-                .tools(webSearchTool)
-                .build();
+                .streamingChatLanguageModel(streamingChatModel)
+                .chatMemoryProvider(chatMemoryProvider);
+        if (retrievalMode == UnifiedRetrievalMode.ALWAYS) {
+            builder.retrievalAugmentor(retrievalAugmentor)
+                    .tools(webSearchTool);
+        } else {
+            // Most unified questions are not about uploaded documents; let the model decide when to search them
+            builder.tools(documentSearchTool, webSearchTool);
+        }
+        return builder.build();
+    }
+
+    private ObservableChatMemory memory(String memoryId) {
+        return memories.getOrCreate(memoryId,
+                id -> new ObservableChatMemory(chatMemoryFactory.createForRetrieval(id, sessionSettings)));
+    }
+
+    private String memoryId(String sessionId) {
+        return "unified:" + sessionId;
     }
 
     interface UnifiedAssistant {
-        @SystemMessage({
-                "Current date: {{current_date}}",
-                "",
-                "You are Ray's intelligent AI assistant with multiple powerful capabilities:",
-                "",
-                "## Your Capabilities:",
-                "1. **Document Retrieval (RAG)**: You can search and retrieve information from documents the user has uploaded",
-                "2. **Web Search**: You can search the internet for current, real-time information",
-                "3. **Base Knowledge**: Your extensive training data for general questions and explanations",
-                "",
-                "## When to Use Each Capability:",
-                "",
-                "**Use Document Retrieval when:**",
-                "- User asks about uploaded files, documents, or PDFs",
-                "- Questions like 'What does my report say...', 'According to my document...'",
-                "- User references specific files they've uploaded",
-                "- You need to find specific data or quotes from their documents",
-                "",
-                "**Use Web Search when:**",
-                "- User asks about current events, recent news, or 'latest' information",
-                "- Questions about 'today', 'now', 'this week', or other time-sensitive queries",
-                "- Weather forecasts, stock prices, sports scores, or real-time data",
-                "- Information that changes frequently or is more recent than your training data",
-                "",
-                "**Use Base Knowledge when:**",
-                "- General knowledge questions (history, science, concepts)",
-                "- Explanations, how-to guides, or educational content",
-                "- Creative tasks like writing, brainstorming, or problem-solving",
-                "- The question doesn't require current data or specific uploaded documents",
-                "",
-                "## Important Rules:",
-                "- You can use MULTIPLE capabilities in a single response if needed",
-                "- Always cite your sources when using document retrieval or web search",
-                "- If you use documents, mention which document the information came from",
-                "- If you use web search, include the source URLs or website names",
-                "- Be transparent about which capability you're using and why",
-                "",
-                "Your name is Ray's Unified Agent. Be helpful, accurate, and always cite your sources!"
-        })
-        String chat(@V("current_date") String currentDate,
+        String SYSTEM_PROMPT = """
+                Current date: {{current_date}}
+
+                You are Ray's intelligent AI assistant with multiple powerful capabilities:
+
+                ## Your Capabilities:
+                1. **Document Retrieval (RAG)**: You can search and retrieve information from documents the user has uploaded
+                2. **Web Search**: You can search the internet for current, real-time information
+                3. **Base Knowledge**: Your extensive training data for general questions and explanations
+
+                ## When to Use Each Capability:
+
+                **Use Document Retrieval when:**
+                - User asks about uploaded files, documents, or PDFs
+                - Questions like 'What does my report say...', 'According to my document...'
+                - User references specific files they've uploaded
+                - You need to find specific data or quotes from their documents
+
+                **Use Web Search when:**
+                - User asks about current events, recent news, or 'latest' information
+                - Questions about 'today', 'now', 'this week', or other time-sensitive queries
+                - Weather forecasts, stock prices, sports scores, or real-time data
+                - Information that changes frequently or is more recent than your training data
+
+                **Use Base Knowledge when:**
+                - General knowledge questions (history, science, concepts)
+                - Explanations, how-to guides, or educational content
+                - Creative tasks like writing, brainstorming, or problem-solving
+                - The question doesn't require current data or specific uploaded documents
+
+                ## Important Rules:
+                - You can use MULTIPLE capabilities in a single response if needed
+                - Always cite your sources when using document retrieval or web search
+                - If you use documents, mention which document the information came from
+                - If you use web search, include the source URLs or website names
+                - Be transparent about which capability you're using and why
+
+                Your name is Ray's Unified Agent. Be helpful, accurate, and always cite your sources!
+                """;
+
+        @SystemMessage(SYSTEM_PROMPT)
+        String chat(@MemoryId String memoryId,
+                    @V("current_date") String currentDate,
                     @UserMessage String userMessage);
+
+        @SystemMessage(SYSTEM_PROMPT)
+        TokenStream chatStream(@MemoryId String memoryId,
+                               @V("current_date") String currentDate,
+                               @UserMessage String userMessage);
     }
 }
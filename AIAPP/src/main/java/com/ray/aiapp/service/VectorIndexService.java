@@ -0,0 +1,171 @@
+package com.ray.aiapp.service;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.VectorIndex;
+import com.ray.aiapp.config.properties.LangchainModelProperties.VectorIndexType;
+import com.ray.aiapp.exception.IndexBuildInProgressException;
+import com.ray.aiapp.service.dto.VectorIndexRequest;
+import com.ray.aiapp.service.dto.VectorIndexStatusResponse;
+import jakarta.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Builds and rebuilds the approximate nearest neighbour index on document_chunks.embedding.
+ *
+ * <p>A rebuild creates the new index CONCURRENTLY under a staging name, so searches and inserts keep
+ * running while it builds. The old HNSW/IVFFlat index is then dropped and the new one renamed into place
+ * in one short transaction: there is always an ANN index, and a failed swap leaves the old one in place.
+ * The swap waits at most {@code SWAP_LOCK_TIMEOUT} for its table lock instead of queueing searches behind it.
+ * Builds run in the background, one at a time per cluster (guarded by a PostgreSQL advisory lock).
+ * IVFFlat picks its centroids from the rows present at build time, so rebuild it after large loads.</p>
+ */
+@Slf4j
+@Service
+public class VectorIndexService {
+
+    private static final String HNSW_INDEX = "idx_embedding_hnsw";
+    private static final String IVFFLAT_INDEX = "idx_embedding_ivfflat";
+    private static final String STAGING_INDEX = "idx_embedding_ann_new";
+    private static final long ADVISORY_LOCK_KEY = 0x7665637469647831L;
+    private static final String SWAP_LOCK_TIMEOUT = "5s";
+
+    private static final String ANN_INDEXES_SQL = """
+        SELECT indexdef FROM pg_indexes
+        WHERE tablename = 'document_chunks'
+        AND (indexdef ILIKE '%USING hnsw%' OR indexdef ILIKE '%USING ivfflat%')
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LangchainModelProperties properties;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vector-index-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile BuildStatus status = new BuildStatus(BuildState.IDLE, null, null, null, null);
+
+    public VectorIndexService(JdbcTemplate jdbcTemplate, LangchainModelProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * Start a background rebuild with the given parameters.
+     */
+    public VectorIndexStatusResponse rebuild(VectorIndexRequest request) {
+        VectorIndex defaults = properties.getRag().getIndex();
+        VectorIndexType type = request.type() != null ? request.type() : defaults.getType();
+        String targetName = type == VectorIndexType.HNSW ? HNSW_INDEX : IVFFLAT_INDEX;
+        String definition = switch (type) {
+            case HNSW -> "USING hnsw (embedding vector_cosine_ops) WITH (m = %d, ef_construction = %d)".formatted(
+                    valueOrDefault(request.m(), defaults.getM()),
+                    valueOrDefault(request.efConstruction(), defaults.getEfConstruction()));
+            case IVFFLAT -> "USING ivfflat (embedding vector_cosine_ops) WITH (lists = %d)".formatted(
+                    valueOrDefault(request.lists(), defaults.getLists()));
+        };
+
+        synchronized (this) {
+            if (status.state() == BuildState.RUNNING) {
+                throw new IndexBuildInProgressException("A vector index build is already running");
+            }
+            status = new BuildStatus(BuildState.RUNNING, definition, Instant.now(), null, null);
+        }
+
+        executor.execute(() -> build(targetName, definition));
+        return getStatus();
+    }
+
+    public VectorIndexStatusResponse getStatus() {
+        BuildStatus current = status;
+        List<String> indexes = jdbcTemplate.queryForList(ANN_INDEXES_SQL, String.class);
+        return new VectorIndexStatusResponse(
+                current.state().name(),
+                current.definition(),
+                current.startedAt(),
+                current.finishedAt(),
+                current.errorMessage(),
+                indexes);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void build(String targetName, String definition) {
+        log.info("Building vector index {} {}", targetName, definition);
+        try {
+            // CONCURRENTLY cannot run inside a transaction; a plain JdbcTemplate connection is in autocommit mode
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                if (!tryAdvisoryLock(connection)) {
+                    throw new IllegalStateException("Another node is building the vector index");
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + STAGING_INDEX);
+                    statement.execute("CREATE INDEX CONCURRENTLY " + STAGING_INDEX + " ON document_chunks " + definition);
+                    swap(connection, targetName);
+                } finally {
+                    try (Statement unlock = connection.createStatement()) {
+                        unlock.execute("SELECT pg_advisory_unlock(" + ADVISORY_LOCK_KEY + ")");
+                    }
+                }
+                return null;
+            });
+            status = new BuildStatus(BuildState.SUCCEEDED, definition, status.startedAt(), Instant.now(), null);
+            log.info("Vector index {} is ready", targetName);
+        } catch (Exception e) {
+            status = new BuildStatus(BuildState.FAILED, definition, status.startedAt(), Instant.now(), e.getMessage());
+            log.error("Vector index build failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the live ANN index with the staging one in a single transaction.
+     */
+    private void swap(Connection connection, String targetName) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LOCAL lock_timeout = '" + SWAP_LOCK_TIMEOUT + "'");
+            statement.execute("DROP INDEX IF EXISTS " + HNSW_INDEX);
+            statement.execute("DROP INDEX IF EXISTS " + IVFFLAT_INDEX);
+            statement.execute("ALTER INDEX " + STAGING_INDEX + " RENAME TO " + targetName);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private boolean tryAdvisoryLock(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT pg_try_advisory_lock(" + ADVISORY_LOCK_KEY + ")")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private int valueOrDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    private enum BuildState {
+        IDLE, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private record BuildStatus(BuildState state, String definition, Instant startedAt, Instant finishedAt,
+                               String errorMessage) {
+    }
+}
@@ -1,19 +1,43 @@
 package com.ray.aiapp.service;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.WebSearch;
 import dev.langchain4j.agent.tool.Tool;
 import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.WebSearchOrganicResult;
 import dev.langchain4j.web.search.WebSearchRequest;
 import dev.langchain4j.web.search.WebSearchResults;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-
 /**
  * Web search tool that can be used by AI agents to search the internet.
  * The AI will automatically decide when to use this tool based on the user's query.
+ *
+ * <p>Results are cached for {@code cacheTtl}, keyed by the normalized, lower-cased query and the result
+ * count, and concurrent identical searches share one Tavily call. Searches run on a small dedicated pool
+ * with a bounded queue and fail after {@code timeout}, so a slow search cannot hold a chat thread; the
+ * model is told the search timed out, or that search is busy when the queue is full, and can answer
+ * without it. A timed-out search is cancelled: dropped if still queued, interrupted if running. Failed,
+ * rejected and timed-out searches are not cached.</p>
+ *
+ * <p>Hit/miss counts are published as the {@code cache.*} meters tagged {@code cache=web-search}.</p>
  */
 @Slf4j
 @Service
@@ -22,11 +46,30 @@ public class WebSearchTool {
 
     private final WebSearchEngine searchEngine;
     private final int maxResults;
+    private final long timeoutMillis;
+    private final AsyncCache<String, String> results;
+    private final ThreadPoolExecutor executor;
 
-    public WebSearchTool(WebSearchEngine searchEngine,
-                        com.ray.aiapp.config.properties.LangchainModelProperties properties) {
+    public WebSearchTool(WebSearchEngine searchEngine, LangchainModelProperties properties,
+                         MeterRegistry meterRegistry) {
+        WebSearch settings = properties.getWebSearch();
         this.searchEngine = searchEngine;
-        this.maxResults = properties.getWebSearch().getMaxResults();
+        this.maxResults = settings.getMaxResults();
+        this.timeoutMillis = settings.getTimeout().toMillis();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(settings.getSearchThreads(), settings.getSearchThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(settings.getSearchQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "web-search-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.results = Caffeine.newBuilder()
+                .maximumSize(settings.getCacheMaxSize())
+                .expireAfterWrite(settings.getCacheTtl())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, results.synchronous(), "web-search");
     }
 
     /**
@@ -43,6 +86,59 @@ public class WebSearchTool {
     public String searchWeb(String query) {
         log.info("Web search requested: {}", query);
 
+        String key = maxResults + "\u0000" + CachingEmbeddingModel.normalize(query).toLowerCase(Locale.ROOT);
+        // Identical concurrent searches all wait on the first one's future
+        CompletableFuture<String> result = results.get(key, (ignored, pool) -> submit(query));
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for web search", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                log.warn("Web search timed out after {} ms: {}", timeoutMillis, query);
+                return "The web search timed out for: " + query;
+            }
+            if (e.getCause() instanceof RejectedExecutionException) {
+                log.warn("Web search queue is full, rejected: {}", query);
+                return "The web search is busy, answer without it for: " + query;
+            }
+            log.warn("Web search failed for query {}: {}", query, e.getCause().getMessage());
+            return "The web search failed for: " + query;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run a search on the pool; on timeout the search is cancelled rather than left to finish.
+     */
+    private CompletableFuture<String> submit(String query) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<?> search;
+        try {
+            search = executor.submit(() -> {
+                try {
+                    result.complete(search(query));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((answer, error) -> {
+                    if (error instanceof TimeoutException) {
+                        search.cancel(true);
+                    }
+                });
+    }
+
+    private String search(String query) {
         WebSearchRequest webSearchRequest = WebSearchRequest.builder()
                 .searchTerms(query)
                 .maxResults(maxResults)
@@ -2,7 +2,11 @@ package com.ray.aiapp.service.dto;
 
 import jakarta.validation.constraints.NotBlank;
 
+/**
+ * @param profile optional assistant profile name; selects the model and temperature for this turn
+ */
 public record ChatRequest(
         @NotBlank String sessionId,
-        @NotBlank String message
-) {}
\ No newline at end of file
+        @NotBlank String message,
+        String profile
+) {}
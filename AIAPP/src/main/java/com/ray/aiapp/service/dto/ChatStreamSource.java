@@ -0,0 +1,10 @@
+package com.ray.aiapp.service.dto;
+
+/**
+ * A document chunk used to answer a streamed chat turn, sent as a {@code retrieval} event.
+ */
+public record ChatStreamSource(
+        String documentId,
+        String fileName,
+        Integer chunkIndex
+) {}
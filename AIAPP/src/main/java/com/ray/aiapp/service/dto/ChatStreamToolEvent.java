@@ -0,0 +1,9 @@
+package com.ray.aiapp.service.dto;
+
+/**
+ * A tool call ({@code tool_call}, content = arguments) or its result ({@code tool_result}) in a streamed chat turn.
+ */
+public record ChatStreamToolEvent(
+        String name,
+        String content
+) {}
@@ -0,0 +1,41 @@
+package com.ray.aiapp.service.dto;
+
+import com.ray.aiapp.domain.model.Document;
+import java.time.Instant;
+import java.util.UUID;
+
+public record DocumentStatusResponse(
+        UUID documentId,
+        String status,
+        String jobStatus,
+        int attempts,
+        int totalChunks,
+        int embeddedChunks,
+        String errorMessage,
+        Instant updatedAt
+) {
+    public static DocumentStatusResponse from(Document document, IngestionProgress progress) {
+        if (progress == null) {
+            return new DocumentStatusResponse(
+                    document.getId(),
+                    document.getStatus().name(),
+                    null,
+                    0,
+                    document.getChunkCount(),
+                    document.getChunkCount(),
+                    null,
+                    document.getUpdatedAt()
+            );
+        }
+        return new DocumentStatusResponse(
+                document.getId(),
+                document.getStatus().name(),
+                progress.getStatus().name(),
+                progress.getAttempts(),
+                progress.getTotalChunks(),
+                progress.getEmbeddedChunks(),
+                progress.getErrorMessage(),
+                progress.getUpdatedAt()
+        );
+    }
+}
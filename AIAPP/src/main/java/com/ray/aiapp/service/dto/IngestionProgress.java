@@ -0,0 +1,22 @@
+package com.ray.aiapp.service.dto;
+
+import com.ray.aiapp.domain.model.IngestionJob.JobStatus;
+import java.time.Instant;
+
+/**
+ * Interface projection over ingestion_jobs that skips the stored file content.
+ */
+public interface IngestionProgress {
+
+    JobStatus getStatus();
+
+    int getAttempts();
+
+    int getTotalChunks();
+
+    int getEmbeddedChunks();
+
+    String getErrorMessage();
+
+    Instant getUpdatedAt();
+}
@@ -1,8 +1,16 @@
 package com.ray.aiapp.service.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import java.util.List;
+import java.util.UUID;
 
+/**
+ * @param documentIds optional; when set, retrieval only searches these documents
+ * @param profile optional assistant profile name; selects the model and temperature for this turn
+ */
 public record RagChatRequest(
         @NotBlank String sessionId,
-        @NotBlank String message
-) {}
\ No newline at end of file
+        @NotBlank String message,
+        List<UUID> documentIds,
+        String profile
+) {}
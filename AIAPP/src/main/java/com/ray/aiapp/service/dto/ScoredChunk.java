@@ -0,0 +1,12 @@
+package com.ray.aiapp.service.dto;
+
+/**
+ * A document chunk returned by similarity search, together with its cosine similarity score.
+ */
+public record ScoredChunk(
+        String embeddingId,
+        String text,
+        String metadata,
+        float[] embedding,
+        double score
+) {}
@@ -0,0 +1,15 @@
+package com.ray.aiapp.service.dto;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties.VectorIndexType;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
+/**
+ * Parameters for an index rebuild; omitted values fall back to {@code aiapp.langchain.rag.index}.
+ */
+public record VectorIndexRequest(
+        VectorIndexType type,
+        @Min(2) @Max(100) Integer m,
+        @Min(4) @Max(1000) Integer efConstruction,
+        @Min(1) @Max(32768) Integer lists
+) {}
@@ -0,0 +1,13 @@
+package com.ray.aiapp.service.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public record VectorIndexStatusResponse(
+        String state,
+        String lastDefinition,
+        Instant startedAt,
+        Instant finishedAt,
+        String errorMessage,
+        List<String> indexes
+) {}
@@ -0,0 +1,5 @@
+-- Look up chunks by (document, position), used to fetch the neighbours of retrieved chunks.
+-- The composite index also serves every document_id lookup, so the single-column index is dropped.
+CREATE INDEX idx_document_chunks_position ON document_chunks(document_id, chunk_index);
+
+DROP INDEX IF EXISTS idx_document_id;
@@ -0,0 +1,11 @@
+-- A chunk position is written by exactly one ingestion attempt. Make that a constraint, so a worker that
+-- lost its job can never add a second copy of a chunk. Duplicates left by earlier races are removed first.
+DELETE FROM document_chunks a
+USING document_chunks b
+WHERE a.document_id = b.document_id
+AND a.chunk_index = b.chunk_index
+AND a.ctid > b.ctid;
+
+DROP INDEX IF EXISTS idx_document_chunks_position;
+
+CREATE UNIQUE INDEX idx_document_chunks_position ON document_chunks(document_id, chunk_index);
@@ -0,0 +1,3 @@
+-- Version every chat memory row so a node holding a stale copy cannot overwrite newer turns.
+-- Existing rows start at 1; 0 means "no row yet" to the application.
+ALTER TABLE chat_memories ADD COLUMN version BIGINT NOT NULL DEFAULT 1;
@@ -0,0 +1,8 @@
+-- Single-row counter bumped in every transaction that changes the set of searchable documents, so
+-- caches on every instance can tell whether what they hold predates the current document set
+CREATE TABLE document_set_generation (
+    id SMALLINT PRIMARY KEY CHECK (id = 1),
+    generation BIGINT NOT NULL
+);
+
+INSERT INTO document_set_generation (id, generation) VALUES (1, 0);
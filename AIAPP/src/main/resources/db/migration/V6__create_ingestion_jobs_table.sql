@@ -0,0 +1,19 @@
+-- Create ingestion_jobs table used as a persistent queue for asynchronous document ingestion
+CREATE TABLE ingestion_jobs (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    version BIGINT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    document_id UUID NOT NULL REFERENCES documents(id) ON DELETE CASCADE,
+    status VARCHAR(50) NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    total_chunks INTEGER NOT NULL DEFAULT 0,
+    embedded_chunks INTEGER NOT NULL DEFAULT 0,
+    error_message VARCHAR(1000),
+    content BYTEA
+);
+
+-- Workers poll for the oldest queued jobs
+CREATE INDEX idx_ingestion_jobs_status_created_at ON ingestion_jobs(status, created_at);
+CREATE INDEX idx_ingestion_jobs_document_id ON ingestion_jobs(document_id);
@@ -0,0 +1,6 @@
+-- Create the HNSW index for cosine similarity search on document_chunks.
+-- CONCURRENTLY keeps inserts flowing while the index builds; Flyway runs this migration outside a transaction.
+-- To rebuild with different parameters, or switch to IVFFlat, use POST /api/v1/admin/vector-index/rebuild.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_embedding_hnsw ON document_chunks
+    USING hnsw (embedding vector_cosine_ops)
+    WITH (m = 16, ef_construction = 64);
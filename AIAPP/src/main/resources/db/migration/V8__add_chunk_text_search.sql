@@ -0,0 +1,7 @@
+-- Full-text search column for hybrid (lexical + vector) retrieval.
+-- A stored generated column is filled by PostgreSQL on every insert, so the ingestion path needs no changes.
+-- The 'english' configuration drops stop words; identifiers such as part numbers and error codes are kept as single tokens.
+ALTER TABLE document_chunks
+    ADD COLUMN text_search tsvector GENERATED ALWAYS AS (to_tsvector('english', text)) STORED;
+
+CREATE INDEX idx_document_chunks_text_search ON document_chunks USING gin (text_search);
@@ -0,0 +1,10 @@
+-- Create chat_memories table holding the message window of every chat session
+-- memory_id is namespaced by chat service, e.g. "rag:<sessionId>"; messages is the LangChain4j JSON form
+CREATE TABLE chat_memories (
+    memory_id VARCHAR(255) PRIMARY KEY,
+    messages TEXT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- For cleaning up abandoned sessions
+CREATE INDEX idx_chat_memories_updated_at ON chat_memories(updated_at);
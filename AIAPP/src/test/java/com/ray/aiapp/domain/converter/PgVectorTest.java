@@ -0,0 +1,49 @@
+package com.ray.aiapp.domain.converter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PgVectorTest {
+
+    @Test
+    void textFormRoundTripsExactly() {
+        float[] vector = randomVector(1536);
+
+        float[] parsed = VectorAttributeConverter.parseVector(VectorAttributeConverter.toVectorString(vector));
+
+        assertThat(parsed).containsExactly(vector);
+    }
+
+    @Test
+    void parsesPgvectorTextOutput() {
+        assertThat(VectorAttributeConverter.parseVector("[0.1, -2.5e-3,3,1E10 ]"))
+                .containsExactly(0.1f, -0.0025f, 3f, 1e10f);
+        assertThat(VectorAttributeConverter.parseVector("[]")).isEmpty();
+        assertThat(VectorAttributeConverter.parseVector(null)).isEmpty();
+    }
+
+    @Test
+    void binaryFormRoundTrips() throws Exception {
+        float[] vector = randomVector(1536);
+        PgVector source = new PgVector(vector);
+
+        byte[] bytes = new byte[source.lengthInBytes()];
+        source.toBytes(bytes, 0);
+        PgVector target = new PgVector();
+        target.setByteValue(bytes, 0);
+
+        assertThat(bytes).hasSize(4 + 1536 * 4);
+        assertThat(target.toArray()).containsExactly(vector);
+    }
+
+    private float[] randomVector(int dimensions) {
+        Random random = new Random(42);
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian() * 0.05f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,93 @@
+package com.ray.aiapp.repository;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+class DocumentChunkJdbcRepositoryTest {
+
+    private static final float[] QUERY = {0.1f, 0.2f, 0.3f};
+    /** A single document out of many: far fewer matches than ef_search candidates would hold. */
+    private static final Filter ONE_DOCUMENT = metadataKey("documentId").isEqualTo("doc-42");
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final DocumentChunkJdbcRepository repository =
+            new DocumentChunkJdbcRepository(jdbcTemplate, new LangchainModelProperties());
+
+    @Test
+    void documentScopedSearchKeepsScanningUntilItHasKRows() {
+        pgvector("0.8.0");
+
+        repository.findSimilarChunks(QUERY, 5, 0.5, ONE_DOCUMENT, false);
+
+        verify(jdbcTemplate).queryForList(contains("set_config('hnsw.iterative_scan', 'relaxed_order', true)"));
+        verify(jdbcTemplate, never()).queryForList(contains("enable_indexscan"));
+        assertThat(similaritySql()).contains("c.document_id = ?");
+    }
+
+    @Test
+    void documentScopedSearchRanksExactlyOnOlderPgvector() {
+        pgvector("0.7.4");
+
+        repository.findSimilarChunks(QUERY, 5, 0.5, ONE_DOCUMENT, false);
+
+        verify(jdbcTemplate).queryForList(contains("set_config('enable_indexscan', 'off', true)"));
+        verify(jdbcTemplate, never()).queryForList(contains("iterative_scan"));
+    }
+
+    @Test
+    void unfilteredSearchKeepsThePlainIndexScan() {
+        pgvector("0.8.0");
+
+        repository.findSimilarChunks(QUERY, 5, 0.5, null, false);
+
+        verify(jdbcTemplate, never()).queryForList(contains("iterative_scan"));
+        verify(jdbcTemplate, never()).queryForList(contains("enable_indexscan"));
+        verify(jdbcTemplate, never()).queryForList(contains("pg_extension"), eq(String.class));
+    }
+
+    @Test
+    void pgvectorVersionIsLookedUpOnce() {
+        pgvector("0.8.0");
+
+        repository.findSimilarChunks(QUERY, 5, 0.5, ONE_DOCUMENT, false);
+        repository.findSimilarChunks(QUERY, 5, 0.5, ONE_DOCUMENT, false);
+
+        verify(jdbcTemplate, times(1)).queryForList(contains("pg_extension"), eq(String.class));
+    }
+
+    @Test
+    void versionComparison() {
+        assertThat(DocumentChunkJdbcRepository.atLeast("0.8.0", 0, 8)).isTrue();
+        assertThat(DocumentChunkJdbcRepository.atLeast("0.10.1", 0, 8)).isTrue();
+        assertThat(DocumentChunkJdbcRepository.atLeast("1.0", 0, 8)).isTrue();
+        assertThat(DocumentChunkJdbcRepository.atLeast("0.7.4", 0, 8)).isFalse();
+        assertThat(DocumentChunkJdbcRepository.atLeast("dev", 0, 8)).isFalse();
+    }
+
+    private void pgvector(String version) {
+        when(jdbcTemplate.queryForList(contains("pg_extension"), eq(String.class))).thenReturn(List.of(version));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String similaritySql() {
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), any(Object[].class));
+        return sql.getValue();
+    }
+}
@@ -0,0 +1,127 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties.EmbeddingBatching;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CoalescingEmbeddingModelTest {
+
+    private final RecordingEmbeddingModel delegate = new RecordingEmbeddingModel();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stopCallers() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentEmbedsShareOneRemoteCall() throws Exception {
+        CoalescingEmbeddingModel model = coalescing(Duration.ofMillis(500), 32);
+
+        List<Future<Embedding>> results = embedConcurrently(model, List.of("a", "bb", "ccc", "dddd", "eeeee"));
+
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).get(5, TimeUnit.SECONDS).vector()).containsExactly(i + 1);
+        }
+        assertThat(delegate.batches).hasSize(1);
+        assertThat(delegate.batches.get(0)).containsExactlyInAnyOrder("a", "bb", "ccc", "dddd", "eeeee");
+        assertThat(meterRegistry.get("embedding.query.batch.size").summary().max()).isEqualTo(5);
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        CoalescingEmbeddingModel model = coalescing(Duration.ofMinutes(1), 3);
+
+        List<Future<Embedding>> results = embedConcurrently(model, List.of("a", "bb", "ccc"));
+
+        for (Future<Embedding> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isNotNull();
+        }
+        assertThat(delegate.batches).hasSize(1);
+    }
+
+    @Test
+    void singleTextIsSentOnItsOwn() {
+        CoalescingEmbeddingModel model = coalescing(Duration.ofMillis(1), 32);
+
+        assertThat(model.embed("abc").content().vector()).containsExactly(3);
+        assertThat(delegate.batches).containsExactly(List.of("abc"));
+    }
+
+    @Test
+    void failureReachesEveryCallerOfTheBatch() throws Exception {
+        delegate.failure = new IllegalStateException("embedding service down");
+        CoalescingEmbeddingModel model = coalescing(Duration.ofMillis(500), 32);
+
+        List<Future<Embedding>> results = embedConcurrently(model, List.of("a", "bb", "ccc", "dddd"));
+
+        for (Future<Embedding> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause().isSameAs(delegate.failure);
+        }
+        assertThat(delegate.batches).hasSize(1);
+    }
+
+    private CoalescingEmbeddingModel coalescing(Duration window, int maxBatchSize) {
+        EmbeddingBatching settings = new EmbeddingBatching();
+        settings.setWindow(window);
+        settings.setMaxBatchSize(maxBatchSize);
+        return new CoalescingEmbeddingModel(delegate, settings, meterRegistry);
+    }
+
+    /**
+     * Call {@code embed} for every text at once, each from its own thread.
+     */
+    private List<Future<Embedding>> embedConcurrently(EmbeddingModel model, List<String> texts) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Embedding>> results = new ArrayList<>();
+        for (String text : texts) {
+            results.add(callers.submit(() -> {
+                start.await();
+                return model.embed(text).content();
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    /**
+     * Embeds a text as a one-dimensional vector holding its length, recording every remote call.
+     */
+    private static final class RecordingEmbeddingModel implements EmbeddingModel {
+
+        private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        private volatile RuntimeException failure;
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            batches.add(textSegments.stream().map(TextSegment::text).toList());
+            if (failure != null) {
+                throw failure;
+            }
+            return Response.from(textSegments.stream()
+                    .map(segment -> Embedding.from(new float[] {segment.text().length()}))
+                    .toList());
+        }
+    }
+}
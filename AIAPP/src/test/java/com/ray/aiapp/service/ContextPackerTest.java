@@ -0,0 +1,176 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Packing;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link ChunkService#findChunksAt} is served from {@link #documents}; chunk overlap is 10 characters,
+ * so up to 20 repeated characters are trimmed at a chunk boundary.
+ */
+class ContextPackerTest {
+
+    private final ChunkService chunkService = mock(ChunkService.class);
+    private final LangchainModelProperties properties = new LangchainModelProperties();
+    private final Packing settings = properties.getRag().getPacking();
+    /** Document id to chunk texts, indexed by chunk index. */
+    private final Map<String, List<String>> documents = new HashMap<>();
+
+    @BeforeEach
+    void serveChunksFromDocuments() {
+        properties.getRag().setChunkOverlap(10);
+        when(chunkService.findChunksAt(anyMap())).thenAnswer(invocation -> {
+            Map<String, ? extends Collection<Integer>> positions = invocation.getArgument(0);
+            List<TextSegment> found = new ArrayList<>();
+            positions.forEach((documentId, indexes) -> indexes.stream()
+                    .filter(index -> index < documents.get(documentId).size())
+                    .forEach(index -> found.add(chunk(documentId, index))));
+            return found;
+        });
+    }
+
+    @Test
+    void consecutiveChunksAreMergedWithoutTheRepeatedOverlap() {
+        documents.put("d", List.of("The quick brown fox jumps", "fox jumps over the lazy dog"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), hit("d", 1, 0.8)));
+
+        assertThat(packed).singleElement().satisfies(content -> {
+            assertThat(content.textSegment().text()).isEqualTo("The quick brown fox jumps over the lazy dog");
+            assertThat(content.textSegment().metadata().getInteger("chunkIndex")).isZero();
+            assertThat(content.textSegment().metadata().getInteger("lastChunkIndex")).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void commonTextShorterThanTheMinimumOverlapIsKept() {
+        documents.put("d", List.of("Alpha ends", "ends Beta"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), hit("d", 1, 0.8)));
+
+        assertThat(texts(packed)).containsExactly("Alpha ends\nends Beta");
+    }
+
+    @Test
+    void commonTextLongerThanTheSplitterOverlapIsKept() {
+        String repeated = "abcdefghijklmnopqrstuvwxy";
+        documents.put("d", List.of("Start " + repeated, repeated + " end"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), hit("d", 1, 0.8)));
+
+        assertThat(texts(packed)).containsExactly("Start " + repeated + "\n" + repeated + " end");
+    }
+
+    @Test
+    void gapBetweenHitsIsBridgedWithTheMissingChunk() {
+        documents.put("d", List.of("first chunk text", "middle chunk text", "last chunk text"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 2, 0.7), hit("d", 0, 0.9)));
+
+        verify(chunkService).findChunksAt(Map.of("d", Set.of(1)));
+        assertThat(texts(packed)).containsExactly("first chunk text\nmiddle chunk text\nlast chunk text");
+        assertThat(packed.get(0).textSegment().metadata().getInteger("lastChunkIndex")).isEqualTo(2);
+    }
+
+    @Test
+    void gapWiderThanBridgeGapIsNotFetched() {
+        documents.put("d", List.of("zero", "one", "two", "three"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), hit("d", 3, 0.8)));
+
+        verify(chunkService, never()).findChunksAt(anyMap());
+        assertThat(texts(packed)).containsExactly("zero", "three");
+    }
+
+    @Test
+    void neighboursAreFetchedAroundEveryHit() {
+        settings.setExpandNeighbours(1);
+        documents.put("d", List.of("zero", "one", "two", "three", "four"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), hit("d", 4, 0.8)));
+
+        verify(chunkService).findChunksAt(Map.of("d", Set.of(1, 3, 5)));
+        assertThat(texts(packed)).containsExactly("zero\none", "three\nfour");
+    }
+
+    @Test
+    void identicalTextFromAnotherDocumentIsKeptOnce() {
+        documents.put("original", List.of("Quarterly revenue grew by ten percent."));
+        documents.put("copy", List.of("Quarterly revenue grew by ten percent."));
+
+        List<Content> packed = packer().pack(List.of(hit("copy", 0, 0.7), hit("original", 0, 0.8)));
+
+        assertThat(packed).singleElement().satisfies(content ->
+                assertThat(content.textSegment().metadata().getString("documentId")).isEqualTo("original"));
+    }
+
+    @Test
+    void passagesAreAddedByScoreWhileTheyFitTheBudget() {
+        settings.setMaxContextTokens(30);
+        documents.put("a", List.of("a".repeat(80)));
+        documents.put("b", List.of("b".repeat(80)));
+        documents.put("c", List.of("c".repeat(20)));
+
+        List<Content> packed = packer().pack(List.of(hit("b", 0, 0.8), hit("c", 0, 0.7), hit("a", 0, 0.9)));
+
+        // a (20 tokens) fits, b (20) would exceed 30, c (5) still fits after it
+        assertThat(texts(packed)).containsExactly("a".repeat(80), "c".repeat(20));
+    }
+
+    @Test
+    void bestPassageIsKeptEvenOverBudget() {
+        settings.setMaxContextTokens(10);
+        documents.put("a", List.of("a".repeat(200)));
+
+        List<Content> packed = packer().pack(List.of(hit("a", 0, 0.9)));
+
+        assertThat(texts(packed)).containsExactly("a".repeat(200));
+    }
+
+    @Test
+    void segmentWithoutPositionIsPackedAsItIs() {
+        documents.put("d", List.of("zero", "one"));
+        EmbeddingMatch<TextSegment> external = new EmbeddingMatch<>(0.95, "x", null, TextSegment.from("external"));
+
+        List<Content> packed = packer().pack(List.of(hit("d", 0, 0.9), external, hit("d", 1, 0.8)));
+
+        assertThat(texts(packed)).containsExactly("external", "zero\none");
+    }
+
+    private ContextPacker packer() {
+        return new ContextPacker(chunkService, properties);
+    }
+
+    private EmbeddingMatch<TextSegment> hit(String documentId, int chunkIndex, double score) {
+        return new EmbeddingMatch<>(score, documentId + "-" + chunkIndex, null, chunk(documentId, chunkIndex));
+    }
+
+    private TextSegment chunk(String documentId, int chunkIndex) {
+        Metadata metadata = new Metadata()
+                .put("documentId", documentId)
+                .put("chunkIndex", chunkIndex);
+        return TextSegment.from(documents.get(documentId).get(chunkIndex), metadata);
+    }
+
+    private static List<String> texts(List<Content> packed) {
+        return packed.stream().map(content -> content.textSegment().text()).toList();
+    }
+}
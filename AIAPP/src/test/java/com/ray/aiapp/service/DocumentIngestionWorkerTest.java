@@ -0,0 +1,142 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.domain.model.Document;
+import com.ray.aiapp.domain.model.Document.DocumentType;
+import com.ray.aiapp.domain.model.IngestionJob;
+import com.ray.aiapp.domain.model.IngestionJob.JobStatus;
+import com.ray.aiapp.repository.DocumentRepository;
+import com.ray.aiapp.service.IngestionJobService.JobLostException;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+class DocumentIngestionWorkerTest {
+
+    private static final String TEXT = "First paragraph.\n\nSecond paragraph.\n\nThird paragraph.";
+
+    private final IngestionJobService jobService = mock(IngestionJobService.class);
+    private final DocumentRepository documentRepository = mock(DocumentRepository.class);
+    private final PgVectorEmbeddingStore embeddingStore = mock(PgVectorEmbeddingStore.class);
+    private final ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+    private final LangchainModelProperties properties = new LangchainModelProperties();
+    /** Attempt that currently owns the job, as the database would see it. */
+    private final AtomicInteger owner = new AtomicInteger(1);
+    private final AtomicInteger embedCalls = new AtomicInteger();
+
+    private Document document;
+    private IngestionJob job;
+
+    @BeforeEach
+    void setUp() {
+        properties.getRag().setChunkSize(20);
+        properties.getRag().setChunkOverlap(0);
+        properties.getIngestion().setEmbeddingBatchSize(1);
+
+        document = Document.builder()
+                .originalFileName("notes.txt")
+                .documentType(DocumentType.TEXT)
+                .build();
+        document.setId(UUID.randomUUID());
+        job = IngestionJob.builder()
+                .documentId(document.getId())
+                .status(JobStatus.RUNNING)
+                .attempts(1)
+                .content(TEXT.getBytes(StandardCharsets.UTF_8))
+                .build();
+        job.setId(UUID.randomUUID());
+
+        when(documentRepository.findById(document.getId())).thenReturn(Optional.of(document));
+        when(jobService.claimJobs(anyInt())).thenReturn(List.of(job));
+        when(jobService.complete(any(), anyInt(), anyInt())).thenReturn(true);
+        doAnswer(invocation -> {
+            int attempt = invocation.getArgument(1);
+            if (attempt != owner.get()) {
+                throw new JobLostException(invocation.getArgument(0), attempt);
+            }
+            invocation.<Runnable>getArgument(2).run();
+            return null;
+        }).when(jobService).writeFenced(any(), anyInt(), any());
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any());
+    }
+
+    @Test
+    void ownerStoresEveryBatchThroughTheFence() {
+        worker(embeddingModel(() -> { })).poll();
+
+        verify(jobService, times(3)).writeFenced(eq(job.getId()), eq(1), any());
+        verify(embeddingStore, times(3)).addAll(anyList(), anyList());
+        verify(jobService).complete(job.getId(), 1, 3);
+    }
+
+    @Test
+    void supersededAttemptCannotWrite() {
+        // The job is re-queued and claimed again while the first batch is being embedded
+        worker(embeddingModel(() -> owner.set(2))).poll();
+
+        verify(embeddingStore, never()).addAll(anyList(), anyList());
+        verify(jobService, never()).complete(any(), anyInt(), anyInt());
+        verify(jobService, never()).fail(any(), anyInt(), anyString());
+        // Only the first, pre-write clean-up touched the chunks; the new owner's are left alone
+        verify(embeddingStore, times(1)).deleteByDocumentId(document.getId().toString());
+    }
+
+    @Test
+    void attemptSupersededMidwayKeepsOnlyWhatItWroteAsOwner() {
+        worker(embeddingModel(() -> {
+            if (embedCalls.get() == 2) {
+                owner.set(2);
+            }
+        })).poll();
+
+        verify(embeddingStore, times(1)).addAll(anyList(), anyList());
+        verify(jobService, never()).complete(any(), anyInt(), anyInt());
+        assertThat(embedCalls).hasValue(2);
+    }
+
+    private DocumentIngestionWorker worker(EmbeddingModel embeddingModel) {
+        return new DocumentIngestionWorker(jobService, documentRepository, embeddingStore, embeddingModel,
+                properties, executor);
+    }
+
+    /**
+     * Embeds every segment as a one-dimensional vector, running {@code onCall} after each call.
+     */
+    private EmbeddingModel embeddingModel(Runnable onCall) {
+        return new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                embedCalls.incrementAndGet();
+                onCall.run();
+                return Response.from(segments.stream()
+                        .map(segment -> Embedding.from(new float[] {segment.text().length()}))
+                        .toList());
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Resilience;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Measures chat call latency against a fake OpenAI server whose answers are usually fast but
+ * occasionally very slow, through the plain LangChain4j client and through
+ * {@link ResilientChatLanguageModel} with hedging on.
+ *
+ * <p>Run with {@code mvn test -Dtest=HedgedChatModelLoadTest -Daiapp.loadtest=true}.</p>
+ */
+@EnabledIfSystemProperty(named = "aiapp.loadtest", matches = "true")
+class HedgedChatModelLoadTest {
+
+    private static final int WARMUP_CALLS = 100;
+    private static final int CALLS = 1_000;
+    private static final int CONCURRENCY = 16;
+    private static final Duration FAST = Duration.ofMillis(50);
+    private static final Duration SLOW = Duration.ofMillis(1_500);
+    private static final double SLOW_SHARE = 0.03;
+
+    private static final String COMPLETION = """
+        {"id":"chatcmpl-1","object":"chat.completion","created":0,"model":"gpt-4o-mini",
+         "choices":[{"index":0,"message":{"role":"assistant","content":"ok"},"finish_reason":"stop"}],
+         "usage":{"prompt_tokens":5,"completion_tokens":1,"total_tokens":6}}
+        """;
+
+    private static HttpServer upstream;
+    private static ChatLanguageModel openAiModel;
+
+    @BeforeAll
+    static void startUpstream() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4_096);
+        upstream.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        upstream.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            boolean slow = ThreadLocalRandom.current().nextDouble() < SLOW_SHARE;
+            try {
+                Thread.sleep((slow ? SLOW : FAST).toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = COMPLETION.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+
+        openAiModel = OpenAiChatModel.builder()
+                .baseUrl("http://127.0.0.1:" + upstream.getAddress().getPort() + "/v1/")
+                .apiKey("test")
+                .modelName("gpt-4o-mini")
+                .maxRetries(0)
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.stop(0);
+    }
+
+    @Test
+    void hedgingCutsTailLatency() throws Exception {
+        long[] plain = run("plain client", openAiModel);
+
+        Resilience settings = new Resilience();
+        settings.getHedging().setEnabled(true);
+        settings.getHedging().setPercentile(0.9);
+        settings.getHedging().setMinDelay(Duration.ofMillis(100));
+        settings.getHedging().setLatencySamples(WARMUP_CALLS);
+        ExecutorService callExecutor = Executors.newCachedThreadPool();
+        // The fake server has no rate limits
+        LangchainModelProperties properties = new LangchainModelProperties();
+        properties.getRateLimit().setEnabled(false);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ResilientChatLanguageModel resilient = new ResilientChatLanguageModel(openAiModel,
+                new ModelSelection("gpt-4o-mini", 0.2), settings, callExecutor,
+                new ModelCallScheduler(properties, meterRegistry), meterRegistry);
+        long[] hedged = run("hedged at p90", resilient);
+        callExecutor.shutdownNow();
+
+        assertThat(percentile(hedged, 0.99)).isLessThan(percentile(plain, 0.99));
+    }
+
+    /**
+     * @return sorted latencies in milliseconds of the measured calls
+     */
+    private long[] run(String mode, ChatLanguageModel model) throws Exception {
+        long[] latencies = new long[CALLS];
+        try (ExecutorService callers = Executors.newFixedThreadPool(CONCURRENCY)) {
+            List<Future<Long>> results = new ArrayList<>(WARMUP_CALLS + CALLS);
+            for (int i = 0; i < WARMUP_CALLS + CALLS; i++) {
+                results.add(callers.submit(() -> {
+                    long start = System.nanoTime();
+                    assertThat(model.generate("hello")).isEqualTo("ok");
+                    return (System.nanoTime() - start) / 1_000_000;
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                long latency = results.get(i).get();
+                if (i >= WARMUP_CALLS) {
+                    latencies[i - WARMUP_CALLS] = latency;
+                }
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-16s p50 %5d ms   p95 %5d ms   p99 %5d ms   max %5d ms%n", mode,
+                percentile(latencies, 0.5), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                latencies[latencies.length - 1]);
+        return latencies;
+    }
+
+    private long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+}
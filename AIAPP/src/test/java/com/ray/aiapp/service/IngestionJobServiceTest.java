@@ -0,0 +1,44 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.repository.DocumentRepository;
+import com.ray.aiapp.repository.IngestionJobRepository;
+import com.ray.aiapp.service.IngestionJobService.JobLostException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+class IngestionJobServiceTest {
+
+    private final IngestionJobRepository jobRepository = mock(IngestionJobRepository.class);
+    private final IngestionJobService jobService = new IngestionJobService(jobRepository,
+            mock(DocumentRepository.class), new LangchainModelProperties(), mock(ApplicationEventPublisher.class));
+    private final UUID jobId = UUID.randomUUID();
+
+    @Test
+    void fencedWriteRunsWhileTheAttemptOwnsTheJob() {
+        when(jobRepository.lockOwnedJob(jobId, 2)).thenReturn(Optional.of(jobId));
+        AtomicBoolean written = new AtomicBoolean();
+
+        jobService.writeFenced(jobId, 2, () -> written.set(true));
+
+        assertThat(written).isTrue();
+    }
+
+    @Test
+    void supersededAttemptCannotWrite() {
+        when(jobRepository.lockOwnedJob(jobId, 1)).thenReturn(Optional.empty());
+        AtomicBoolean written = new AtomicBoolean();
+
+        assertThatThrownBy(() -> jobService.writeFenced(jobId, 1, () -> written.set(true)))
+                .isInstanceOf(JobLostException.class);
+        assertThat(written).isFalse();
+    }
+}
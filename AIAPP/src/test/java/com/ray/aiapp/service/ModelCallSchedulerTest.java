@@ -0,0 +1,235 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.RateLimit;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Uses tiny limits so refills take milliseconds: 600 requests per minute is one request every 100 ms.
+ */
+class ModelCallSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LangchainModelProperties properties = new LangchainModelProperties();
+    private final RateLimit settings = properties.getRateLimit();
+    private final List<Thread> waiters = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void stopWaiters() throws InterruptedException {
+        for (Thread waiter : waiters) {
+            waiter.interrupt();
+            waiter.join(5_000);
+        }
+    }
+
+    @Test
+    void higherPriorityIsAdmittedFirstWhateverTheArrivalOrder() throws Exception {
+        settings.setRequestsPerMinute(600);
+        settings.setBackgroundHeadroom(0);
+        ModelCallScheduler scheduler = scheduler();
+        drainRequests(scheduler);
+        List<Priority> admitted = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> embedding = acquireAsync(scheduler, Priority.QUERY_EMBEDDING, 0, admitted);
+        awaitQueued(Priority.QUERY_EMBEDDING, 1);
+        CompletableFuture<Void> chat = acquireAsync(scheduler, Priority.CHAT, 0, admitted);
+        awaitQueued(Priority.CHAT, 1);
+
+        CompletableFuture.allOf(embedding, chat).get(5, TimeUnit.SECONDS);
+        assertThat(admitted).containsExactly(Priority.CHAT, Priority.QUERY_EMBEDDING);
+    }
+
+    @Test
+    void samePriorityIsAdmittedInArrivalOrder() throws Exception {
+        settings.setRequestsPerMinute(600);
+        ModelCallScheduler scheduler = scheduler();
+        drainRequests(scheduler);
+        List<Integer> admitted = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[3];
+        for (int i = 0; i < calls.length; i++) {
+            int caller = i;
+            calls[i] = CompletableFuture.runAsync(() -> {
+                scheduler.acquire(Priority.CHAT, 0);
+                admitted.add(caller);
+            });
+            awaitQueued(Priority.CHAT, i + 1);
+        }
+
+        CompletableFuture.allOf(calls).get(5, TimeUnit.SECONDS);
+        assertThat(admitted).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void backgroundWaitsForHeadroomWhileChatIsAdmitted() throws Exception {
+        settings.setRequestsPerMinute(600);
+        settings.setBackgroundHeadroom(0.2);
+        ModelCallScheduler scheduler = scheduler();
+        drainRequests(scheduler);
+
+        CompletableFuture<Void> background = acquireAsync(scheduler, Priority.BACKGROUND, 0, new CopyOnWriteArrayList<>());
+        awaitQueued(Priority.BACKGROUND, 1);
+        // A few requests refill, far fewer than the 120 of headroom background calls must leave free
+        Thread.sleep(300);
+
+        assertThat(background).isNotDone();
+        scheduler.acquire(Priority.CHAT, 0);
+        assertThat(background).isNotDone();
+    }
+
+    @Test
+    void backgroundIsAdmittedWhileHeadroomIsFree() {
+        settings.setBackgroundHeadroom(0.2);
+        ModelCallScheduler scheduler = scheduler();
+
+        assertThat(scheduler.tryAcquire(Priority.BACKGROUND, 1_000)).isTrue();
+    }
+
+    @Test
+    void retryAfterIsReadFromTheRateLimitMessage() {
+        ModelCallScheduler scheduler = scheduler();
+
+        assertThat(scheduler.onFailure(rateLimited("Rate limit reached. Please try again in 250ms.")))
+                .isEqualTo(Duration.ofMillis(250));
+        assertThat(scheduler.onFailure(rateLimited("Rate limit reached. Please try again in 1.5s.")))
+                .isEqualTo(Duration.ofMillis(1_500));
+        assertThat(scheduler.onFailure(rateLimited("Too many requests, retry after 2 s")))
+                .isEqualTo(Duration.ofSeconds(2));
+        assertThat(scheduler.onFailure(new RuntimeException(rateLimited("try again in 20ms"))))
+                .isEqualTo(Duration.ofMillis(20));
+    }
+
+    @Test
+    void rateLimitWithoutHintWaitsForTheConfiguredBackoff() {
+        settings.setRetryBackoff(Duration.ofMillis(700));
+        ModelCallScheduler scheduler = scheduler();
+
+        assertThat(scheduler.onFailure(rateLimited("Too many requests"))).isEqualTo(Duration.ofMillis(700));
+    }
+
+    @Test
+    void exhaustedQuotaAndOtherErrorsAreNotRateLimits() {
+        ModelCallScheduler scheduler = scheduler();
+
+        assertThat(scheduler.onFailure(rateLimited("{\"error\":{\"code\":\"insufficient_quota\"}}"))).isNull();
+        assertThat(scheduler.onFailure(new OpenAiHttpException(500, "try again in 1s"))).isNull();
+        assertThat(scheduler.onFailure(new IllegalStateException("rate limit, try again in 1s"))).isNull();
+        assertThat(meterRegistry.get("model.calls.rate.limited").counter().count()).isZero();
+    }
+
+    @Test
+    void rateLimitedCallIsRetriedAfterThePause() {
+        ModelCallScheduler scheduler = scheduler();
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+
+        String result = scheduler.call(Priority.CHAT, 10, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw rateLimited("Please try again in 100ms.");
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts).hasValue(2);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(meterRegistry.get("model.calls.rate.limited").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void callGivesUpAfterMaxRetries() {
+        settings.setMaxRetries(1);
+        ModelCallScheduler scheduler = scheduler();
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> scheduler.call(Priority.CHAT, 10, () -> {
+            attempts.incrementAndGet();
+            throw rateLimited("Please try again in 1ms.");
+        })).isInstanceOf(OpenAiHttpException.class);
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void settleRefundsTokensAnswerDidNotUse() {
+        settings.setTokensPerMinute(1_000);
+        ModelCallScheduler scheduler = scheduler();
+        scheduler.acquire(Priority.CHAT, 900);
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 800)).isFalse();
+
+        scheduler.settle(900, new TokenUsage(60, 40));
+
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 800)).isTrue();
+    }
+
+    @Test
+    void settleChargesTokensBeyondTheEstimate() {
+        settings.setTokensPerMinute(1_000);
+        ModelCallScheduler scheduler = scheduler();
+        scheduler.acquire(Priority.CHAT, 100);
+
+        scheduler.settle(100, new TokenUsage(500, 100));
+
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 500)).isFalse();
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 300)).isTrue();
+    }
+
+    private ModelCallScheduler scheduler() {
+        return new ModelCallScheduler(properties, meterRegistry);
+    }
+
+    private static void drainRequests(ModelCallScheduler scheduler) {
+        while (scheduler.tryAcquire(Priority.CHAT, 0)) {
+            // take every request in the bucket
+        }
+    }
+
+    private CompletableFuture<Void> acquireAsync(ModelCallScheduler scheduler, Priority priority, int tokens,
+                                                 List<Priority> admitted) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                scheduler.acquire(priority, tokens);
+                admitted.add(priority);
+                result.complete(null);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        waiters.add(waiter);
+        waiter.start();
+        return result;
+    }
+
+    private void awaitQueued(Priority priority, int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queued(priority) < depth) {
+            assertThat(System.nanoTime()).as("%s calls never queued", priority).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private double queued(Priority priority) {
+        return meterRegistry.get("model.calls.queued")
+                .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                .gauge().value();
+    }
+
+    private static OpenAiHttpException rateLimited(String message) {
+        return new OpenAiHttpException(429, message);
+    }
+}
@@ -0,0 +1,84 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.exception.ModelUnavailableException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.mock.env.MockEnvironment;
+
+class OutboundCallGuardTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final OutboundCallGuard guard = guard(1, 1);
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        guard.shutdown();
+    }
+
+    @Test
+    void callBeyondThreadsAndQueueFailsFast() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CompletableFuture<String> first = onVirtualThread(() -> {
+            running.countDown();
+            await(release);
+            return "first";
+        });
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> queued = onVirtualThread(() -> "queued");
+        // Give the second call time to take the only queue slot
+        Thread.sleep(100);
+
+        CompletableFuture<String> rejected = onVirtualThread(() -> "rejected");
+
+        assertThat(rejected).failsWithin(5, TimeUnit.SECONDS)
+                .withThrowableOfType(Exception.class)
+                .havingCause().isInstanceOf(ModelUnavailableException.class);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("queued");
+    }
+
+    @Test
+    void platformThreadsRunInline() {
+        Thread caller = Thread.currentThread();
+
+        assertThat(guard.call(() -> Thread.currentThread() == caller)).isTrue();
+    }
+
+    private static OutboundCallGuard guard(int threads, int queueCapacity) {
+        LangchainModelProperties properties = new LangchainModelProperties();
+        properties.getExecution().setPinGuardThreads(threads);
+        properties.getExecution().setPinGuardQueueCapacity(queueCapacity);
+        return new OutboundCallGuard(properties, new ServerProperties(),
+                new MockEnvironment().withProperty("spring.threads.virtual.enabled", "true"));
+    }
+
+    private <T> CompletableFuture<T> onVirtualThread(Supplier<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                result.complete(guard.call(call));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
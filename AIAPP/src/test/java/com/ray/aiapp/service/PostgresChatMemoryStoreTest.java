@@ -0,0 +1,187 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.repository.ChatMemoryJdbcRepository;
+import com.ray.aiapp.repository.ChatMemoryJdbcRepository.StoredMessages;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.UserMessage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Two store instances sharing one table, as two nodes behind a load balancer would.
+ */
+class PostgresChatMemoryStoreTest {
+
+    private static final String SESSION = "session-1";
+
+    private final InMemoryChatMemoryRepository table = new InMemoryChatMemoryRepository();
+    private final PostgresChatMemoryStore nodeA = store();
+    private final PostgresChatMemoryStore nodeB = store();
+
+    @AfterEach
+    void shutdown() {
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+
+    @Test
+    void endOfTurnIsWrittenWithoutWaitingForTheFlush() {
+        turn(nodeA, "hello");
+
+        assertThat(table.messages(SESSION)).containsExactly(UserMessage.from("hello"), AiMessage.from("re: hello"));
+    }
+
+    @Test
+    void followUpTurnOnAnotherNodeSeesThePreviousTurn() {
+        // Both nodes hold the session hot, well within the revalidate interval
+        nodeA.getMessages(SESSION);
+        nodeB.getMessages(SESSION);
+
+        turn(nodeA, "first");
+        turn(nodeB, "second");
+        turn(nodeA, "third");
+
+        assertThat(table.messages(SESSION)).extracting(PostgresChatMemoryStoreTest::text)
+                .containsExactly("first", "re: first", "second", "re: second", "third", "re: third");
+        assertThat(table.writes).isEqualTo(3);
+    }
+
+    @Test
+    void concurrentTurnsOnTwoNodesKeepTheFirstWrite() {
+        turn(nodeA, "first");
+        nodeA.beginTurn(SESSION);
+        nodeB.beginTurn(SESSION);
+        answer(nodeA, "from A");
+        answer(nodeB, "from B");
+
+        nodeA.endTurn(SESSION);
+        nodeB.endTurn(SESSION);
+
+        assertThat(table.messages(SESSION)).extracting(PostgresChatMemoryStoreTest::text)
+                .containsExactly("first", "re: first", "from A", "re: from A");
+        // The losing node reloads instead of keeping its dropped turn
+        assertThat(nodeB.getMessages(SESSION)).isEqualTo(table.messages(SESSION));
+        // and nothing of the dropped turn is written later
+        nodeB.flush();
+        assertThat(table.writes).isEqualTo(2);
+    }
+
+    @Test
+    void conflictingPeriodicFlushDropsTheStaleUpdate() {
+        turn(nodeA, "first");
+        nodeB.getMessages(SESSION);
+        turn(nodeA, "second");
+
+        // A write outside a turn, based on the version before "second"
+        List<ChatMessage> stale = new ArrayList<>(nodeB.getMessages(SESSION));
+        stale.add(AiMessage.from("summary"));
+        nodeB.updateMessages(SESSION, stale);
+        nodeB.flush();
+
+        assertThat(table.messages(SESSION)).extracting(PostgresChatMemoryStoreTest::text)
+                .containsExactly("first", "re: first", "second", "re: second");
+        assertThat(nodeB.getMessages(SESSION)).isEqualTo(table.messages(SESSION));
+    }
+
+    @Test
+    void updateOfAColdSessionIsBasedOnTheStoredVersion() {
+        turn(nodeA, "first");
+        turn(nodeA, "second");
+
+        // Node B never read the session, so it has to look the row version up
+        nodeB.updateMessages(SESSION, List.of(UserMessage.from("replaced")));
+        nodeB.endTurn(SESSION);
+
+        assertThat(table.messages(SESSION)).containsExactly(UserMessage.from("replaced"));
+    }
+
+    private PostgresChatMemoryStore store() {
+        LangchainModelProperties properties = new LangchainModelProperties();
+        // Only turn ends and explicit flushes write
+        properties.getMemory().setFlushInterval(Duration.ofHours(1));
+        properties.getMemory().setRevalidateInterval(Duration.ofHours(1));
+        return new PostgresChatMemoryStore(table, properties);
+    }
+
+    private static void turn(PostgresChatMemoryStore store, String message) {
+        store.beginTurn(SESSION);
+        answer(store, message);
+        store.endTurn(SESSION);
+    }
+
+    /**
+     * Append a question and its answer as two updates, like AiServices does during a turn.
+     */
+    private static void answer(PostgresChatMemoryStore store, String message) {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(SESSION));
+        messages.add(UserMessage.from(message));
+        store.updateMessages(SESSION, messages);
+        messages = new ArrayList<>(store.getMessages(SESSION));
+        messages.add(AiMessage.from("re: " + message));
+        store.updateMessages(SESSION, messages);
+    }
+
+    private static String text(ChatMessage message) {
+        return message instanceof UserMessage user ? user.singleText() : ((AiMessage) message).text();
+    }
+
+    /**
+     * chat_memories with the repository's versioning rules.
+     */
+    private static final class InMemoryChatMemoryRepository extends ChatMemoryJdbcRepository {
+
+        private final Map<String, StoredMessages> rows = new HashMap<>();
+        private int writes;
+
+        InMemoryChatMemoryRepository() {
+            super(null);
+        }
+
+        @Override
+        public synchronized Optional<StoredMessages> find(String memoryId) {
+            return Optional.ofNullable(rows.get(memoryId));
+        }
+
+        @Override
+        public synchronized long findVersion(String memoryId) {
+            StoredMessages row = rows.get(memoryId);
+            return row == null ? 0 : row.version();
+        }
+
+        @Override
+        public synchronized Set<String> writeAll(Map<String, StoredMessages> messagesById) {
+            Set<String> conflicts = new HashSet<>();
+            messagesById.forEach((memoryId, stored) -> {
+                if (findVersion(memoryId) != stored.version()) {
+                    conflicts.add(memoryId);
+                    return;
+                }
+                rows.put(memoryId, new StoredMessages(stored.messages(), stored.version() + 1));
+                writes++;
+            });
+            return conflicts;
+        }
+
+        @Override
+        public synchronized void delete(String memoryId) {
+            rows.remove(memoryId);
+        }
+
+        synchronized List<ChatMessage> messages(String memoryId) {
+            return ChatMessageDeserializer.messagesFromJson(rows.get(memoryId).messages());
+        }
+    }
+}
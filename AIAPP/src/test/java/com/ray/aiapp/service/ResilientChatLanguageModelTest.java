@@ -0,0 +1,398 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.config.properties.LangchainModelProperties.Resilience;
+import com.ray.aiapp.exception.ModelUnavailableException;
+import com.ray.aiapp.service.ModelCallScheduler.Priority;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ResilientChatLanguageModelTest {
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final ScriptedChatModel delegate = new ScriptedChatModel();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LangchainModelProperties properties = new LangchainModelProperties();
+    private final Resilience settings = properties.getResilience();
+    private final ExecutorService callExecutor = Executors.newCachedThreadPool();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stop() {
+        delegate.releaseAll();
+        callExecutor.shutdownNow();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void circuitOpensOnOutagesThenClosesAfterSuccessfulTrials() {
+        window(4, 4);
+        settings.setCircuitOpenDuration(Duration.ZERO);
+        settings.setCircuitHalfOpenCalls(2);
+        ResilientChatLanguageModel model = model();
+
+        call(model, "ok");
+        call(model, "ok");
+        callFailing(model, "500");
+        assertThat(state()).isEqualTo(CLOSED);
+        callFailing(model, "io");
+        assertThat(state()).isEqualTo(OPEN);
+
+        // The open duration has passed: trial calls, and both must succeed
+        call(model, "ok");
+        assertThat(state()).isEqualTo(HALF_OPEN);
+        call(model, "ok");
+        assertThat(state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void openCircuitFailsFastWithoutCallingTheModel() {
+        window(2, 2);
+        settings.setCircuitOpenDuration(Duration.ofHours(1));
+        ResilientChatLanguageModel model = model();
+        callFailing(model, "500");
+        callFailing(model, "503");
+        int calls = delegate.calls.get();
+
+        assertThatThrownBy(() -> call(model, "ok"))
+                .isInstanceOf(ModelUnavailableException.class)
+                .hasMessageContaining("is failing");
+        assertThat(delegate.calls).hasValue(calls);
+    }
+
+    @Test
+    void failedTrialReopensTheCircuit() {
+        window(2, 2);
+        settings.setCircuitOpenDuration(Duration.ZERO);
+        ResilientChatLanguageModel model = model();
+        callFailing(model, "500");
+        callFailing(model, "500");
+
+        callFailing(model, "500");
+
+        assertThat(state()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void clientErrorsAndRateLimitsNeverOpenTheCircuit() {
+        window(4, 4);
+        ResilientChatLanguageModel model = model();
+
+        for (int i = 0; i < 10; i++) {
+            callFailing(model, "400");
+            callFailing(model, "429");
+            callFailing(model, "bug");
+        }
+
+        assertThat(state()).isEqualTo(CLOSED);
+        call(model, "ok");
+    }
+
+    @Test
+    void ignoredErrorsDoNotDiluteTheFailureRate() {
+        window(2, 2);
+        ResilientChatLanguageModel model = model();
+
+        callFailing(model, "500");
+        callFailing(model, "400");
+        callFailing(model, "500");
+
+        assertThat(state()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void trialEndingInAClientErrorGivesItsSlotBack() {
+        openWithOneTrialSlot();
+        ResilientChatLanguageModel model = model();
+        callFailing(model, "500");
+        callFailing(model, "500");
+
+        callFailing(model, "400");
+
+        assertThat(state()).isEqualTo(HALF_OPEN);
+        call(model, "ok");
+        assertThat(state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void interruptedTrialGivesItsSlotBack() throws Exception {
+        openWithOneTrialSlot();
+        ResilientChatLanguageModel model = model();
+        callFailing(model, "500");
+        callFailing(model, "500");
+
+        CompletableFuture<Throwable> interrupted = new CompletableFuture<>();
+        Thread caller = new Thread(() -> {
+            try {
+                call(model, "block:trial");
+                interrupted.complete(null);
+            } catch (Throwable e) {
+                interrupted.complete(e);
+            }
+        });
+        caller.start();
+        delegate.awaitBlocked("block:trial");
+        caller.interrupt();
+
+        assertThat(interrupted.get(5, TimeUnit.SECONDS)).isInstanceOf(IllegalStateException.class);
+        assertThat(state()).isEqualTo(HALF_OPEN);
+        call(model, "ok");
+        assertThat(state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void callAdmittedBeforeTheCircuitOpenedIsNoTrial() throws Exception {
+        openWithOneTrialSlot();
+        ResilientChatLanguageModel model = model();
+        // Admitted while closed, answers only after the circuit opened and went half open
+        CompletableFuture<Response<AiMessage>> early = async(model, "block:early");
+        delegate.awaitBlocked("block:early");
+        callFailing(model, "500");
+        callFailing(model, "500");
+        assertThat(state()).isEqualTo(OPEN);
+        CompletableFuture<Response<AiMessage>> trial = async(model, "block:trial");
+        delegate.awaitBlocked("block:trial");
+
+        delegate.release("block:early");
+        early.get(5, TimeUnit.SECONDS);
+
+        // Its success neither closed the circuit nor freed the trial slot
+        assertThat(state()).isEqualTo(HALF_OPEN);
+        assertThatThrownBy(() -> call(model, "ok")).isInstanceOf(ModelUnavailableException.class);
+        delegate.release("block:trial");
+        trial.get(5, TimeUnit.SECONDS);
+        assertThat(state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void staleFailureCannotReopenAHalfOpenCircuit() throws Exception {
+        openWithOneTrialSlot();
+        ResilientChatLanguageModel model = model();
+        CompletableFuture<Response<AiMessage>> early = async(model, "block:early-500");
+        delegate.awaitBlocked("block:early-500");
+        callFailing(model, "500");
+        callFailing(model, "500");
+        CompletableFuture<Response<AiMessage>> trial = async(model, "block:trial");
+        delegate.awaitBlocked("block:trial");
+
+        delegate.release("block:early-500");
+        assertThatThrownBy(() -> early.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+
+        assertThat(state()).isEqualTo(HALF_OPEN);
+        delegate.release("block:trial");
+        trial.get(5, TimeUnit.SECONDS);
+        assertThat(state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void timeoutCountsAsAFailure() {
+        window(1, 1);
+        settings.setTimeout(Duration.ofMillis(50));
+        settings.setCircuitOpenDuration(Duration.ofHours(1));
+        ResilientChatLanguageModel model = model();
+
+        assertThatThrownBy(() -> call(model, "block:slow"))
+                .isInstanceOf(ModelUnavailableException.class)
+                .hasMessageContaining("did not answer");
+        assertThat(state()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void outageClassification() {
+        assertThat(ResilientChatLanguageModel.isOutage(new OpenAiHttpException(502, "bad gateway"))).isTrue();
+        assertThat(ResilientChatLanguageModel.isOutage(new RuntimeException(new IOException("reset")))).isTrue();
+        assertThat(ResilientChatLanguageModel.isOutage(new OpenAiHttpException(400, "context_length_exceeded")))
+                .isFalse();
+        assertThat(ResilientChatLanguageModel.isOutage(new OpenAiHttpException(429, "rate limit"))).isFalse();
+        assertThat(ResilientChatLanguageModel.isOutage(new IllegalArgumentException("bug"))).isFalse();
+    }
+
+    @Test
+    void hedgeIsChargedToTheRateLimits() {
+        ModelCallScheduler scheduler = hedgingWithRequestsPerMinute(1);
+        ResilientChatLanguageModel model = model(scheduler);
+        warmUpLatencies(model);
+
+        call(model, "hedge-me");
+
+        assertThat(hedges("issued")).isEqualTo(1);
+        // The hedge took the bucket's only request
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 0)).isFalse();
+    }
+
+    @Test
+    void hedgeIsSkippedWithoutRateLimitCapacity() {
+        ModelCallScheduler scheduler = hedgingWithRequestsPerMinute(1);
+        ResilientChatLanguageModel model = model(scheduler);
+        warmUpLatencies(model);
+        // An interactive call took the bucket's only request
+        assertThat(scheduler.tryAcquire(Priority.CHAT, 0)).isTrue();
+
+        call(model, "hedge-me");
+
+        assertThat(hedges("issued")).isZero();
+        assertThat(delegate.calls("hedge-me")).isEqualTo(1);
+    }
+
+    private void window(int size, int minimumCalls) {
+        settings.setCircuitWindow(size);
+        settings.setCircuitMinimumCalls(minimumCalls);
+        settings.setCircuitFailureRate(0.5);
+    }
+
+    private void openWithOneTrialSlot() {
+        window(2, 2);
+        settings.setCircuitOpenDuration(Duration.ZERO);
+        settings.setCircuitHalfOpenCalls(1);
+    }
+
+    /**
+     * Hedging starts once two fast calls filled the latency window, at {@code minDelay}.
+     */
+    private ModelCallScheduler hedgingWithRequestsPerMinute(int requestsPerMinute) {
+        settings.getHedging().setEnabled(true);
+        settings.getHedging().setLatencySamples(2);
+        settings.getHedging().setMinDelay(Duration.ofMillis(20));
+        settings.getHedging().setMaxRatio(1);
+        properties.getRateLimit().setRequestsPerMinute(requestsPerMinute);
+        return new ModelCallScheduler(properties, meterRegistry);
+    }
+
+    /**
+     * Fill the latency window with two fast calls. They are not charged: the scheduler admits original
+     * calls outside the resilient model.
+     */
+    private void warmUpLatencies(ResilientChatLanguageModel model) {
+        call(model, "ok");
+        call(model, "ok");
+    }
+
+    private ResilientChatLanguageModel model() {
+        properties.getRateLimit().setEnabled(false);
+        return model(new ModelCallScheduler(properties, meterRegistry));
+    }
+
+    private ResilientChatLanguageModel model(ModelCallScheduler scheduler) {
+        return new ResilientChatLanguageModel(delegate, new ModelSelection("gpt-4o-mini", 0.2), settings,
+                callExecutor, scheduler, meterRegistry);
+    }
+
+    private int state() {
+        return (int) meterRegistry.get("chat.model.circuit.state").gauge().value();
+    }
+
+    private double hedges(String outcome) {
+        return meterRegistry.get("chat.model.hedges").tag("outcome", outcome).counter().count();
+    }
+
+    private static Response<AiMessage> call(ResilientChatLanguageModel model, String script) {
+        return model.generate(List.of(UserMessage.from(script)));
+    }
+
+    private static void callFailing(ResilientChatLanguageModel model, String script) {
+        assertThatThrownBy(() -> call(model, script)).isInstanceOf(RuntimeException.class);
+    }
+
+    private CompletableFuture<Response<AiMessage>> async(ResilientChatLanguageModel model, String script) {
+        return CompletableFuture.supplyAsync(() -> call(model, script), callers);
+    }
+
+    /**
+     * Acts on the user message: {@code ok} answers, a status code such as {@code 500} fails with that
+     * HTTP status, {@code io} with an I/O error, {@code bug} with a plain exception, and {@code block:*}
+     * waits until released, then answers, or fails with 500 if it ends in {@code -500}.
+     * {@code hedge-me} answers slowly the first time and fast after that.
+     */
+    private static final class ScriptedChatModel implements ChatLanguageModel {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final Map<String, AtomicInteger> callsByScript = new ConcurrentHashMap<>();
+        private final Map<String, CountDownLatch> started = new ConcurrentHashMap<>();
+        private final Map<String, CountDownLatch> releases = new ConcurrentHashMap<>();
+
+        @Override
+        public Response<AiMessage> generate(List<ChatMessage> messages) {
+            String script = ((UserMessage) messages.get(0)).singleText();
+            calls.incrementAndGet();
+            int call = callsByScript.computeIfAbsent(script, key -> new AtomicInteger()).incrementAndGet();
+            if (script.startsWith("block:")) {
+                started(script).countDown();
+                await(releaseLatch(script));
+                if (script.endsWith("-500")) {
+                    throw new OpenAiHttpException(500, "server error");
+                }
+            } else if (script.equals("hedge-me") && call == 1) {
+                await(releaseLatch(script), 500);
+            } else if (script.equals("io")) {
+                throw new UncheckedIOException(new IOException("connection reset"));
+            } else if (script.equals("bug")) {
+                throw new IllegalStateException("bug");
+            } else if (script.chars().allMatch(Character::isDigit)) {
+                throw new OpenAiHttpException(Integer.parseInt(script), "status " + script);
+            }
+            return Response.from(AiMessage.from("answer to " + script));
+        }
+
+        int calls(String script) {
+            return callsByScript.getOrDefault(script, new AtomicInteger()).get();
+        }
+
+        void awaitBlocked(String script) throws InterruptedException {
+            assertThat(started(script).await(5, TimeUnit.SECONDS)).as("%s never started", script).isTrue();
+        }
+
+        void release(String script) {
+            releaseLatch(script).countDown();
+        }
+
+        void releaseAll() {
+            releases.values().forEach(CountDownLatch::countDown);
+        }
+
+        private CountDownLatch started(String script) {
+            return started.computeIfAbsent(script, key -> new CountDownLatch(1));
+        }
+
+        private CountDownLatch releaseLatch(String script) {
+            return releases.computeIfAbsent(script, key -> new CountDownLatch(1));
+        }
+
+        private static void await(CountDownLatch latch) {
+            await(latch, 10_000);
+        }
+
+        private static void await(CountDownLatch latch, long millis) {
+            try {
+                latch.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
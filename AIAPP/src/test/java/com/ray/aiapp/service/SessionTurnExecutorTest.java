@@ -0,0 +1,263 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.ray.aiapp.exception.SessionBusyException;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class SessionTurnExecutorTest {
+
+    private static final Duration TURN_WAIT_TIMEOUT = Duration.ofMillis(300);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SessionTurnExecutor executor = executor(Duration.ofSeconds(10));
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void releaseBlockedTurns() throws InterruptedException {
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+    }
+
+    @Test
+    void turnsOfOneSessionRunOneAfterAnotherInArrivalOrder() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Supplier<String> first = () -> {
+            track(running, maxRunning);
+            await(release);
+            order.add("first");
+            running.decrementAndGet();
+            return "first";
+        };
+
+        CompletableFuture<String> firstResult = runAsync(executor, "s", "first", first);
+        awaitBlocked(threads.get(0));
+        CompletableFuture<String> secondResult = runAsync(executor, "s", "second",
+                recording(order, "second", running, maxRunning));
+        awaitBlocked(threads.get(1));
+        CompletableFuture<String> thirdResult = runAsync(executor, "s", "third",
+                recording(order, "third", running, maxRunning));
+        awaitBlocked(threads.get(2));
+
+        assertThat(order).isEmpty();
+        release.countDown();
+
+        assertThat(firstResult.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(thirdResult.get(5, TimeUnit.SECONDS)).isEqualTo("third");
+        assertThat(order).containsExactly("first", "second", "third");
+        assertThat(maxRunning).hasValue(1);
+    }
+
+    @Test
+    void turnsOfDifferentSessionsRunInParallel() throws Exception {
+        CompletableFuture<String> blocked = runAsync(executor, "a", "hello", () -> {
+            await(release);
+            return "a";
+        });
+        awaitBlocked(threads.get(0));
+
+        assertThat(executor.run("b", "hello", () -> "b")).isEqualTo("b");
+        assertThat(blocked).isNotDone();
+    }
+
+    @Test
+    void duplicateOfARunningTurnGetsItsResultWithoutRunningAgain() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<String> turn = () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "answer";
+        };
+
+        CompletableFuture<String> original = runAsync(executor, "s", "Hello  world", turn);
+        awaitBlocked(threads.get(0));
+        CompletableFuture<String> duplicate = runAsync(executor, "s", " Hello world\n", turn);
+        awaitBlocked(threads.get(1));
+        release.countDown();
+
+        assertThat(original.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        assertThat(calls).hasValue(1);
+        assertThat(meterRegistry.get("chat.turns.coalesced").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void duplicateGetsTheFailureOfItsTwin() throws Exception {
+        IllegalStateException failure = new IllegalStateException("model failed");
+        CompletableFuture<String> original = runAsync(executor, "s", "hello", () -> {
+            await(release);
+            throw failure;
+        });
+        awaitBlocked(threads.get(0));
+        CompletableFuture<String> duplicate = runAsync(executor, "s", "hello", () -> "not run");
+        awaitBlocked(threads.get(1));
+        release.countDown();
+
+        assertThatThrownBy(() -> original.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .cause().isSameAs(failure);
+        assertThatThrownBy(() -> duplicate.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .cause().isSameAs(failure);
+    }
+
+    @Test
+    void sameMessageRunsAgainOnceTheFirstTurnFinished() {
+        AtomicInteger calls = new AtomicInteger();
+
+        executor.run("s", "hello", calls::incrementAndGet);
+        executor.run("s", "hello", calls::incrementAndGet);
+
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void turnIsRejectedInsteadOfRunningAlongsideAHungTurn() throws Exception {
+        SessionTurnExecutor executor = executor(TURN_WAIT_TIMEOUT);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> hung = runAsync(executor, "s", "first", () -> {
+            await(release);
+            return "first";
+        });
+        awaitBlocked(threads.get(0));
+
+        assertThatThrownBy(() -> executor.run("s", "second", calls::incrementAndGet))
+                .isInstanceOf(SessionBusyException.class);
+        assertThat(calls).hasValue(0);
+
+        // A later turn still waits for the hung one, then runs
+        CompletableFuture<Integer> third = runAsync(executor, "s", "third", calls::incrementAndGet);
+        awaitBlocked(threads.get(1));
+        assertThat(third).isNotDone();
+        release.countDown();
+        assertThat(hung.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+    }
+
+    @Test
+    void duplicateWaitIsBounded() throws Exception {
+        SessionTurnExecutor executor = executor(TURN_WAIT_TIMEOUT);
+        runAsync(executor, "s", "hello", () -> {
+            await(release);
+            return "answer";
+        });
+        awaitBlocked(threads.get(0));
+
+        assertThatThrownBy(() -> executor.run("s", "hello", () -> "not run"))
+                .isInstanceOf(SessionBusyException.class);
+    }
+
+    @Test
+    void interruptedWaiterKeepsTheQueueMoving() throws Exception {
+        CompletableFuture<String> first = runAsync(executor, "s", "first", () -> {
+            await(release);
+            return "first";
+        });
+        awaitBlocked(threads.get(0));
+        CompletableFuture<String> interrupted = runAsync(executor, "s", "second", () -> "second");
+        awaitBlocked(threads.get(1));
+        threads.get(1).interrupt();
+
+        assertThatThrownBy(() -> interrupted.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(IllegalStateException.class);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(runAsync(executor, "s", "third", () -> "third").get(5, TimeUnit.SECONDS)).isEqualTo("third");
+    }
+
+    @Test
+    void memoryIsCheckedBeforeAndWrittenAfterEachTurn() {
+        PostgresChatMemoryStore store = mock(PostgresChatMemoryStore.class);
+        SessionTurnExecutor executor = new SessionTurnExecutor(new LangchainModelProperties(), meterRegistry, store);
+        Runnable turn = mock(Runnable.class);
+
+        executor.run("s", "hello", () -> {
+            turn.run();
+            return "answer";
+        });
+
+        InOrder inOrder = inOrder(store, turn);
+        inOrder.verify(store).beginTurn("s");
+        inOrder.verify(turn).run();
+        inOrder.verify(store).endTurn("s");
+    }
+
+    private SessionTurnExecutor executor(Duration turnWaitTimeout) {
+        LangchainModelProperties properties = new LangchainModelProperties();
+        properties.getSessions().setTurnWaitTimeout(turnWaitTimeout);
+        return new SessionTurnExecutor(properties, meterRegistry, new InMemoryChatMemoryStore());
+    }
+
+    /**
+     * Run a turn on its own thread, recorded in {@link #threads} in call order.
+     */
+    private <T> CompletableFuture<T> runAsync(SessionTurnExecutor executor, String session, String message,
+                                              Supplier<T> turn) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(executor.run(session, message, turn));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        threads.add(thread);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Wait until {@code thread} parks, i.e. it runs a turn blocked on {@link #release} or waits in line.
+     */
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+            assertThat(System.nanoTime()).as("%s never blocked", thread.getName()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Supplier<String> recording(List<String> order, String name, AtomicInteger running,
+                                              AtomicInteger maxRunning) {
+        return () -> {
+            track(running, maxRunning);
+            order.add(name);
+            running.decrementAndGet();
+            return name;
+        };
+    }
+
+    private static void track(AtomicInteger running, AtomicInteger maxRunning) {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
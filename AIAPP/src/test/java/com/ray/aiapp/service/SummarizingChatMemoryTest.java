@@ -0,0 +1,187 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Every message in these tests estimates to 44 tokens and the budget is 100, so two messages fit and a
+ * third evicts the oldest turn. Summaries complete only when a test completes their future.
+ */
+class SummarizingChatMemoryTest {
+
+    private static final int MAX_TOKENS = 100;
+    private static final String TEXT = "x".repeat(160);
+    private static final SystemMessage SYSTEM = SystemMessage.from("You are a helpful assistant.");
+
+    private final InMemoryChatMemoryStore store = new InMemoryChatMemoryStore();
+    private final ChatSummarizer summarizer = mock(ChatSummarizer.class);
+    private final List<SummaryCall> calls = new ArrayList<>();
+    private final SummarizingChatMemory memory = new SummarizingChatMemory("m", store, MAX_TOKENS, summarizer);
+
+    @BeforeEach
+    void recordSummaryCalls() {
+        when(summarizer.summarizeAsync(nullable(String.class), anyList(), anyInt())).thenAnswer(invocation -> {
+            SummaryCall call = new SummaryCall(invocation.getArgument(0), invocation.getArgument(1));
+            calls.add(call);
+            return call.result;
+        });
+    }
+
+    @Test
+    void toolResultIsEvictedTogetherWithItsRequest() {
+        ToolExecutionRequest request = toolRequest();
+        List<ChatMessage> firstTurn = List.of(
+                UserMessage.from("1" + TEXT),
+                AiMessage.from(request),
+                ToolExecutionResultMessage.from(request, "r" + TEXT),
+                AiMessage.from("a" + TEXT));
+        memory.add(SYSTEM);
+        firstTurn.forEach(memory::add);
+        UserMessage second = UserMessage.from("2" + TEXT);
+
+        memory.add(second);
+
+        assertThat(memory.messages()).containsExactly(SYSTEM, second);
+        assertThat(calls).singleElement().satisfies(call -> assertThat(call.messages).isEqualTo(firstTurn));
+    }
+
+    @Test
+    void currentTurnIsKeptWhenItIsOverBudget() {
+        ToolExecutionRequest request = toolRequest();
+        List<ChatMessage> turn = List.of(
+                UserMessage.from("1" + TEXT),
+                AiMessage.from(request),
+                ToolExecutionResultMessage.from(request, "r" + TEXT));
+
+        turn.forEach(memory::add);
+
+        assertThat(memory.messages()).isEqualTo(turn);
+        assertThat(calls).isEmpty();
+    }
+
+    @Test
+    void summaryIsStoredAfterTheSystemMessage() {
+        memory.add(SYSTEM);
+        memory.add(UserMessage.from("1" + TEXT));
+        memory.add(AiMessage.from("a" + TEXT));
+        UserMessage second = UserMessage.from("2" + TEXT);
+        memory.add(second);
+
+        calls.get(0).result.complete("the user asked once");
+
+        assertThat(memory.messages()).containsExactly(SYSTEM,
+                SystemMessage.from(SummarizingChatMemory.SUMMARY_PREFIX + "the user asked once"), second);
+    }
+
+    @Test
+    void restoredTurnIsNotSummarized() {
+        memory.add(SYSTEM);
+        memory.add(UserMessage.from("1" + TEXT));
+        memory.add(AiMessage.from("a" + TEXT));
+        List<ChatMessage> snapshot = memory.snapshot();
+        memory.add(UserMessage.from("2" + TEXT));
+        assertThat(calls).hasSize(1);
+
+        // The turn is rolled back while the summary of the evicted first turn is still running
+        memory.restore(snapshot);
+        calls.get(0).result.complete("summary of a turn that is back in memory");
+
+        assertThat(memory.messages()).isEqualTo(snapshot);
+        assertThat(calls).hasSize(1);
+    }
+
+    @Test
+    void turnEvictedAgainAfterRestoreIsSummarizedOnce() {
+        memory.add(UserMessage.from("1" + TEXT));
+        memory.add(AiMessage.from("a" + TEXT));
+        List<ChatMessage> snapshot = memory.snapshot();
+        memory.add(UserMessage.from("2" + TEXT));
+        memory.restore(snapshot);
+        memory.add(UserMessage.from("3" + TEXT));
+        assertThat(calls).hasSize(1);
+
+        calls.get(0).result.complete("stale");
+
+        assertThat(memory.messages()).noneMatch(SummarizingChatMemoryTest::isSummary);
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1).messages).isEqualTo(snapshot);
+    }
+
+    @Test
+    void rejectedSummaryIsRetriedWithTheNextEviction() {
+        doThrow(new RejectedExecutionException("summary pool is full"))
+                .doAnswer(invocation -> {
+                    SummaryCall call = new SummaryCall(invocation.getArgument(0), invocation.getArgument(1));
+                    calls.add(call);
+                    return call.result;
+                })
+                .when(summarizer).summarizeAsync(nullable(String.class), anyList(), anyInt());
+        List<ChatMessage> firstTurn = List.of(UserMessage.from("1" + TEXT), AiMessage.from("a" + TEXT));
+        List<ChatMessage> secondTurn = List.of(UserMessage.from("2" + TEXT), AiMessage.from("b" + TEXT));
+        firstTurn.forEach(memory::add);
+        secondTurn.forEach(memory::add);
+        assertThat(calls).isEmpty();
+
+        memory.add(UserMessage.from("3" + TEXT));
+
+        List<ChatMessage> expected = new ArrayList<>(firstTurn);
+        expected.addAll(secondTurn);
+        assertThat(calls).singleElement().satisfies(call -> assertThat(call.messages).isEqualTo(expected));
+    }
+
+    @Test
+    void turnsEvictedDuringASummaryAreFoldedIntoTheNextOne() {
+        memory.add(UserMessage.from("1" + TEXT));
+        memory.add(AiMessage.from("a" + TEXT));
+        List<ChatMessage> secondTurn = List.of(UserMessage.from("2" + TEXT), AiMessage.from("b" + TEXT));
+        secondTurn.forEach(memory::add);
+        memory.add(UserMessage.from("3" + TEXT));
+        assertThat(calls).hasSize(1);
+
+        calls.get(0).result.complete("first summary");
+
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1).previousSummary).isEqualTo("first summary");
+        assertThat(calls.get(1).messages).isEqualTo(secondTurn);
+    }
+
+    private static ToolExecutionRequest toolRequest() {
+        return ToolExecutionRequest.builder().id("call-1").name("search").arguments("{}").build();
+    }
+
+    private static boolean isSummary(ChatMessage message) {
+        return message instanceof SystemMessage system
+                && system.text().startsWith(SummarizingChatMemory.SUMMARY_PREFIX);
+    }
+
+    /** One summarizeAsync invocation; the test decides when and how it completes. */
+    private static final class SummaryCall {
+        private final String previousSummary;
+        private final List<ChatMessage> messages;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        SummaryCall(String previousSummary, List<ChatMessage> messages) {
+            this.previousSummary = previousSummary;
+            this.messages = messages;
+        }
+    }
+}
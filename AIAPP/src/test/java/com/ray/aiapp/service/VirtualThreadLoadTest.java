@@ -0,0 +1,125 @@
+package com.ray.aiapp.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.ray.aiapp.config.properties.LangchainModelProperties;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * Compares how many concurrent chat requests complete per second when each request blocks on a slow
+ * upstream (a stand-in for OpenAI) through OkHttp, the client LangChain4j uses:
+ * a 200-thread platform pool (Tomcat's default), virtual threads, and virtual threads with
+ * {@link OutboundCallGuard}.
+ *
+ * <p>Run with {@code mvn test -Dtest=VirtualThreadLoadTest -Daiapp.loadtest=true}; add
+ * {@code -Djdk.tracePinnedThreads=short} to the surefire argLine to see pinned stacks.</p>
+ */
+@EnabledIfSystemProperty(named = "aiapp.loadtest", matches = "true")
+class VirtualThreadLoadTest {
+
+    private static final int REQUESTS = 2_000;
+    private static final Duration UPSTREAM_LATENCY = Duration.ofMillis(200);
+    private static final int PLATFORM_POOL_SIZE = 200;
+
+    private static HttpServer upstream;
+    private static OkHttpClient client;
+    private static String url;
+
+    @BeforeAll
+    static void startUpstream() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4_096);
+        upstream.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        upstream.createContext("/v1/chat/completions", exchange -> {
+            try {
+                Thread.sleep(UPSTREAM_LATENCY.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+
+        url = "http://127.0.0.1:" + upstream.getAddress().getPort() + "/v1/chat/completions";
+        client = new OkHttpClient.Builder()
+                .readTimeout(Duration.ofSeconds(60))
+                .build();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.stop(0);
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    void virtualThreadsScaleBeyondThePlatformPool() throws Exception {
+        double platform = run("platform pool (" + PLATFORM_POOL_SIZE + ")",
+                Executors.newFixedThreadPool(PLATFORM_POOL_SIZE), null);
+        double virtual = run("virtual threads", Executors.newVirtualThreadPerTaskExecutor(), null);
+
+        ServerProperties serverProperties = new ServerProperties();
+        LangchainModelProperties properties = new LangchainModelProperties();
+        // Every request is submitted at once; let them queue rather than fail fast
+        properties.getExecution().setPinGuardQueueCapacity(REQUESTS);
+        OutboundCallGuard guard = new OutboundCallGuard(properties, serverProperties,
+                new MockEnvironment().withProperty("spring.threads.virtual.enabled", "true"));
+        double guarded = run("virtual threads + pin guard (" + serverProperties.getTomcat().getThreads().getMax() + ")",
+                Executors.newVirtualThreadPerTaskExecutor(), guard);
+        guard.shutdown();
+
+        assertThat(virtual).isGreaterThan(platform);
+        assertThat(guarded).isPositive();
+    }
+
+    /**
+     * @return completed requests per second
+     */
+    private double run(String mode, ExecutorService executor, OutboundCallGuard guard) throws Exception {
+        long start = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<>(REQUESTS);
+        try (executor) {
+            for (int i = 0; i < REQUESTS; i++) {
+                results.add(executor.submit(() -> guard == null ? callUpstream() : guard.call(this::callUpstream)));
+            }
+            for (Future<Integer> result : results) {
+                assertThat(result.get()).isEqualTo(200);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double throughput = REQUESTS / seconds;
+        System.out.printf("%-40s %6d requests in %6.2f s = %8.1f req/s%n", mode, REQUESTS, seconds, throughput);
+        return throughput;
+    }
+
+    private int callUpstream() {
+        Request request = new Request.Builder().url(url).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.code();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}